@@ -0,0 +1,47 @@
+package com.djj.todoscheduleserver.config;
+
+import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * 认证拦截器
+ * 每个请求只根据Authorization头部解析一次令牌，结果保存在请求属性中，控制器通过getCurrentUser读取。
+ * 拦截器本身不拒绝请求，令牌缺失或无效时由各接口按原有格式返回401。
+ */
+@Component
+public class AuthInterceptor implements HandlerInterceptor {
+
+    private static final String CURRENT_USER = AuthInterceptor.class.getName() + ".CURRENT_USER";
+
+    private final UserService userService;
+
+    public AuthInterceptor(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String authorization = request.getHeader("Authorization");
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            String token = authorization.substring(7); // 去掉"Bearer "前缀
+            User user = userService.getUserByToken(token);
+            if (user != null) {
+                request.setAttribute(CURRENT_USER, user);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取本次请求已认证的用户
+     *
+     * @return 令牌缺失或无效时返回null
+     */
+    public static User getCurrentUser(HttpServletRequest request) {
+        return (User) request.getAttribute(CURRENT_USER);
+    }
+}
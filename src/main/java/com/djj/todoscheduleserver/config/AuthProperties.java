@@ -0,0 +1,140 @@
+package com.djj.todoscheduleserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 认证配置类
+ * 用于从配置文件中读取令牌解析相关的配置参数
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "auth")
+public class AuthProperties {
+
+    /**
+     * 令牌缓存配置
+     */
+    private TokenCache tokenCache = new TokenCache();
+
+    /**
+     * 签名令牌配置
+     */
+    private Token token = new Token();
+
+    /**
+     * 密码哈希配置
+     */
+    private Password password = new Password();
+
+    /**
+     * 登录失败限流配置
+     */
+    private Throttle throttle = new Throttle();
+
+    /**
+     * 令牌缓存配置内部类
+     */
+    @Data
+    public static class TokenCache {
+        /**
+         * 是否缓存令牌对应的用户，关闭后每次请求都查询数据库
+         */
+        private boolean enabled = true;
+
+        /**
+         * 缓存项保留时间（秒），在其他节点上修改密码或重新生成令牌后，本节点最多在该时间内继续接受旧令牌
+         */
+        private long ttlSeconds = 300;
+
+        /**
+         * 最多缓存的令牌数
+         */
+        private int maxEntries = 10000;
+    }
+
+    /**
+     * 签名令牌配置内部类
+     */
+    @Data
+    public static class Token {
+        /**
+         * HMAC签名密钥，多节点部署时所有节点必须相同；为空时每次启动随机生成
+         */
+        private String secret;
+
+        /**
+         * 访问令牌有效期（秒）
+         */
+        private long accessTtlSeconds = 7200;
+
+        /**
+         * 刷新令牌有效期（秒）
+         */
+        private long refreshTtlSeconds = 2592000;
+
+        /**
+         * 是否继续接受旧的UUID令牌（按用户表token列查询），所有客户端改用签名令牌后应关闭
+         */
+        private boolean legacyEnabled = true;
+
+        /**
+         * 清理令牌撤销列表中已过期记录的间隔（毫秒）
+         */
+        private long revocationCleanupIntervalMs = 600000;
+    }
+
+    /**
+     * 密码哈希配置内部类
+     */
+    @Data
+    public static class Password {
+        /**
+         * BCrypt成本因子，调整后用户下次登录成功时按新的成本因子重新哈希
+         */
+        private int bcryptCost = 10;
+
+        /**
+         * 执行BCrypt的线程数，为0时取CPU核数的一半（至少1个）
+         */
+        private int hashThreads = 0;
+
+        /**
+         * 等待执行的哈希任务上限，队列已满时直接返回429，不占用请求线程等待
+         */
+        private int queueCapacity = 32;
+    }
+
+    /**
+     * 登录失败限流配置内部类
+     */
+    @Data
+    public static class Throttle {
+        /**
+         * 是否启用登录失败限流
+         */
+        private boolean enabled = true;
+
+        /**
+         * 统计窗口（秒），窗口内失败次数达到上限后直到窗口结束都拒绝登录
+         */
+        private long windowSeconds = 300;
+
+        /**
+         * 同一用户名在窗口内允许的失败次数
+         */
+        private int maxFailuresPerUsername = 5;
+
+        /**
+         * 同一IP在窗口内允许的失败次数，0表示不按IP限流
+         * 部署在反向代理之后时需配置server.forward-headers-strategy，否则所有客户端共用代理的IP
+         */
+        private int maxFailuresPerIp = 30;
+
+        /**
+         * 最多跟踪的用户名和IP数，超过后新的用户名或IP不再计数
+         */
+        private int maxTrackedKeys = 100000;
+    }
+}
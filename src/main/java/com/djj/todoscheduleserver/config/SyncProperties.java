@@ -0,0 +1,347 @@
+package com.djj.todoscheduleserver.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * CRDT同步配置类
+ * 用于从配置文件中读取同步相关的配置参数
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "sync")
+public class SyncProperties {
+
+    /**
+     * 消息上传配置
+     */
+    private Upload upload = new Upload();
+
+    /**
+     * 后台物化（投影）配置
+     */
+    private Materializer materializer = new Materializer();
+
+    /**
+     * 消息下载配置
+     */
+    private Download download = new Download();
+
+    /**
+     * 消息日志压缩配置
+     */
+    private Compaction compaction = new Compaction();
+
+    /**
+     * 重复消息过滤配置
+     */
+    private Dedup dedup = new Dedup();
+
+    /**
+     * Idempotency-Key响应缓存配置
+     */
+    private Idempotency idempotency = new Idempotency();
+
+    /**
+     * 变更订阅（长轮询）配置
+     */
+    private Subscribe subscribe = new Subscribe();
+
+    /**
+     * WebSocket同步通道配置
+     */
+    private WebSocket websocket = new WebSocket();
+
+    /**
+     * 最近消息缓存配置
+     */
+    private HotTail hotTail = new HotTail();
+
+    /**
+     * 消息表分区维护配置
+     */
+    private Partition partition = new Partition();
+
+    /**
+     * 服务器HLC时钟配置
+     */
+    private Hlc hlc = new Hlc();
+
+    /**
+     * 消息上传配置内部类
+     */
+    @Data
+    public static class Upload {
+        /**
+         * 批量写入sync_message时每批的消息条数
+         */
+        private int batchSize = 500;
+    }
+
+    /**
+     * 后台物化配置内部类
+     */
+    @Data
+    public static class Materializer {
+        /**
+         * 是否启用后台物化任务
+         */
+        private boolean enabled = true;
+
+        /**
+         * 并行投影的分区数，同一用户的消息总是落在同一分区内按HLC顺序投影
+         */
+        private int partitions = 4;
+
+        /**
+         * 每次从sync_message读取的待投影消息条数
+         */
+        private int batchSize = 500;
+
+        /**
+         * 轮询待投影消息的间隔（毫秒）
+         */
+        private long pollIntervalMs = 500;
+
+        /**
+         * 单条消息最多尝试投影的次数，连续失败达到该次数后跳过该消息并记录错误日志；
+         * 数据库连接失败、死锁等暂时性错误不计入次数
+         */
+        private int maxAttempts = 5;
+    }
+
+    /**
+     * 消息下载配置内部类
+     */
+    @Data
+    public static class Download {
+        /**
+         * 客户端未指定limit时的每页消息条数
+         */
+        private int defaultPageSize = 500;
+
+        /**
+         * 每页消息条数上限，客户端请求的limit超过该值时按该值处理
+         */
+        private int maxPageSize = 2000;
+    }
+
+    /**
+     * 消息日志压缩配置内部类
+     * 只压缩用户所有设备都已同步过的消息，每批删除后暂停一段时间，避免长时间占用数据库
+     */
+    @Data
+    public static class Compaction {
+        /**
+         * 是否启用后台压缩任务
+         */
+        private boolean enabled = true;
+
+        /**
+         * 两次压缩之间的间隔（毫秒）
+         */
+        private long intervalMs = 600000;
+
+        /**
+         * 每批删除的消息条数
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 每批删除之后的暂停时间（毫秒）
+         */
+        private long pauseMs = 200;
+
+        /**
+         * 每轮最多删除的消息条数，剩余的留到下一轮
+         */
+        private int maxRowsPerRun = 100000;
+
+        /**
+         * 设备超过该天数没有确认新消息时视为过期，不再阻止其他设备已确认的消息被删除
+         */
+        private int deviceInactiveDays = 30;
+    }
+
+    /**
+     * 重复消息过滤配置内部类
+     * 每个用户一个布隆过滤器，按LRU淘汰不活跃用户的过滤器
+     */
+    @Data
+    public static class Dedup {
+        /**
+         * 最多为多少个用户保留过滤器
+         */
+        private int maxUsers = 1000;
+
+        /**
+         * 每个用户的布隆过滤器位数
+         */
+        private int bitsPerUser = 65536;
+
+        /**
+         * 每个元素使用的哈希函数个数
+         */
+        private int hashFunctions = 4;
+
+        /**
+         * 单个过滤器最多记录的消息数，超过后清空重建以控制误判率
+         */
+        private int maxInsertionsPerUser = 5000;
+    }
+
+    /**
+     * Idempotency-Key响应缓存配置内部类
+     */
+    @Data
+    public static class Idempotency {
+        /**
+         * 缓存的响应保留时间（秒）
+         */
+        private long ttlSeconds = 3600;
+
+        /**
+         * 最多缓存的响应数
+         */
+        private int maxEntries = 10000;
+    }
+
+    /**
+     * 变更订阅（长轮询）配置内部类
+     */
+    @Data
+    public static class Subscribe {
+        /**
+         * 没有新消息时请求最长挂起的时间（毫秒），超时后返回changed=false，客户端重新订阅
+         */
+        private long timeoutMs = 30000;
+
+        /**
+         * 每个用户最多同时挂起的长轮询订阅请求数，超过时直接返回429；WebSocket连接不计入
+         */
+        private int maxWaitersPerUser = 16;
+    }
+
+    /**
+     * WebSocket同步通道配置内部类
+     */
+    @Data
+    public static class WebSocket {
+        /**
+         * 向客户端推送新消息的线程数，所有连接共用
+         */
+        private int pushThreads = 4;
+
+        /**
+         * 单次发送的最长时间（毫秒），客户端接收过慢超过该时间时关闭连接
+         */
+        private int sendTimeLimitMs = 10000;
+
+        /**
+         * 每个连接待发送数据的缓冲上限（字节），超过时关闭连接
+         */
+        private int sendBufferSizeLimit = 1048576;
+
+        /**
+         * 客户端单帧文本消息的最大字节数
+         */
+        private int maxTextMessageSize = 1048576;
+    }
+
+    /**
+     * 最近消息缓存配置内部类
+     * 每个用户一个环形缓冲区，所有用户共用一个内存上限
+     */
+    @Data
+    public static class HotTail {
+        /**
+         * 是否启用最近消息缓存；缓存只包含本节点提交的消息，sync.hlc.node-id-bits大于0（多节点部署）时始终关闭
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个用户最多缓存的消息条数
+         */
+        private int maxMessagesPerUser = 1000;
+
+        /**
+         * 消息在缓存中保留的最长时间（秒）
+         */
+        private long maxAgeSeconds = 600;
+
+        /**
+         * 所有用户缓存的总大小上限（字节，按估算值计算）
+         */
+        private long maxBytes = 67108864;
+
+        /**
+         * 输出命中率统计的间隔（毫秒）
+         */
+        private long statsLogIntervalMs = 600000;
+    }
+
+    /**
+     * 消息表分区维护配置内部类
+     * sync_message按HLC的物理时间按月分区，定期预建未来的分区，并可按保留期限归档或删除旧分区
+     */
+    @Data
+    public static class Partition {
+        /**
+         * 是否启用分区维护，sync_message未分区时自动跳过
+         */
+        private boolean enabled = true;
+
+        /**
+         * 提前创建的月份数
+         */
+        private int monthsAhead = 3;
+
+        /**
+         * 保留的月份数，更早的分区在被所有活跃设备确认且已全部投影后移出；0表示不移出
+         */
+        private int retentionMonths = 0;
+
+        /**
+         * 移出的分区是否交换到归档表保留，为false时直接删除
+         */
+        private boolean archive = true;
+
+        /**
+         * 维护间隔（毫秒）
+         */
+        private long intervalMs = 86400000;
+    }
+
+    /**
+     * 服务器HLC时钟配置内部类
+     * 多个节点同时运行时，每个节点配置不同的nodeId，并使用相同的nodeIdBits
+     */
+    @Data
+    public static class Hlc {
+        /**
+         * 当前节点的ID，取值范围为0到2^nodeIdBits-1
+         */
+        private int nodeId = 0;
+
+        /**
+         * HLC逻辑部分（共16位）中用于节点ID的低位数，0表示单节点部署；每毫秒可生成的HLC数随之减少为2^(16-nodeIdBits)
+         */
+        private int nodeIdBits = 0;
+
+        /**
+         * 每次续租预留的物理时间（毫秒），每经过这么长时间才需要写一次数据库
+         */
+        private long leaseMs = 10000;
+
+        /**
+         * 上传消息的HLC物理部分最多允许超前服务器时间的毫秒数，超过时拒绝该消息；0表示不限制
+         */
+        private long maxFutureDriftMs = 3600000;
+
+        /**
+         * 输出设备时钟偏差统计的间隔（毫秒）
+         */
+        private long skewStatsLogIntervalMs = 600000;
+    }
+}
@@ -2,14 +2,21 @@ package com.djj.todoscheduleserver.config;
 
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 /**
  * Web配置类
- * 配置CORS等Web相关设置
+ * 配置CORS、认证拦截器等Web相关设置
  */
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
+
+    private final AuthInterceptor authInterceptor;
+
+    public WebConfig(AuthInterceptor authInterceptor) {
+        this.authInterceptor = authInterceptor;
+    }
     
     /**
      * 配置全局CORS设置
@@ -20,6 +27,17 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOrigins("*")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders("ETag")
                 .maxAge(3600);
     }
-} 
\ No newline at end of file
+
+    /**
+     * 需要登录的接口在进入控制器前统一解析令牌
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(authInterceptor)
+                .addPathPatterns("/sync/**", "/users/**")
+                .excludePathPatterns("/users/register", "/users/login", "/users/token/refresh");
+    }
+} 
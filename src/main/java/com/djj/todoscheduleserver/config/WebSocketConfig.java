@@ -0,0 +1,29 @@
+package com.djj.todoscheduleserver.config;
+
+import com.djj.todoscheduleserver.controller.SyncWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * WebSocket配置类
+ * 注册同步通道 /sync/ws
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final SyncWebSocketHandler syncWebSocketHandler;
+
+    public WebSocketConfig(SyncWebSocketHandler syncWebSocketHandler) {
+        this.syncWebSocketHandler = syncWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(syncWebSocketHandler, "/sync/ws")
+                .addInterceptors(syncWebSocketHandler)
+                .setAllowedOrigins("*");
+    }
+}
@@ -1,11 +1,21 @@
 package com.djj.todoscheduleserver.controller;
 
 import com.djj.todoscheduleserver.common.Result;
+import com.djj.todoscheduleserver.config.AuthInterceptor;
+import com.djj.todoscheduleserver.config.SyncProperties;
 import com.djj.todoscheduleserver.pojo.User;
 import com.djj.todoscheduleserver.pojo.crdt.Device;
 import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.pojo.dto.BatchUploadResponseDto;
+import com.djj.todoscheduleserver.pojo.dto.PagedResponseDto;
+import com.djj.todoscheduleserver.pojo.dto.SyncDeltaDto;
+import com.djj.todoscheduleserver.pojo.dto.SyncNotificationDto;
+import com.djj.todoscheduleserver.pojo.dto.SyncSnapshotDto;
 import com.djj.todoscheduleserver.service.SyncService;
-import com.djj.todoscheduleserver.service.UserService;
+import com.djj.todoscheduleserver.service.SyncStateService;
+import com.djj.todoscheduleserver.utils.IdempotencyCache;
+import com.djj.todoscheduleserver.utils.SyncChangeTracker;
+import com.djj.todoscheduleserver.utils.SyncNotificationHub;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.Parameters;
@@ -15,14 +25,22 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.java.Log;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
 
 /**
  * CRDT数据同步控制器
@@ -38,10 +56,26 @@ public class SyncController {
     private SyncService syncService;
     
     @Autowired
-    private UserService userService;
+    private HttpServletRequest httpServletRequest;
+
+    @Autowired
+    private IdempotencyCache idempotencyCache;
+
+    @Autowired
+    private SyncStateService syncStateService;
+
+    @Autowired
+    private SyncNotificationHub syncNotificationHub;
+
+    @Autowired
+    private SyncProperties syncProperties;
+
+    @Autowired
+    private SyncChangeTracker syncChangeTracker;
     
     /**
      * 验证授权令牌的辅助方法
+     * 令牌已由AuthInterceptor在进入控制器前解析，这里只读取请求属性，不再查询用户
      * @param authorization 授权头部信息
      * @return 验证通过则返回User对象，否则返回null
      */
@@ -51,7 +85,7 @@ public class SyncController {
             return null;
         }
         String token = authorization.substring(7); // 去掉"Bearer "前缀
-        User user = userService.getUserByToken(token);
+        User user = AuthInterceptor.getCurrentUser(httpServletRequest);
         if (user == null) {
             log.warn("根据token未找到用户: {}", token);
         }
@@ -87,29 +121,33 @@ public class SyncController {
         device.setId(request.getDeviceId());
         device.setName(request.getDeviceName());
         
-        Device registeredDevice = syncService.registerDevice(device, authorization);
+        Device registeredDevice = syncService.registerDevice(device, user);
         log.info("用户 {} 的设备 {} 已注册/更新。", user.getId(), registeredDevice.getId());
         return ResponseEntity.ok(registeredDevice);
     }
 
     @PostMapping("/messages/{entityType}")
-    @Operation(summary = "上传CRDT消息", description = "客户端上传特定实体类型的CRDT消息列表。")
+    @Operation(summary = "上传CRDT消息", description = "客户端上传特定实体类型的CRDT消息列表。已存储过的消息不会重复存储。")
     @Parameters({
             @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "Idempotency-Key", in = ParameterIn.HEADER, description = "幂等键，重试时携带相同的值可直接获得第一次请求的响应", required = false, schema = @Schema(type = "string")),
             @Parameter(name = "entityType", in = ParameterIn.PATH, description = "实体类型 (例如: OrdinarySchedule, Course, TimeSlot等)", required = true, schema = @Schema(type = "string"))
     })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "消息接收并开始处理",
+            @ApiResponse(responseCode = "200", description = "消息接收并开始处理，data中包含每条消息的存储结果",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
             @ApiResponse(responseCode = "400", description = "请求体无效或缺少头部信息",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
             @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "422", description = "Idempotency-Key已用于内容不同的请求",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
     })
-    public ResponseEntity<Result<Void>> uploadMessages(
+    public ResponseEntity<Result<BatchUploadResponseDto>> uploadMessages(
             @RequestHeader("Authorization") String authorization,
             @RequestHeader("X-Device-ID") String deviceId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             @PathVariable String entityType,
             @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "JSON格式的CRDT消息字符串列表", required = true,
                             content = @Content(mediaType = "application/json", schema = @Schema(type = "array", implementation = String.class)))
@@ -132,9 +170,67 @@ public class SyncController {
             return ResponseEntity.badRequest().body(Result.badRequest("消息列表不能为空"));
         }
 
-        syncService.storeClientMessages(user, deviceId, entityType, messages);
+        boolean idempotent = idempotencyKey != null && !idempotencyKey.isEmpty();
+        int requestHash = Objects.hash(deviceId, entityType, messages);
+        if (idempotent) {
+            IdempotencyCache.Entry cached = idempotencyCache.get(user.getId(), idempotencyKey);
+            if (cached != null) {
+                if (cached.getRequestHash() != requestHash) {
+                    return ResponseEntity.unprocessableEntity().body(Result.error(422, "Idempotency-Key 已用于内容不同的请求"));
+                }
+                log.info("用户 {} 从设备 {} 重试上传，Idempotency-Key {} 命中缓存，直接返回之前的响应。", user.getId(), deviceId, idempotencyKey);
+                return ResponseEntity.ok().header("Idempotent-Replayed", "true").body(Result.success("消息已接收", cached.getResponse()));
+            }
+        }
+
+        BatchUploadResponseDto response = syncService.storeClientMessages(user, deviceId, entityType, messages);
+        if (idempotent) {
+            idempotencyCache.put(user.getId(), idempotencyKey, requestHash, response);
+        }
         log.info("用户 {} 从设备 {} 上传了 {} 条 {} 类型的消息。", user.getId(), deviceId, messages.size(), entityType);
-        return ResponseEntity.ok(Result.success("消息已接收"));
+        return ResponseEntity.ok(Result.success("消息已接收", response));
+    }
+
+    @PostMapping(value = "/messages/{entityType}/stream", consumes = {"application/x-ndjson", "application/json", "application/octet-stream"})
+    @Operation(summary = "流式上传CRDT消息", description = "以NDJSON格式流式上传大量CRDT消息，服务器边读边按批写入，适用于长时间离线后的大批量上传。支持gzip压缩的请求体。")
+    @Parameters({
+            @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "Content-Encoding", in = ParameterIn.HEADER, description = "请求体为gzip压缩时设置为gzip", required = false, schema = @Schema(type = "string")),
+            @Parameter(name = "entityType", in = ParameterIn.PATH, description = "实体类型 (例如: OrdinarySchedule, Course, TimeSlot等)", required = true, schema = @Schema(type = "string"))
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "消息已接收，data中包含各分块的写入进度以及失败的消息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "400", description = "请求体无法读取或缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
+    })
+    public ResponseEntity<Result<BatchUploadResponseDto>> uploadMessageStream(
+            @RequestHeader("Authorization") String authorization,
+            @RequestHeader("X-Device-ID") String deviceId,
+            @RequestHeader(value = "Content-Encoding", required = false) String contentEncoding,
+            @PathVariable String entityType,
+            HttpServletRequest request) {
+        User user = validateToken(authorization);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Result.unauthorized("无效的令牌或令牌已过期"));
+        }
+        if (deviceId == null || deviceId.isEmpty()) {
+            return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
+        }
+
+        try (InputStream body = "gzip".equalsIgnoreCase(contentEncoding)
+                ? new GZIPInputStream(request.getInputStream())
+                : request.getInputStream()) {
+            BatchUploadResponseDto response = syncService.storeClientMessageStream(user, deviceId, entityType, body);
+            log.info("用户 {} 从设备 {} 流式上传了 {} 条 {} 类型的消息。", user.getId(), deviceId, response.getMessagesReceived(), entityType);
+            return ResponseEntity.ok(Result.success("消息已接收", response));
+        } catch (IOException e) {
+            log.error("读取设备 {} 的流式上传请求体失败: {}", deviceId, e.getMessage());
+            return ResponseEntity.badRequest().body(Result.badRequest("请求体读取失败: " + e.getMessage()));
+        }
     }
 
     @GetMapping("/messages/all")
@@ -142,18 +238,31 @@ public class SyncController {
     @Parameters({
             @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
-            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64"))
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "limit", in = ParameterIn.QUERY, description = "每页条数。提供limit或cursor时按游标分页返回PagedResponseDto，超过服务器上限时按上限处理", required = false, schema = @Schema(type = "integer")),
+            @Parameter(name = "cursor", in = ParameterIn.QUERY, description = "上一页返回的nextCursor，提供时忽略since", required = false, schema = @Schema(type = "string")),
+            @Parameter(name = "sinceSeq", in = ParameterIn.QUERY, description = "服务器分配的消息序号，提供时按序号分页返回PagedResponseDto，忽略since和cursor。首次同步传0，之后传上次响应的nextSeq", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "If-None-Match", in = ParameterIn.HEADER, description = "上次响应的ETag。参数相同且用户没有新消息时返回304，不查询消息表；多节点部署时不返回304", required = false, schema = @Schema(type = "string"))
     })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "消息下载成功",
+            @ApiResponse(responseCode = "200", description = "消息下载成功，提供limit、cursor或sinceSeq时返回PagedResponseDto，否则返回消息数组",
                          content = @Content(mediaType = "application/json", schema = @Schema(type = "array", implementation = SyncMessage.class))),
+            @ApiResponse(responseCode = "304", description = "自If-None-Match中的ETag以来没有新消息"),
+            @ApiResponse(responseCode = "400", description = "游标或序号无效，或缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
             @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "410", description = "下载起点之后的部分消息已随过期分区清理，需要通过/sync/snapshot重新同步",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
     })
     public ResponseEntity<?> downloadAllMessages(
             @RequestHeader("Authorization") String authorization,
             @RequestHeader("X-Device-ID") String deviceId,
-            @RequestParam(required = false) Long since) {
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long sinceSeq,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         
         User user = validateToken(authorization);
         if (user == null) {
@@ -163,9 +272,22 @@ public class SyncController {
             return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
         }
 
+        // 在查询消息之前读取版本，之后提交的消息一定会使版本变化
+        String etag = downloadEtag(user, deviceId, null, false, since, cursor, limit, sinceSeq);
+        if (syncChangeTracker.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        if (sinceSeq != null) {
+            return downloadAfterSeq(user, deviceId, null, false, sinceSeq, limit, etag);
+        }
+        if (limit != null || cursor != null) {
+            return downloadPage(user, deviceId, null, false, since, cursor, limit, etag);
+        }
+
         List<SyncMessage> messages = syncService.getMessagesForDevice(user, deviceId, since);
         log.info("用户 {} 的设备 {} 请求下载所有类型消息，自HLC: {}。返回 {} 条消息。", user.getId(), deviceId, since, messages.size());
-        return ResponseEntity.ok(messages);
+        return ResponseEntity.ok().eTag(etag).body(messages);
     }
     
     @GetMapping("/messages/all/exclude-origin")
@@ -173,18 +295,31 @@ public class SyncController {
     @Parameters({
             @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
-            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64"))
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "limit", in = ParameterIn.QUERY, description = "每页条数。提供limit或cursor时按游标分页返回PagedResponseDto，超过服务器上限时按上限处理", required = false, schema = @Schema(type = "integer")),
+            @Parameter(name = "cursor", in = ParameterIn.QUERY, description = "上一页返回的nextCursor，提供时忽略since", required = false, schema = @Schema(type = "string")),
+            @Parameter(name = "sinceSeq", in = ParameterIn.QUERY, description = "服务器分配的消息序号，提供时按序号分页返回PagedResponseDto，忽略since和cursor。首次同步传0，之后传上次响应的nextSeq", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "If-None-Match", in = ParameterIn.HEADER, description = "上次响应的ETag。参数相同且用户没有新消息时返回304，不查询消息表；多节点部署时不返回304", required = false, schema = @Schema(type = "string"))
     })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "消息下载成功",
+            @ApiResponse(responseCode = "200", description = "消息下载成功，提供limit、cursor或sinceSeq时返回PagedResponseDto，否则返回消息数组",
                          content = @Content(mediaType = "application/json", schema = @Schema(type = "array", implementation = SyncMessage.class))),
+            @ApiResponse(responseCode = "304", description = "自If-None-Match中的ETag以来没有新消息"),
+            @ApiResponse(responseCode = "400", description = "游标或序号无效，或缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
             @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "410", description = "下载起点之后的部分消息已随过期分区清理，需要通过/sync/snapshot重新同步",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
     })
     public ResponseEntity<?> downloadAllMessagesExcludingOrigin(
             @RequestHeader("Authorization") String authorization,
             @RequestHeader("X-Device-ID") String deviceId,
-            @RequestParam(required = false) Long since) {
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long sinceSeq,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         
         User user = validateToken(authorization);
         if (user == null) {
@@ -194,9 +329,22 @@ public class SyncController {
             return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
         }
 
+        // 在查询消息之前读取版本，之后提交的消息一定会使版本变化
+        String etag = downloadEtag(user, deviceId, null, true, since, cursor, limit, sinceSeq);
+        if (syncChangeTracker.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        if (sinceSeq != null) {
+            return downloadAfterSeq(user, deviceId, null, true, sinceSeq, limit, etag);
+        }
+        if (limit != null || cursor != null) {
+            return downloadPage(user, deviceId, null, true, since, cursor, limit, etag);
+        }
+
         List<SyncMessage> messages = syncService.getMessagesAfterTimestampExcludingOriginDevice(user, deviceId, since);
         log.info("用户 {} 的设备 {} 请求下载所有类型消息（排除自己发出的消息），自HLC: {}。返回 {} 条消息。", user.getId(), deviceId, since, messages.size());
-        return ResponseEntity.ok(messages);
+        return ResponseEntity.ok().eTag(etag).body(messages);
     }
 
     @GetMapping("/messages/{entityType}")
@@ -205,19 +353,32 @@ public class SyncController {
             @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "entityType", in = ParameterIn.PATH, description = "实体类型 (例如: OrdinarySchedule, Course, TimeSlot等)", required = true, schema = @Schema(type = "string")),
-            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64"))
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "limit", in = ParameterIn.QUERY, description = "每页条数。提供limit或cursor时按游标分页返回PagedResponseDto，超过服务器上限时按上限处理", required = false, schema = @Schema(type = "integer")),
+            @Parameter(name = "cursor", in = ParameterIn.QUERY, description = "上一页返回的nextCursor，提供时忽略since", required = false, schema = @Schema(type = "string")),
+            @Parameter(name = "sinceSeq", in = ParameterIn.QUERY, description = "服务器分配的消息序号，提供时按序号分页返回PagedResponseDto，忽略since和cursor。首次同步传0，之后传上次响应的nextSeq", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "If-None-Match", in = ParameterIn.HEADER, description = "上次响应的ETag。参数相同且用户没有新消息时返回304，不查询消息表；多节点部署时不返回304", required = false, schema = @Schema(type = "string"))
     })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "消息下载成功",
+            @ApiResponse(responseCode = "200", description = "消息下载成功，提供limit、cursor或sinceSeq时返回PagedResponseDto，否则返回消息数组",
                          content = @Content(mediaType = "application/json", schema = @Schema(type = "array", implementation = SyncMessage.class))),
+            @ApiResponse(responseCode = "304", description = "自If-None-Match中的ETag以来没有新消息"),
+            @ApiResponse(responseCode = "400", description = "游标或序号无效，或缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
             @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "410", description = "下载起点之后的部分消息已随过期分区清理，需要通过/sync/snapshot重新同步",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
     })
     public ResponseEntity<?> downloadMessagesByType(
             @RequestHeader("Authorization") String authorization,
             @RequestHeader("X-Device-ID") String deviceId,
             @PathVariable String entityType,
-            @RequestParam(required = false) Long since) {
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long sinceSeq,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         
         User user = validateToken(authorization);
         if (user == null) {
@@ -227,9 +388,22 @@ public class SyncController {
             return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
         }
 
+        // 在查询消息之前读取版本，之后提交的消息一定会使版本变化
+        String etag = downloadEtag(user, deviceId, entityType, false, since, cursor, limit, sinceSeq);
+        if (syncChangeTracker.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        if (sinceSeq != null) {
+            return downloadAfterSeq(user, deviceId, entityType, false, sinceSeq, limit, etag);
+        }
+        if (limit != null || cursor != null) {
+            return downloadPage(user, deviceId, entityType, false, since, cursor, limit, etag);
+        }
+
         List<SyncMessage> messages = syncService.getMessagesByEntityTypeForDevice(user, deviceId, entityType, since);
         log.info("用户 {} 的设备 {} 请求下载 {} 类型消息，自HLC: {}。返回 {} 条消息。", user.getId(), deviceId, entityType, since, messages.size());
-        return ResponseEntity.ok(messages);
+        return ResponseEntity.ok().eTag(etag).body(messages);
     }
     
     @GetMapping("/messages/{entityType}/exclude-origin")
@@ -238,19 +412,32 @@ public class SyncController {
             @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
             @Parameter(name = "entityType", in = ParameterIn.PATH, description = "实体类型 (例如: OrdinarySchedule, Course, TimeSlot等)", required = true, schema = @Schema(type = "string")),
-            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64"))
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "limit", in = ParameterIn.QUERY, description = "每页条数。提供limit或cursor时按游标分页返回PagedResponseDto，超过服务器上限时按上限处理", required = false, schema = @Schema(type = "integer")),
+            @Parameter(name = "cursor", in = ParameterIn.QUERY, description = "上一页返回的nextCursor，提供时忽略since", required = false, schema = @Schema(type = "string")),
+            @Parameter(name = "sinceSeq", in = ParameterIn.QUERY, description = "服务器分配的消息序号，提供时按序号分页返回PagedResponseDto，忽略since和cursor。首次同步传0，之后传上次响应的nextSeq", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "If-None-Match", in = ParameterIn.HEADER, description = "上次响应的ETag。参数相同且用户没有新消息时返回304，不查询消息表；多节点部署时不返回304", required = false, schema = @Schema(type = "string"))
     })
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "消息下载成功",
+            @ApiResponse(responseCode = "200", description = "消息下载成功，提供limit、cursor或sinceSeq时返回PagedResponseDto，否则返回消息数组",
                          content = @Content(mediaType = "application/json", schema = @Schema(type = "array", implementation = SyncMessage.class))),
+            @ApiResponse(responseCode = "304", description = "自If-None-Match中的ETag以来没有新消息"),
+            @ApiResponse(responseCode = "400", description = "游标或序号无效，或缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
             @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "410", description = "下载起点之后的部分消息已随过期分区清理，需要通过/sync/snapshot重新同步",
                          content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
     })
     public ResponseEntity<?> downloadMessagesByTypeExcludingOrigin(
             @RequestHeader("Authorization") String authorization,
             @RequestHeader("X-Device-ID") String deviceId,
             @PathVariable String entityType,
-            @RequestParam(required = false) Long since) {
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long sinceSeq,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         
         User user = validateToken(authorization);
         if (user == null) {
@@ -260,9 +447,243 @@ public class SyncController {
             return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
         }
 
+        // 在查询消息之前读取版本，之后提交的消息一定会使版本变化
+        String etag = downloadEtag(user, deviceId, entityType, true, since, cursor, limit, sinceSeq);
+        if (syncChangeTracker.notModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        if (sinceSeq != null) {
+            return downloadAfterSeq(user, deviceId, entityType, true, sinceSeq, limit, etag);
+        }
+        if (limit != null || cursor != null) {
+            return downloadPage(user, deviceId, entityType, true, since, cursor, limit, etag);
+        }
+
         List<SyncMessage> messages = syncService.getMessagesByEntityTypeAfterTimestampExcludingOriginDevice(user, deviceId, entityType, since);
         log.info("用户 {} 的设备 {} 请求下载 {} 类型消息（排除自己发出的消息），自HLC: {}。返回 {} 条消息。", user.getId(), deviceId, entityType, since, messages.size());
-        return ResponseEntity.ok(messages);
+        return ResponseEntity.ok().eTag(etag).body(messages);
+    }
+
+    /**
+     * 生成下载接口的ETag，用户的变更版本与请求参数都相同时响应内容不变
+     */
+    private String downloadEtag(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                Long since, String cursor, Integer limit, Long sinceSeq) {
+        return syncChangeTracker.etag(user.getId(), Objects.hash(deviceId, entityType, excludeOrigin, since, cursor, limit, sinceSeq));
+    }
+
+    /**
+     * 按序号分页下载消息的辅助方法
+     */
+    private ResponseEntity<?> downloadAfterSeq(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                               long sinceSeq, Integer limit, String etag) {
+        if (sinceSeq < 0) {
+            return ResponseEntity.badRequest().body(Result.badRequest("sinceSeq不能为负数"));
+        }
+        PagedResponseDto<SyncMessage> page = syncService.getMessagesAfterSeq(user, deviceId, entityType, excludeOrigin, sinceSeq, limit);
+        log.info("用户 {} 的设备 {} 按序号下载 {} 类型消息，自序号: {}。返回 {} 条消息，hasMore: {}。",
+                user.getId(), deviceId, entityType != null ? entityType : "所有", sinceSeq, page.getData().size(), page.getPagination().isHasMore());
+        return ResponseEntity.ok().eTag(etag).body(page);
+    }
+
+    /**
+     * 按游标分页下载消息的辅助方法
+     */
+    private ResponseEntity<?> downloadPage(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                           Long since, String cursor, Integer limit, String etag) {
+        try {
+            PagedResponseDto<SyncMessage> page = syncService.getMessagesPage(user, deviceId, entityType, excludeOrigin, since, cursor, limit, true);
+            log.info("用户 {} 的设备 {} 分页下载 {} 类型消息，返回 {} 条消息，hasMore: {}。",
+                    user.getId(), deviceId, entityType != null ? entityType : "所有", page.getData().size(), page.getPagination().isHasMore());
+            return ResponseEntity.ok().eTag(etag).body(page);
+        } catch (IllegalArgumentException e) {
+            log.warn("设备 {} 提供的游标无效: {}", deviceId, cursor);
+            return ResponseEntity.badRequest().body(Result.badRequest("无效的游标"));
+        }
+    }
+
+    @GetMapping({"/messages/all/stream", "/messages/{entityType}/stream"})
+    @Operation(summary = "流式下载CRDT消息", description = "以流的方式下载自上次同步以来的CRDT消息，服务器边读取边写出，适用于新设备首次同步等大批量下载。响应格式与普通下载接口相同。")
+    @Parameters({
+            @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "entityType", in = ParameterIn.PATH, description = "实体类型 (例如: OrdinarySchedule, Course, TimeSlot等)，使用/messages/all/stream时下载所有类型", required = false, schema = @Schema(type = "string")),
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，表示从哪个时间点之后开始获取消息。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64")),
+            @Parameter(name = "excludeOrigin", in = ParameterIn.QUERY, description = "是否排除本设备发出的消息，默认false", required = false, schema = @Schema(type = "boolean"))
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "消息下载成功",
+                         content = @Content(mediaType = "application/json", schema = @Schema(type = "array", implementation = SyncMessage.class))),
+            @ApiResponse(responseCode = "400", description = "缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "410", description = "下载起点之后的部分消息已随过期分区清理，需要通过/sync/snapshot重新同步",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
+    })
+    public ResponseEntity<?> streamMessages(
+            @RequestHeader("Authorization") String authorization,
+            @RequestHeader("X-Device-ID") String deviceId,
+            @PathVariable(required = false) String entityType,
+            @RequestParam(required = false) Long since,
+            @RequestParam(defaultValue = "false") boolean excludeOrigin) {
+
+        User user = validateToken(authorization);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Result.unauthorized("无效的令牌或令牌已过期"));
+        }
+        if (deviceId == null || deviceId.isEmpty()) {
+            return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
+        }
+
+        log.info("用户 {} 的设备 {} 请求流式下载 {} 类型消息，自HLC: {}。", user.getId(), deviceId, entityType != null ? entityType : "所有", since);
+        // 开始写出响应后无法再返回410，需要提前检查
+        syncService.checkRetained(user, deviceId, since);
+        StreamingResponseBody body = out -> syncService.streamMessagesForDevice(user, deviceId, entityType, excludeOrigin, since, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping("/snapshot")
+    @Operation(summary = "获取数据快照", description = "新设备首次同步时获取用户当前的普通日程、时间槽和课程，代替回放完整的消息日志。之后从snapshotHlc开始增量同步。")
+    @Parameters({
+            @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID，必须已注册", required = true, schema = @Schema(type = "string"))
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "快照获取成功",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = SyncSnapshotDto.class))),
+            @ApiResponse(responseCode = "400", description = "缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "404", description = "设备未注册或不属于当前用户",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
+    })
+    public ResponseEntity<?> getSnapshot(
+            @RequestHeader("Authorization") String authorization,
+            @RequestHeader("X-Device-ID") String deviceId) {
+
+        User user = validateToken(authorization);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Result.unauthorized("无效的令牌或令牌已过期"));
+        }
+        if (deviceId == null || deviceId.isEmpty()) {
+            return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
+        }
+
+        SyncSnapshotDto snapshot = syncStateService.getSnapshot(user, deviceId);
+        if (snapshot == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Result.notFound("设备未注册或不属于当前用户"));
+        }
+        return ResponseEntity.ok(snapshot);
+    }
+
+    @GetMapping("/delta")
+    @Operation(summary = "基于状态的增量同步", description = "返回自since以来发生变化的普通日程、时间槽和课程的当前状态，包括已删除的实体。同一实体无论修改多少次都只返回一行。")
+    @Parameters({
+            @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID，必须已注册", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "HLC时间戳，通常为上次返回的nextSinceHlc。如果未提供，则从设备上次记录的HLC或0开始。", required = false, schema = @Schema(type = "integer", format = "int64"))
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "增量获取成功",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = SyncDeltaDto.class))),
+            @ApiResponse(responseCode = "400", description = "缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "404", description = "设备未注册或不属于当前用户",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
+    })
+    public ResponseEntity<?> getDelta(
+            @RequestHeader("Authorization") String authorization,
+            @RequestHeader("X-Device-ID") String deviceId,
+            @RequestParam(required = false) Long since) {
+
+        User user = validateToken(authorization);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Result.unauthorized("无效的令牌或令牌已过期"));
+        }
+        if (deviceId == null || deviceId.isEmpty()) {
+            return ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空"));
+        }
+
+        SyncDeltaDto delta = syncStateService.getDelta(user, deviceId, since);
+        if (delta == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Result.notFound("设备未注册或不属于当前用户"));
+        }
+        return ResponseEntity.ok(delta);
+    }
+
+    @GetMapping("/subscribe")
+    @Operation(summary = "订阅数据变更（长轮询）", description = "代替定时轮询下载接口。有其他设备写入的新消息时立即返回changed=true，否则挂起请求直到有新消息或超时，超时返回changed=false。客户端收到响应后拉取新消息（如需要）并重新订阅。")
+    @Parameters({
+            @Parameter(name = "Authorization", in = ParameterIn.HEADER, description = "认证令牌 (Bearer Token)", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "X-Device-ID", in = ParameterIn.HEADER, description = "客户端设备ID", required = true, schema = @Schema(type = "string")),
+            @Parameter(name = "since", in = ParameterIn.QUERY, description = "客户端已同步到的HLC时间戳，服务器上有更新的消息时立即返回。如果未提供，则使用设备上次记录的HLC或0。", required = false, schema = @Schema(type = "integer", format = "int64"))
+    })
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "有新消息或等待超时",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = SyncNotificationDto.class))),
+            @ApiResponse(responseCode = "400", description = "缺少头部信息",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "401", description = "未授权或令牌无效",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "404", description = "设备未注册或不属于当前用户",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class))),
+            @ApiResponse(responseCode = "429", description = "该用户同时挂起的订阅请求过多",
+                         content = @Content(mediaType = "application/json", schema = @Schema(implementation = Result.class)))
+    })
+    public DeferredResult<ResponseEntity<?>> subscribe(
+            @RequestHeader("Authorization") String authorization,
+            @RequestHeader("X-Device-ID") String deviceId,
+            @RequestParam(required = false) Long since) {
+
+        SyncProperties.Subscribe config = syncProperties.getSubscribe();
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(config.getTimeoutMs(),
+                () -> ResponseEntity.ok(SyncNotificationDto.unchanged()));
+
+        User user = validateToken(authorization);
+        if (user == null) {
+            result.setResult(ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Result.unauthorized("无效的令牌或令牌已过期")));
+            return result;
+        }
+        if (deviceId == null || deviceId.isEmpty()) {
+            result.setResult(ResponseEntity.badRequest().body(Result.badRequest("X-Device-ID 头部信息不能为空")));
+            return result;
+        }
+        // 未注册或不属于当前用户的设备不会有新消息，直接返回404，不挂起请求
+        if (syncService.getUserDevice(user, deviceId) == null) {
+            result.setResult(ResponseEntity.status(HttpStatus.NOT_FOUND).body(Result.notFound("设备未注册或不属于当前用户")));
+            return result;
+        }
+        // 只统计挂起的长轮询请求，WebSocket连接的订阅不占用名额
+        if (syncNotificationHub.getLongPollCount(user.getId()) >= config.getMaxWaitersPerUser()) {
+            log.warn("用户 {} 同时挂起的订阅请求过多，拒绝设备 {} 的订阅", user.getId(), deviceId);
+            result.setResult(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .body(Result.error(HttpStatus.TOO_MANY_REQUESTS.value(), "订阅请求过多，请稍后重试")));
+            return result;
+        }
+
+        SyncNotificationHub.Subscription subscription = syncNotificationHub.subscribeLongPoll(user.getId(), deviceId,
+                (originDeviceId, latestHlc) -> result.setResult(ResponseEntity.ok(SyncNotificationDto.changed(latestHlc))));
+        // 超时、出错或正常返回都会触发，确保订阅被移除
+        result.onCompletion(() -> syncNotificationHub.unsubscribe(subscription));
+
+        // 先登记订阅再检查数据库，检查之后提交的消息由通知中心唤醒，不会被遗漏
+        Long latestHlc;
+        try {
+            latestHlc = syncService.getLatestChangeHlc(user, deviceId, since);
+        } catch (RuntimeException e) {
+            // 抛出异常时DeferredResult不会被返回，onCompletion也不会触发，需要在这里移除订阅
+            syncNotificationHub.unsubscribe(subscription);
+            throw e;
+        }
+        if (latestHlc != null) {
+            result.setResult(ResponseEntity.ok(SyncNotificationDto.changed(latestHlc)));
+        }
+        return result;
     }
 
     // 辅助内部类，用于清晰地定义/device/register的请求体
@@ -292,8 +713,12 @@ public class SyncController {
      */
     @GetMapping("/devices")
     @Operation(summary = "获取设备列表", description = "获取当前用户的所有已注册设备")
-    public Result<List<Device>> getDevices(@RequestHeader("Authorization") String token) {
-        return Result.success(syncService.getDevicesByToken(token));
+    public Result<List<Device>> getDevices(@RequestHeader("Authorization") String authorization) {
+        User user = validateToken(authorization);
+        if (user == null) {
+            return Result.unauthorized("无效的令牌或令牌已过期");
+        }
+        return Result.success(syncService.getDevicesByUser(user));
     }
 
     /**
@@ -301,8 +726,12 @@ public class SyncController {
      */
     @PostMapping("/messages")
     @Operation(summary = "批量提交CRDT消息", description = "批量提交各种类型的CRDT消息")
-    public Result<Void> submitMessages(@RequestBody List<SyncMessage> messages, @RequestHeader("Authorization") String token) {
-        syncService.processMessages(messages, token);
+    public Result<Void> submitMessages(@RequestBody List<SyncMessage> messages, @RequestHeader("Authorization") String authorization) {
+        User user = validateToken(authorization);
+        if (user == null) {
+            return Result.unauthorized("无效的令牌或令牌已过期");
+        }
+        syncService.processMessages(messages, user);
         return Result.success("");
     }
 } 
\ No newline at end of file
@@ -0,0 +1,438 @@
+package com.djj.todoscheduleserver.controller;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
+import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.pojo.crdt.Device;
+import com.djj.todoscheduleserver.pojo.crdt.SyncCursor;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.pojo.dto.BatchUploadResponseDto;
+import com.djj.todoscheduleserver.pojo.dto.PagedResponseDto;
+import com.djj.todoscheduleserver.service.SyncService;
+import com.djj.todoscheduleserver.service.UserService;
+import com.djj.todoscheduleserver.utils.SignedTokenCodec;
+import com.djj.todoscheduleserver.utils.SyncNotificationHub;
+import com.djj.todoscheduleserver.utils.TokenRevocationList;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WebSocket同步通道
+ * 设备在握手时认证，之后在同一连接上上传消息、接收其他设备的新消息，并通过确认推进自己的最后同步HLC。
+ * 握手时的令牌保存在会话中：签名令牌到期时服务器主动关闭连接，每次推送和处理客户端消息前检查令牌是否已被撤销，
+ * 旧的UUID令牌没有过期时间，每次重新按令牌查询用户（有缓存），令牌被重新生成后连接随之关闭。
+ *
+ * 客户端发送的帧：
+ * - {"type":"upload","requestId":"r1","entityType":"TimeSlot","messages":["{...}"]}，回复upload_result
+ * - {"type":"ack","hlc":123}，客户端已经应用到的HLC，不回复
+ * 服务器推送的帧：
+ * - {"type":"messages","messages":[...],"hasMore":false}
+ * - {"type":"upload_result","requestId":"r1","result":{...}}
+ * - {"type":"error","requestId":"r1","message":"..."}
+ * 推送游标之后的部分消息已随过期分区清理时，服务器发送不带requestId的error帧并以4410关闭连接，客户端通过快照重新同步后再连接。
+ * 令牌过期或被撤销时，服务器以4401关闭连接，客户端刷新令牌后重新连接。
+ */
+@Slf4j
+@Component
+public class SyncWebSocketHandler extends TextWebSocketHandler implements HandshakeInterceptor {
+
+    private static final String ATTR_USER = "user";
+    private static final String ATTR_DEVICE = "device";
+    private static final String ATTR_SINCE = "since";
+    private static final String ATTR_TOKEN = "token";
+    private static final String ATTR_CLAIMS = "claims";
+    // 推送游标低于保留下限，客户端需要通过快照重新同步
+    private static final CloseStatus RESYNC_REQUIRED = new CloseStatus(4410, "resync required");
+    // 令牌已过期或被撤销，客户端需要刷新令牌后重新连接
+    private static final CloseStatus TOKEN_INVALID = new CloseStatus(4401, "token expired or revoked");
+
+    private final SyncService syncService;
+    private final UserService userService;
+    private final SignedTokenCodec signedTokenCodec;
+    private final TokenRevocationList tokenRevocationList;
+    private final SyncNotificationHub syncNotificationHub;
+    private final SyncProperties syncProperties;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService pushExecutor;
+    private final ScheduledExecutorService expiryScheduler;
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    public SyncWebSocketHandler(SyncService syncService,
+                                UserService userService,
+                                SignedTokenCodec signedTokenCodec,
+                                TokenRevocationList tokenRevocationList,
+                                SyncNotificationHub syncNotificationHub,
+                                SyncProperties syncProperties,
+                                ObjectMapper objectMapper) {
+        this.syncService = syncService;
+        this.userService = userService;
+        this.signedTokenCodec = signedTokenCodec;
+        this.tokenRevocationList = tokenRevocationList;
+        this.syncNotificationHub = syncNotificationHub;
+        this.syncProperties = syncProperties;
+        this.objectMapper = objectMapper;
+
+        // 推送在共用的线程池中执行，连接数再多也不会为每个连接占用线程
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pushExecutor = Executors.newFixedThreadPool(Math.max(1, syncProperties.getWebsocket().getPushThreads()),
+                r -> new Thread(r, "sync-ws-push-" + threadIndex.getAndIncrement()));
+        // 令牌到期时关闭连接，只做关闭操作，一个线程足够
+        this.expiryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sync-ws-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 握手时验证令牌和设备，令牌及其签发、过期时间保存在会话属性中，供连接建立后检查
+     * 浏览器和小程序的WebSocket无法设置自定义头部，因此也接受token、deviceId查询参数
+     */
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        Map<String, List<String>> query = UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams();
+        String token = request.getHeaders().getFirst("Authorization");
+        if (token != null && token.startsWith("Bearer ")) {
+            token = token.substring(7); // 去掉"Bearer "前缀
+        } else {
+            token = firstValue(query, "token");
+        }
+        String deviceId = request.getHeaders().getFirst("X-Device-ID");
+        if (deviceId == null || deviceId.isEmpty()) {
+            deviceId = firstValue(query, "deviceId");
+        }
+
+        User user = token != null ? userService.getUserByToken(token) : null;
+        if (user == null) {
+            log.warn("WebSocket握手失败，无效的令牌");
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+        Device device = deviceId != null ? syncService.getUserDevice(user, deviceId) : null;
+        if (device == null) {
+            log.warn("WebSocket握手失败，设备 {} 不存在或不属于用户 {}", deviceId, user.getId());
+            response.setStatusCode(HttpStatus.NOT_FOUND);
+            return false;
+        }
+
+        Long since = device.getLastSyncHlcTimestamp();
+        String sinceParam = firstValue(query, "since");
+        if (sinceParam != null) {
+            try {
+                since = Long.parseLong(sinceParam);
+            } catch (NumberFormatException e) {
+                response.setStatusCode(HttpStatus.BAD_REQUEST);
+                return false;
+            }
+        }
+        attributes.put(ATTR_USER, user);
+        attributes.put(ATTR_DEVICE, device);
+        attributes.put(ATTR_TOKEN, token);
+        if (SignedTokenCodec.isSigned(token)) {
+            // getUserByToken已验证通过，这里只取出签发和过期时间
+            attributes.put(ATTR_CLAIMS, signedTokenCodec.verify(token, System.currentTimeMillis()));
+        }
+        attributes.put(ATTR_SINCE, since != null ? since : 0L);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        SyncProperties.WebSocket config = syncProperties.getWebsocket();
+        User user = (User) session.getAttributes().get(ATTR_USER);
+        Device device = (Device) session.getAttributes().get(ATTR_DEVICE);
+        long since = (Long) session.getAttributes().get(ATTR_SINCE);
+        String token = (String) session.getAttributes().get(ATTR_TOKEN);
+        SignedTokenCodec.Claims claims = (SignedTokenCodec.Claims) session.getAttributes().get(ATTR_CLAIMS);
+        // 客户端一帧可能携带一整批上传消息，默认的8KB缓冲不够用
+        session.setTextMessageSizeLimit(config.getMaxTextMessageSize());
+
+        // 推送线程与处理上传的线程可能同时发送，装饰后的会话串行发送并限制慢客户端占用的缓冲
+        WebSocketSession concurrentSession = new ConcurrentWebSocketSessionDecorator(
+                session, config.getSendTimeLimitMs(), config.getSendBufferSizeLimit());
+        Connection connection = new Connection(concurrentSession, user, device.getId(), SyncCursor.after(since).encode(), token, claims);
+        connections.put(session.getId(), connection);
+        if (claims != null) {
+            long delay = Math.max(0, claims.getExpiresAt() - System.currentTimeMillis());
+            connection.expiryTask = expiryScheduler.schedule(() -> {
+                log.info("用户 {} 的设备 {} 的令牌已过期，关闭WebSocket连接", user.getId(), device.getId());
+                closeWith(connection, TOKEN_INVALID);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        connection.subscription = syncNotificationHub.subscribe(user.getId(), device.getId(),
+                (originDeviceId, latestHlc) -> schedulePush(connection));
+        log.info("用户 {} 的设备 {} 建立WebSocket同步连接，自HLC {} 开始推送", user.getId(), device.getId(), since);
+
+        // 先订阅再推送积压的消息，推送期间提交的新消息会触发下一轮推送
+        schedulePush(connection);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        if (!isTokenValid(connection)) {
+            log.info("用户 {} 的设备 {} 的令牌已失效，关闭WebSocket连接", connection.user.getId(), connection.deviceId);
+            closeWith(connection, TOKEN_INVALID);
+            return;
+        }
+        String requestId = null;
+        try {
+            JsonNode frame = objectMapper.readTree(message.getPayload());
+            requestId = frame.path("requestId").asText(null);
+            String type = frame.path("type").asText("");
+            switch (type) {
+                case "upload" -> handleUpload(connection, requestId, frame);
+                case "ack" -> handleAck(connection, requestId, frame);
+                default -> sendError(connection, requestId, "不支持的消息类型: " + type);
+            }
+        } catch (JsonProcessingException e) {
+            sendError(connection, requestId, "消息不是有效的JSON: " + e.getOriginalMessage());
+        } catch (RuntimeException e) {
+            // 单个请求失败不影响连接，客户端可按requestId重试
+            log.error("处理用户 {} 的设备 {} 的WebSocket消息失败: {}", connection.user.getId(), connection.deviceId, e.getMessage(), e);
+            sendError(connection, requestId, "服务器处理失败");
+        }
+    }
+
+    private void handleUpload(Connection connection, String requestId, JsonNode frame) throws IOException {
+        String entityType = frame.path("entityType").asText(null);
+        JsonNode messagesNode = frame.path("messages");
+        if (entityType == null || entityType.isEmpty() || !messagesNode.isArray()) {
+            sendError(connection, requestId, "upload消息必须包含entityType和messages");
+            return;
+        }
+        List<String> messages = new ArrayList<>(messagesNode.size());
+        for (JsonNode node : messagesNode) {
+            // 与HTTP上传接口一致，每条消息是一个JSON字符串，也接受直接内嵌的JSON对象
+            messages.add(node.isTextual() ? node.asText() : objectMapper.writeValueAsString(node));
+        }
+
+        BatchUploadResponseDto result = syncService.storeClientMessages(connection.user, connection.deviceId, entityType, messages);
+        ObjectNode reply = objectMapper.createObjectNode();
+        reply.put("type", "upload_result");
+        reply.put("requestId", requestId);
+        reply.set("result", objectMapper.valueToTree(result));
+        send(connection, reply);
+    }
+
+    private void handleAck(Connection connection, String requestId, JsonNode frame) throws IOException {
+        JsonNode hlc = frame.path("hlc");
+        if (!hlc.canConvertToLong()) {
+            sendError(connection, requestId, "ack消息必须包含hlc");
+            return;
+        }
+        syncService.acknowledge(connection.user, connection.deviceId, hlc.asLong());
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.debug("WebSocket连接 {} 传输出错: {}", session.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = connections.remove(session.getId());
+        if (connection != null) {
+            syncNotificationHub.unsubscribe(connection.subscription);
+            if (connection.expiryTask != null) {
+                connection.expiryTask.cancel(false);
+            }
+            log.info("用户 {} 的设备 {} 断开WebSocket同步连接: {}", connection.user.getId(), connection.deviceId, status);
+        }
+    }
+
+    /**
+     * 安排一轮推送；推送进行中收到的通知合并为推送结束后的下一轮，不会为每条通知各推送一次
+     */
+    private void schedulePush(Connection connection) {
+        connection.dirty.set(true);
+        if (connection.pushing.compareAndSet(false, true)) {
+            try {
+                pushExecutor.execute(() -> drain(connection));
+            } catch (RejectedExecutionException e) {
+                connection.pushing.set(false);
+            }
+        }
+    }
+
+    private void drain(Connection connection) {
+        try {
+            while (connection.dirty.getAndSet(false) && connection.session.isOpen()) {
+                if (!isTokenValid(connection)) {
+                    log.info("用户 {} 的设备 {} 的令牌已失效，停止推送并关闭WebSocket连接", connection.user.getId(), connection.deviceId);
+                    closeWith(connection, TOKEN_INVALID);
+                    break;
+                }
+                pushPending(connection);
+            }
+        } catch (ApiError e) {
+            if (e.getStatus() == HttpStatus.GONE) {
+                // 游标之后的部分消息已清理，通知客户端通过快照重新同步后再连接
+                log.info("用户 {} 的设备 {} 的推送游标低于保留下限，关闭连接", connection.user.getId(), connection.deviceId);
+                closeForResync(connection, e.getMessage());
+            } else {
+                log.warn("向用户 {} 的设备 {} 推送消息失败，关闭连接: {}", connection.user.getId(), connection.deviceId, e.getMessage());
+                closeQuietly(connection);
+            }
+        } catch (Exception e) {
+            log.warn("向用户 {} 的设备 {} 推送消息失败，关闭连接: {}", connection.user.getId(), connection.deviceId, e.getMessage());
+            closeQuietly(connection);
+        } finally {
+            connection.pushing.set(false);
+        }
+        // 在清除pushing标记之前到达的通知可能没有启动新一轮推送
+        if (connection.dirty.get() && connection.session.isOpen()) {
+            schedulePush(connection);
+        }
+    }
+
+    /**
+     * 从游标处按页推送其他设备的新消息，直到没有更多消息
+     * 游标记录的是已发送的位置，不代表客户端已应用，因此不作为确认；设备的最后同步HLC只由客户端的ack推进
+     */
+    private void pushPending(Connection connection) throws IOException {
+        boolean hasMore;
+        do {
+            PagedResponseDto<SyncMessage> page = syncService.getMessagesPage(connection.user, connection.deviceId,
+                    null, true, null, connection.cursor, null, false);
+            hasMore = page.getPagination().isHasMore();
+            if (!page.getData().isEmpty()) {
+                ObjectNode frame = objectMapper.createObjectNode();
+                frame.put("type", "messages");
+                frame.set("messages", objectMapper.valueToTree(page.getData()));
+                frame.put("hasMore", hasMore);
+                send(connection, frame);
+            }
+            connection.cursor = page.getPagination().getNextCursor();
+        } while (hasMore && connection.session.isOpen());
+    }
+
+    private void sendError(Connection connection, String requestId, String message) throws IOException {
+        ObjectNode frame = objectMapper.createObjectNode();
+        frame.put("type", "error");
+        frame.put("requestId", requestId);
+        frame.put("message", message);
+        send(connection, frame);
+    }
+
+    private void send(Connection connection, JsonNode frame) throws IOException {
+        connection.session.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+    }
+
+    /**
+     * 连接使用的令牌是否仍然有效：签名令牌检查过期时间和撤销列表，旧的UUID令牌重新按令牌查询用户
+     */
+    private boolean isTokenValid(Connection connection) {
+        if (connection.claims != null) {
+            return connection.claims.getExpiresAt() > System.currentTimeMillis() && !tokenRevocationList.isRevoked(connection.claims);
+        }
+        User user = userService.getUserByToken(connection.token);
+        return user != null && user.getId().equals(connection.user.getId());
+    }
+
+    private void closeQuietly(Connection connection) {
+        closeWith(connection, CloseStatus.SERVER_ERROR);
+    }
+
+    private void closeWith(Connection connection, CloseStatus status) {
+        try {
+            connection.session.close(status);
+        } catch (IOException e) {
+            log.debug("关闭WebSocket连接失败: {}", e.getMessage());
+        }
+    }
+
+    private void closeForResync(Connection connection, String message) {
+        try {
+            sendError(connection, null, message);
+            connection.session.close(RESYNC_REQUIRED);
+        } catch (IOException e) {
+            log.debug("关闭WebSocket连接失败: {}", e.getMessage());
+        }
+    }
+
+    private static String firstValue(Map<String, List<String>> query, String name) {
+        List<String> values = query.get(name);
+        return values == null || values.isEmpty() || values.get(0).isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * 当前的连接数
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pushExecutor.shutdown();
+        expiryScheduler.shutdownNow();
+    }
+
+    /**
+     * 单个WebSocket连接的状态
+     */
+    private static class Connection {
+        private final WebSocketSession session;
+        private final User user;
+        private final String deviceId;
+        private final String token;
+        // 签名令牌的内容，旧的UUID令牌为null
+        private final SignedTokenCodec.Claims claims;
+        private final AtomicBoolean pushing = new AtomicBoolean();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        // 只在推送线程中读写，同一时刻最多一个推送任务
+        private volatile String cursor;
+        private volatile SyncNotificationHub.Subscription subscription;
+        private volatile ScheduledFuture<?> expiryTask;
+
+        Connection(WebSocketSession session, User user, String deviceId, String cursor,
+                   String token, SignedTokenCodec.Claims claims) {
+            this.session = session;
+            this.user = user;
+            this.deviceId = deviceId;
+            this.cursor = cursor;
+            this.token = token;
+            this.claims = claims;
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.djj.todoscheduleserver.controller;
 
 import com.djj.todoscheduleserver.common.Result;
+import com.djj.todoscheduleserver.config.AuthInterceptor;
 import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.pojo.dto.AuthTokenDto;
 import com.djj.todoscheduleserver.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
@@ -29,6 +32,9 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private HttpServletRequest httpServletRequest;
+
     /**
      * 用户注册
      */
@@ -62,14 +68,14 @@ public class UserController {
             return Result.serverError("注册失败，请稍后重试");
         }
         
-        // 生成token
-        String token = userService.generateToken(newUser);
+        // 签发令牌
+        AuthTokenDto tokens = userService.issueTokens(newUser);
         
         // 构建响应
         Map<String, Object> data = new HashMap<>();
         data.put("id", newUser.getId());
         data.put("username", newUser.getUsername());
-        data.put("token", token);
+        putTokens(data, tokens);
         data.put("created_at", newUser.getCreatedAt());
         
         return Result.success("注册成功", data);
@@ -83,7 +89,8 @@ public class UserController {
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "登录成功"),
         @ApiResponse(responseCode = "400", description = "请求参数错误"),
-        @ApiResponse(responseCode = "401", description = "用户名或密码错误")
+        @ApiResponse(responseCode = "401", description = "用户名或密码错误"),
+        @ApiResponse(responseCode = "429", description = "登录失败次数过多或服务器繁忙，请稍后重试")
     })
     public Result<Map<String, Object>> login(@RequestBody Map<String, String> loginData) {
         String username = loginData.get("username");
@@ -100,7 +107,7 @@ public class UserController {
         log.info("登录验证: username={}, 尝试登录", username);
         
         // 验证用户名和密码
-        User user = userService.validateCredentials(username, password);
+        User user = userService.validateCredentials(username, password, httpServletRequest.getRemoteAddr());
         if (user == null) {
             return Result.unauthorized("用户名或密码错误");
         }
@@ -109,17 +116,14 @@ public class UserController {
         user.setLastOpen(new Timestamp(System.currentTimeMillis()));
         userService.updateUser(user);
         
-        // 生成新的访问令牌
-        String token = user.getToken();
-        if (user.getToken() == null) {
-            token = userService.generateToken(user);
-        }
+        // 在当前会话下签发新令牌，其他设备已持有的令牌不受影响
+        AuthTokenDto tokens = userService.issueTokens(user);
 
         // 构建响应
         Map<String, Object> data = new HashMap<>();
         data.put("id", user.getId());
         data.put("username", user.getUsername());
-        data.put("token", token);
+        putTokens(data, tokens);
         data.put("last_open", user.getLastOpen());
         
         return Result.success("登录成功", data);
@@ -139,8 +143,8 @@ public class UserController {
             return Result.unauthorized("未提供有效的授权信息");
         }
         
-        String token = authorization.substring(7); // 去掉"Bearer "前缀
-        User user = userService.getUserByToken(token);
+        // 令牌已由AuthInterceptor解析
+        User user = AuthInterceptor.getCurrentUser(httpServletRequest);
         
         if (user == null) {
             return Result.unauthorized("无效的令牌或令牌已过期");
@@ -148,6 +152,7 @@ public class UserController {
         
         // 移除敏感信息
         user.setPasswordHash(null);
+        user.setToken(null);
         
         return Result.success(user);
     }
@@ -168,8 +173,8 @@ public class UserController {
             return Result.unauthorized("未提供有效的授权信息");
         }
         
-        String token = authorization.substring(7); // 去掉"Bearer "前缀
-        User currentUser = userService.getUserByToken(token);
+        // 令牌已由AuthInterceptor解析
+        User currentUser = AuthInterceptor.getCurrentUser(httpServletRequest);
         
         if (currentUser == null) {
             return Result.unauthorized("无效的令牌或令牌已过期");
@@ -191,6 +196,7 @@ public class UserController {
         
         // 移除敏感信息
         user.setPasswordHash(null);
+        user.setToken(null);
         
         return Result.success("用户信息更新成功", user);
     }
@@ -211,8 +217,8 @@ public class UserController {
             return Result.unauthorized("未提供有效的授权信息");
         }
         
-        String token = authorization.substring(7); // 去掉"Bearer "前缀
-        User currentUser = userService.getUserByToken(token);
+        // 令牌已由AuthInterceptor解析
+        User currentUser = AuthInterceptor.getCurrentUser(httpServletRequest);
         
         if (currentUser == null) {
             return Result.unauthorized("无效的令牌或令牌已过期");
@@ -241,6 +247,73 @@ public class UserController {
             return Result.serverError("密码修改失败，请稍后重试");
         }
         
-        return Result.success("密码修改成功");
+        // 修改密码后所有旧令牌失效，为当前设备签发新令牌
+        Map<String, Object> data = new HashMap<>();
+        putTokens(data, userService.issueTokens(userService.getUserById(currentUser.getId())));
+        return Result.success("密码修改成功", data);
+    }
+    
+    /**
+     * 刷新令牌
+     */
+    @PostMapping("/token/refresh")
+    @Operation(summary = "刷新令牌", description = "使用刷新令牌换取新的访问令牌和刷新令牌，刷新令牌只能使用一次")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "刷新成功"),
+        @ApiResponse(responseCode = "400", description = "请求参数错误"),
+        @ApiResponse(responseCode = "401", description = "刷新令牌无效、已过期或已使用")
+    })
+    public Result<Map<String, Object>> refreshToken(@RequestBody Map<String, String> refreshData) {
+        String refreshToken = refreshData.get("refresh_token");
+        if (refreshToken == null || refreshToken.trim().isEmpty()) {
+            return Result.badRequest("刷新令牌不能为空");
+        }
+        
+        AuthTokenDto tokens = userService.refreshToken(refreshToken);
+        if (tokens == null) {
+            return Result.unauthorized("刷新令牌无效或已过期，请重新登录");
+        }
+        
+        Map<String, Object> data = new HashMap<>();
+        putTokens(data, tokens);
+        return Result.success("刷新成功", data);
+    }
+    
+    /**
+     * 退出登录
+     */
+    @PostMapping("/logout")
+    @Operation(summary = "退出登录", description = "撤销当前访问令牌，请求体中提供refresh_token时一并撤销")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "退出成功"),
+        @ApiResponse(responseCode = "401", description = "未认证或认证已过期")
+    })
+    public Result<?> logout(@RequestHeader("Authorization") String authorization,
+                            @RequestBody(required = false) Map<String, String> logoutData) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return Result.unauthorized("未提供有效的授权信息");
+        }
+        
+        // 令牌已由AuthInterceptor解析
+        if (AuthInterceptor.getCurrentUser(httpServletRequest) == null) {
+            return Result.unauthorized("无效的令牌或令牌已过期");
+        }
+        
+        userService.revokeToken(authorization.substring(7)); // 去掉"Bearer "前缀
+        if (logoutData != null && logoutData.get("refresh_token") != null) {
+            userService.revokeToken(logoutData.get("refresh_token"));
+        }
+        
+        return Result.success("退出成功");
+    }
+    
+    /**
+     * 把令牌写入响应，token字段保留旧客户端使用的名称
+     */
+    private static void putTokens(Map<String, Object> data, AuthTokenDto tokens) {
+        data.put("token", tokens.getAccessToken());
+        data.put("expires_in", tokens.getExpiresIn());
+        data.put("refresh_token", tokens.getRefreshToken());
+        data.put("refresh_expires_in", tokens.getRefreshExpiresIn());
     }
 } 
\ No newline at end of file
@@ -11,6 +11,7 @@ import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -112,19 +113,21 @@ public class WechatOAuthController {
     @ResponseBody
     @Operation(summary = "验证用户凭据", description = "验证用户名和密码，并将用户与微信OpenID关联")
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "验证结果，包含成功或失败信息")
+        @ApiResponse(responseCode = "200", description = "验证结果，包含成功或失败信息"),
+        @ApiResponse(responseCode = "429", description = "登录失败次数过多或服务器繁忙，请稍后重试")
     })
     public Map<String, Object> verifyCredentials(
             @Parameter(description = "用户名") @RequestParam("username") String username, 
             @Parameter(description = "密码") @RequestParam("password") String password,
-            @Parameter(description = "微信OpenID") @RequestParam("openid") String openid) {
+            @Parameter(description = "微信OpenID") @RequestParam("openid") String openid,
+            HttpServletRequest request) {
         Map<String, Object> response = new HashMap<>();
         
         log.info("微信授权验证: username={}, password长度={}, openid={}", username, 
                 password != null ? password.length() : 0, openid);
         
         // 使用UserService验证用户名和密码
-        User user = userService.validateCredentials(username, password);
+        User user = userService.validateCredentials(username, password, request.getRemoteAddr());
         
         if (user != null) {
             // 验证成功，更新用户openid
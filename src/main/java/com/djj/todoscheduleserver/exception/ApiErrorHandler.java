@@ -0,0 +1,19 @@
+package com.djj.todoscheduleserver.exception;
+
+import com.djj.todoscheduleserver.common.Result;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * 把接口中抛出的ApiError转换为对应状态码的统一响应
+ */
+@RestControllerAdvice
+public class ApiErrorHandler {
+
+    @ExceptionHandler(ApiError.class)
+    public ResponseEntity<Result<Void>> handleApiError(ApiError error) {
+        return ResponseEntity.status(error.getStatus())
+                .body(Result.error(error.getStatus().value(), error.getMessage()));
+    }
+}
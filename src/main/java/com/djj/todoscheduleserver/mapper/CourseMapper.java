@@ -32,9 +32,19 @@ public interface CourseMapper {
      * 新增或更新课程
      */
     int insertOrUpdate(Course course);
+
+    /**
+     * 按HLC最后写入者胜出新增或更新课程，仅当传入的HLC时间戳比已存储的更新时才覆盖已有行
+     * 比较和写入在同一条语句中完成，避免先查询再写入的两次往返和并发竞争
+     *
+     * @return 影响行数：1表示插入了新行，2表示覆盖了已有行，0表示已存在相同或更新的版本而未做修改
+     */
+    int insertOrUpdateIfNewer(Course course);
     
     /**
-     * 标记课程为已删除
+     * 按HLC最后写入者胜出(LWW)标记课程为已删除，尚无该键时写入墓碑行
+     *
+     * @return 影响行数：1表示写入了墓碑行，2表示删除了已有行，0表示已存在相同或更新的版本而未做修改
      */
-    int markAsDeleted(@Param("crdtKey") String crdtKey, @Param("hlcTimestamp") Long hlcTimestamp, @Param("deletedAt") Timestamp deletedAt);
+    int markAsDeleted(@Param("userId") Integer userId, @Param("crdtKey") String crdtKey, @Param("hlcTimestamp") Long hlcTimestamp, @Param("deletedAt") Timestamp deletedAt);
 } 
\ No newline at end of file
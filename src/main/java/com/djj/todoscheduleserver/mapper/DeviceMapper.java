@@ -1,6 +1,7 @@
 package com.djj.todoscheduleserver.mapper;
 
 import com.djj.todoscheduleserver.pojo.crdt.Device;
+import com.djj.todoscheduleserver.pojo.crdt.SyncWatermark;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -38,6 +39,37 @@ public interface DeviceMapper {
             @Param("updatedAt") Timestamp updatedAt
     );
     
+    /**
+     * 仅当新的时间戳大于已记录的值时更新设备的最后同步时间戳
+     */
+    int advanceLastSyncHlcTimestamp(
+            @Param("id") String id,
+            @Param("lastSyncHlcTimestamp") Long lastSyncHlcTimestamp,
+            @Param("updatedAt") Timestamp updatedAt
+    );
+
+    /**
+     * 获取每个用户活跃设备中最小的最后同步时间戳，即该用户所有活跃设备都已确认过的HLC位置
+     * 最后同步时间早于activeSince的设备视为已过期，不再限制水位线；用户没有活跃设备时取所有设备中最大的确认位置
+     * 有活跃设备从未同步过的用户不会返回
+     *
+     * @param activeSince 活跃设备的最后同步时间下限
+     */
+    List<SyncWatermark> getSyncWatermarks(@Param("activeSince") Timestamp activeSince);
+
+    /**
+     * 获取所有用户水位线中的最小值，计算方式与getSyncWatermarks相同，但包括有活跃设备从未同步过的用户（水位线为0）
+     *
+     * @param activeSince 活跃设备的最后同步时间下限
+     * @return 最小的水位线，没有任何设备时为null
+     */
+    Long getMinSyncWatermark(@Param("activeSince") Timestamp activeSince);
+
+    /**
+     * 统计最后同步时间早于activeSince的过期设备数
+     */
+    int countInactiveDevices(@Param("activeSince") Timestamp activeSince);
+
     /**
      * 删除设备
      */
@@ -0,0 +1,17 @@
+package com.djj.todoscheduleserver.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface HlcLeaseMapper {
+    /**
+     * 获取节点已预留的HLC物理时间上限，没有记录时为null
+     */
+    Long getLeaseUntil(@Param("nodeId") int nodeId);
+
+    /**
+     * 保存节点的租约上限，只会增大，不会减小
+     */
+    int saveLeaseUntil(@Param("nodeId") int nodeId, @Param("leaseUntil") long leaseUntil);
+}
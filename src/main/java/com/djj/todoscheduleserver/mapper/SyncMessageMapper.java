@@ -1,8 +1,11 @@
 package com.djj.todoscheduleserver.mapper;
 
 import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.pojo.crdt.SyncPartition;
+import com.djj.todoscheduleserver.pojo.crdt.SyncRetentionFloor;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 import java.util.List;
 
@@ -13,6 +16,66 @@ public interface SyncMessageMapper {
      */
     int insert(SyncMessage syncMessage);
 
+    /**
+     * 批量插入同步消息（单条多行INSERT语句），生成的主键会回填到每个消息对象中
+     */
+    int insertBatch(@Param("messages") List<SyncMessage> messages);
+
+    /**
+     * 查找已存储的相同消息（同一用户、来源设备、crdtKey和HLC时间戳），只返回用于去重的字段
+     */
+    List<SyncMessage> findExisting(@Param("userId") Integer userId, @Param("messages") List<SyncMessage> messages);
+
+    /**
+     * 按ID顺序获取尚未投影到业务表的消息
+     */
+    List<SyncMessage> getPendingProjection(@Param("limit") int limit);
+
+    /**
+     * 将消息标记为已投影
+     *
+     * @param minHlc 这些消息中最小的HLC时间戳，与maxHlc一起用于分区裁剪
+     * @param maxHlc 这些消息中最大的HLC时间戳
+     */
+    int markProjected(@Param("ids") List<Long> ids, @Param("minHlc") long minHlc, @Param("maxHlc") long maxHlc);
+
+    /**
+     * 记录一次投影失败，失败次数达到上限时将消息标记为已投影，不再重试
+     *
+     * @param maxAttempts 最多尝试投影的次数
+     */
+    int recordProjectionFailure(@Param("id") Long id, @Param("hlcTimestamp") Long hlcTimestamp, @Param("maxAttempts") int maxAttempts);
+
+    /**
+     * 查找已被更新消息取代的消息ID
+     * 同一(user_id, entity_type, crdt_key)在水位线以内存在HLC更大、且已投影到业务表的消息时，较旧的消息可以删除
+     *
+     * @param watermark 用户所有活跃设备都已确认过的HLC位置
+     */
+    List<Long> findSupersededIds(
+            @Param("userId") Integer userId,
+            @Param("watermark") long watermark,
+            @Param("limit") int limit
+    );
+
+    /**
+     * 按ID删除消息
+     *
+     * @param maxHlc 这些消息的HLC时间戳上限（如压缩时的水位线），用于分区裁剪
+     */
+    int deleteByIds(@Param("ids") List<Long> ids, @Param("maxHlc") long maxHlc);
+
+    /**
+     * 获取用户已全部投影到业务表的HLC位置
+     * 存在未投影的消息时为其中最小的HLC减一，否则为该用户最大的HLC与保留下限中较大的一个，都没有时为0
+     */
+    long getProjectedHlc(@Param("userId") Integer userId);
+
+    /**
+     * 获取用户已全部投影到业务表的序号位置，规则与getProjectedHlc相同
+     */
+    long getProjectedSeq(@Param("userId") Integer userId);
+
     /**
      * 获取指定时间戳之后的所有消息
      */
@@ -49,6 +112,72 @@ public interface SyncMessageMapper {
             @Param("hlcTimestamp") Long hlcTimestamp
     );
     
+    /**
+     * 按(hlcTimestamp, id)游标分页获取消息
+     *
+     * @param entityType 实体类型，为null时不限类型
+     * @param excludeDeviceId 排除来自该设备的消息，为null时不排除
+     * @param afterHlc 上一页最后一条消息的HLC时间戳
+     * @param afterId 上一页最后一条消息的ID
+     * @param limit 最多返回的条数
+     */
+    List<SyncMessage> getMessagesPage(
+            @Param("userId") Integer userId,
+            @Param("entityType") String entityType,
+            @Param("excludeDeviceId") String excludeDeviceId,
+            @Param("afterHlc") long afterHlc,
+            @Param("afterId") long afterId,
+            @Param("limit") int limit
+    );
+
+    /**
+     * 按服务器分配的序号获取消息
+     *
+     * @param entityType 实体类型，为null时不限类型
+     * @param excludeDeviceId 排除来自该设备的消息，为null时不排除
+     * @param afterSeq 客户端已收到的最大序号
+     * @param limit 最多返回的条数
+     * @return 按seq升序排列的消息
+     */
+    List<SyncMessage> getMessagesAfterSeq(
+            @Param("userId") Integer userId,
+            @Param("entityType") String entityType,
+            @Param("excludeDeviceId") String excludeDeviceId,
+            @Param("afterSeq") long afterSeq,
+            @Param("limit") int limit
+    );
+
+    /**
+     * 获取用户所有消息中最大的HLC时间戳，没有任何消息时为0
+     */
+    long getMaxHlc(@Param("userId") Integer userId);
+
+    /**
+     * 获取指定时间戳之后其他设备写入的消息中最大的HLC时间戳，用于判断设备是否有待拉取的消息
+     *
+     * @param excludeDeviceId 排除来自该设备的消息
+     * @return 最大的HLC时间戳，没有新消息时为null
+     */
+    Long getLatestHlcExcludingOriginDevice(
+            @Param("userId") Integer userId,
+            @Param("excludeDeviceId") String excludeDeviceId,
+            @Param("hlcTimestamp") long hlcTimestamp
+    );
+
+    /**
+     * 以游标方式逐行读取指定时间戳之后的消息，结果集不会一次性加载到内存
+     * 必须在事务内使用，并在事务结束前读完或关闭Cursor
+     *
+     * @param entityType 实体类型，为null时不限类型
+     * @param excludeDeviceId 排除来自该设备的消息，为null时不排除
+     */
+    Cursor<SyncMessage> streamMessagesAfterTimestamp(
+            @Param("userId") Integer userId,
+            @Param("entityType") String entityType,
+            @Param("excludeDeviceId") String excludeDeviceId,
+            @Param("hlcTimestamp") Long hlcTimestamp
+    );
+
     /**
      * 获取用户的所有消息（用于初始同步）
      */
@@ -62,4 +191,54 @@ public interface SyncMessageMapper {
             @Param("entityType") String entityType,
             @Param("entityKey") String entityKey
     );
-} 
\ No newline at end of file
+
+    /**
+     * 获取sync_message的分区列表，按分区顺序排列；表未分区时返回空列表
+     */
+    List<SyncPartition> listPartitions();
+
+    /**
+     * 从pmax分区中拆分出一个新分区
+     *
+     * @param name 新分区名，只能由内部生成，不能来自请求参数
+     * @param upperBound 新分区的HLC上界（不含）
+     */
+    int addPartition(@Param("name") String name, @Param("upperBound") long upperBound);
+
+    /**
+     * 统计HLC小于upperBound的未投影消息数
+     */
+    long countUnprojectedBefore(@Param("upperBound") long upperBound);
+
+    /**
+     * 以sync_message为模板创建归档表
+     *
+     * @param table 归档表名，只能由内部生成
+     */
+    int createArchiveTable(@Param("table") String table);
+
+    /**
+     * 去掉归档表的分区定义，分区交换要求目标表未分区
+     */
+    int removeArchivePartitioning(@Param("table") String table);
+
+    /**
+     * 将分区的数据与归档表交换，分区变为空
+     */
+    int exchangePartition(@Param("name") String name, @Param("table") String table);
+
+    /**
+     * 删除分区及其中的数据
+     */
+    int dropPartition(@Param("name") String name);
+
+    /**
+     * 移出分区前，把分区中每个用户的最大HLC和序号合并到保留下限表，只会增大，不会减小
+     */
+    int recordRetentionFloor(@Param("name") String name);
+
+    /**
+     * 获取用户的保留下限，没有消息被移出时为null
+     */
+    SyncRetentionFloor getRetentionFloor(@Param("userId") Integer userId);
+}
@@ -0,0 +1,18 @@
+package com.djj.todoscheduleserver.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface SyncSequenceMapper {
+    /**
+     * 将用户已分配的最大序号增加count，用户没有记录时新建
+     * 该行在当前事务提交前保持锁定，同一用户的其他写入会等待
+     */
+    int advance(@Param("userId") Integer userId, @Param("count") int count);
+
+    /**
+     * 获取用户已分配的最大序号，没有记录时为0
+     */
+    long getLastSeq(@Param("userId") Integer userId);
+}
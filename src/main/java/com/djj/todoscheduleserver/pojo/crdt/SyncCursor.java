@@ -0,0 +1,55 @@
+package com.djj.todoscheduleserver.pojo.crdt;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 同步消息下载的分页游标
+ * 记录上一页最后一条消息的(hlcTimestamp, id)，HLC相同的消息再按ID排序，翻页时不会遗漏或重复
+ * 对客户端来说游标是不透明的字符串，只需原样传回
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncCursor {
+    private long hlcTimestamp; // 上一页最后一条消息的HLC时间戳
+    private long id;           // 上一页最后一条消息的ID
+
+    /**
+     * 从指定HLC时间戳之后开始的游标，等价于 hlc_timestamp > since
+     */
+    public static SyncCursor after(long hlcTimestamp) {
+        return new SyncCursor(hlcTimestamp, Long.MAX_VALUE);
+    }
+
+    /**
+     * 编码为URL安全的字符串
+     */
+    public String encode() {
+        String raw = hlcTimestamp + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析客户端传回的游标
+     *
+     * @throws IllegalArgumentException 游标格式无效时抛出
+     */
+    public static SyncCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("无效的游标: " + cursor);
+            }
+            return new SyncCursor(Long.parseLong(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException也是IllegalArgumentException的子类
+            throw new IllegalArgumentException("无效的游标: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.djj.todoscheduleserver.pojo.crdt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Data;
+
+/**
+ * 已解析的CRDT同步消息
+ * 每条上传消息只解析一次，解析结果在存储和各投影处理器之间共享
+ */
+@Data
+public class SyncEnvelope {
+    private String crdtKey;       // 实体在CRDT模型中的唯一键
+    private Long hlcTimestamp;    // 混合逻辑时钟时间戳
+    private String operationType; // 操作类型，ADD、UPDATE 或 DELETE
+    private JsonNode payload;     // 实体数据节点（内嵌的messageData已展开）
+    private SyncMessage message;   // 对应的同步消息记录
+}
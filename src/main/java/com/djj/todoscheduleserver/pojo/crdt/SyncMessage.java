@@ -1,5 +1,6 @@
 package com.djj.todoscheduleserver.pojo.crdt;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import java.sql.Timestamp;
 
@@ -13,4 +14,9 @@ public class SyncMessage {
     private Long hlcTimestamp;    // 混合逻辑时钟时间戳
     private String originDeviceId;// 消息来源设备ID
     private Timestamp createdAt;  // 记录创建时间
+    private Long seq;             // 服务器分配的用户内序号，按提交顺序递增，可作为下载游标
+    @JsonIgnore
+    private Boolean projected;    // 是否已投影到业务表（仅服务器内部使用），为null时视为未投影
+    @JsonIgnore
+    private Integer projectionAttempts; // 投影失败次数（仅服务器内部使用）
 } 
\ No newline at end of file
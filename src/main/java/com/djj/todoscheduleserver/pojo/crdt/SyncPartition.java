@@ -0,0 +1,21 @@
+package com.djj.todoscheduleserver.pojo.crdt;
+
+import lombok.Data;
+
+/**
+ * sync_message的一个分区
+ * 按hlc_timestamp做RANGE分区，分区名pYYYYMM保存该月（UTC）的消息
+ */
+@Data
+public class SyncPartition {
+    private String name;        // 分区名
+    private String description; // 分区上界（不含），最后一个分区为MAXVALUE
+    private Long tableRows;     // 估算的行数
+
+    /**
+     * 分区的HLC上界，MAXVALUE分区返回null
+     */
+    public Long getUpperBound() {
+        return description == null || "MAXVALUE".equalsIgnoreCase(description) ? null : Long.valueOf(description);
+    }
+}
@@ -0,0 +1,14 @@
+package com.djj.todoscheduleserver.pojo.crdt;
+
+import lombok.Data;
+
+/**
+ * 用户的同步消息保留下限
+ * HLC不大于floorHlc（或序号不大于floorSeq）的部分消息已随过期分区移出，只保留在业务表中
+ */
+@Data
+public class SyncRetentionFloor {
+    private Integer userId;  // 用户ID
+    private Long floorHlc;   // 已移出的消息中最大的HLC时间戳
+    private Long floorSeq;   // 已移出的消息中最大的序号
+}
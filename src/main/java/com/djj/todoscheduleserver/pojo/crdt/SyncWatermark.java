@@ -0,0 +1,13 @@
+package com.djj.todoscheduleserver.pojo.crdt;
+
+import lombok.Data;
+
+/**
+ * 用户的同步水位线
+ * 该用户所有设备都已同步到的HLC位置，在此之前的消息已被所有设备接收
+ */
+@Data
+public class SyncWatermark {
+    private Integer userId;     // 用户ID
+    private Long hlcTimestamp;  // 所有设备最后同步时间戳中的最小值
+}
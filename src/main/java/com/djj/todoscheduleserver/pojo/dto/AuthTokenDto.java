@@ -0,0 +1,28 @@
+package com.djj.todoscheduleserver.pojo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 签发给客户端的一对令牌
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "访问令牌与刷新令牌，访问令牌过期前应使用刷新令牌换取新的一对令牌")
+public class AuthTokenDto {
+
+    @Schema(description = "访问令牌，请求时放在Authorization头部")
+    private String accessToken;
+
+    @Schema(description = "访问令牌的有效期（秒）")
+    private long expiresIn;
+
+    @Schema(description = "刷新令牌，只能使用一次")
+    private String refreshToken;
+
+    @Schema(description = "刷新令牌的有效期（秒）")
+    private long refreshExpiresIn;
+}
@@ -18,9 +18,12 @@ public class BatchUploadResponseDto {
     @Schema(description = "接收到的消息数量")
     private int messagesReceived;
     
-    @Schema(description = "各条消息的处理结果")
+    @Schema(description = "各条消息的处理结果；流式上传接口只返回失败的消息")
     private List<MessageResult> results;
     
+    @Schema(description = "各分块的写入进度，仅流式上传接口提供")
+    private List<ChunkResult> chunks;
+    
     @Schema(description = "错误码，当success为false时提供")
     private Integer errorCode;
     
@@ -37,10 +40,36 @@ public class BatchUploadResponseDto {
         @Schema(description = "消息的crdtKey")
         private String crdtKey;
         
-        @Schema(description = "消息处理状态: success, failure")
+        @Schema(description = "服务器为该消息分配的ID，当status为success时提供")
+        private Long messageId;
+        
+        @Schema(description = "消息处理状态: success, duplicate（此前已存储过，messageId为已存储消息的ID）, failure")
         private String status;
         
-        @Schema(description = "错误信息，当status为failure时提供")
+        @Schema(description = "说明信息，当status为duplicate或failure时提供")
         private String message;
     }
+    
+    /**
+     * 单个分块的写入结果
+     */
+    @Data
+    @Schema(description = "单个分块的写入结果")
+    public static class ChunkResult {
+        
+        @Schema(description = "分块序号，从0开始")
+        private int chunkIndex;
+        
+        @Schema(description = "分块中的消息数量")
+        private int messageCount;
+        
+        @Schema(description = "成功写入的消息数量")
+        private int storedCount;
+        
+        @Schema(description = "此前已存储过而被跳过的消息数量")
+        private int duplicateCount;
+        
+        @Schema(description = "写入失败的消息数量")
+        private int failedCount;
+    }
 }
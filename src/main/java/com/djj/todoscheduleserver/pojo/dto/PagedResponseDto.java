@@ -39,5 +39,8 @@ public class PagedResponseDto<T> {
         
         @Schema(description = "下一页游标，用于基于游标的分页")
         private String nextCursor;
+
+        @Schema(description = "按序号下载时，下一次请求使用的sinceSeq")
+        private Long nextSeq;
     }
 }
@@ -0,0 +1,32 @@
+package com.djj.todoscheduleserver.pojo.dto;
+
+import com.djj.todoscheduleserver.pojo.Course;
+import com.djj.todoscheduleserver.pojo.OrdinarySchedule;
+import com.djj.todoscheduleserver.pojo.TimeSlot;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 基于状态的增量同步结果
+ */
+@Data
+@Schema(description = "基于状态的增量同步结果，每个发生变化的实体只返回其当前状态")
+public class SyncDeltaDto {
+
+    @Schema(description = "本次请求的起始HLC时间戳")
+    private long sinceHlc;
+
+    @Schema(description = "下次请求使用的since，HLC不大于该值的变化都已包含在本次结果中")
+    private long nextSinceHlc;
+
+    @Schema(description = "发生变化的普通日程，包括已删除的实体（isDeleted为true）")
+    private List<OrdinarySchedule> ordinarySchedules;
+
+    @Schema(description = "发生变化的时间槽，包括已删除的实体（isDeleted为true）")
+    private List<TimeSlot> timeSlots;
+
+    @Schema(description = "发生变化的课程，包括已删除的实体（isDeleted为true）")
+    private List<Course> courses;
+}
@@ -0,0 +1,30 @@
+package com.djj.todoscheduleserver.pojo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 变更订阅的结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "变更订阅的结果，changed为true时客户端应立即拉取新消息")
+public class SyncNotificationDto {
+
+    @Schema(description = "等待期间是否有其他设备写入了新消息，超时返回时为false")
+    private boolean changed;
+
+    @Schema(description = "已知的最新消息HLC时间戳，changed为false时为null")
+    private Long latestHlc;
+
+    public static SyncNotificationDto changed(long latestHlc) {
+        return new SyncNotificationDto(true, latestHlc);
+    }
+
+    public static SyncNotificationDto unchanged() {
+        return new SyncNotificationDto(false, null);
+    }
+}
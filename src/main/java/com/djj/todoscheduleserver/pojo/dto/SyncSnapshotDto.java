@@ -0,0 +1,32 @@
+package com.djj.todoscheduleserver.pojo.dto;
+
+import com.djj.todoscheduleserver.pojo.Course;
+import com.djj.todoscheduleserver.pojo.OrdinarySchedule;
+import com.djj.todoscheduleserver.pojo.TimeSlot;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 用户数据快照
+ */
+@Data
+@Schema(description = "用户数据快照，新设备用它代替回放完整的消息日志")
+public class SyncSnapshotDto {
+
+    @Schema(description = "快照对应的HLC时间戳，HLC不大于该值的消息都已包含在快照中，之后从该值开始增量同步")
+    private long snapshotHlc;
+
+    @Schema(description = "快照对应的消息序号，使用sinceSeq下载的客户端之后从该值开始增量同步")
+    private long snapshotSeq;
+
+    @Schema(description = "未删除的普通日程")
+    private List<OrdinarySchedule> ordinarySchedules;
+
+    @Schema(description = "未删除的时间槽")
+    private List<TimeSlot> timeSlots;
+
+    @Schema(description = "未删除的课程")
+    private List<Course> courses;
+}
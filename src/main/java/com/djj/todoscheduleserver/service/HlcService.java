@@ -10,7 +10,7 @@ public interface HlcService {
      * 生成一个新的HLC时间戳。
      * 此时间戳应大于任何先前生成或观察到的HLC时间戳，以维护因果顺序。
      *
-     * @param userId 可选：如果需要用户特定的HLC时钟，则使用此参数；但全局时钟更简单。
+     * @param userId 用户ID，每个用户使用独立的HLC时钟；为null时使用全局时钟。
      * @return 新的HLC时间戳 (long)。
      */
     long now(Integer userId);
@@ -20,7 +20,7 @@ public interface HlcService {
      * 确保如果收到的时间戳更大，服务器的时钟会前进。
      *
      * @param receivedHlc 从外部来源收到的HLC时间戳。
-     * @param userId 可选：用于用户特定的HLC时钟。
+     * @param userId 用户ID，更新该用户的HLC时钟；为null时更新全局时钟。
      * @return 服务器可能更新后的当前HLC时间戳。
      */
     long updateWithTimestamp(long receivedHlc, Integer userId);
@@ -0,0 +1,30 @@
+package com.djj.todoscheduleserver.service;
+
+/**
+ * 同步消息日志压缩服务接口
+ * 同一实体被多次修改后，在所有活跃设备都已确认过的范围内只保留最新的一条消息
+ */
+public interface SyncCompactionService {
+
+    /**
+     * 对所有用户执行一轮压缩
+     *
+     * @return 本轮删除的消息数量
+     */
+    int compact();
+
+    /**
+     * 对单个用户执行压缩
+     *
+     * @param userId 用户ID
+     * @param watermark 该用户所有活跃设备都已确认过的HLC位置
+     * @param maxRows 最多删除的消息数量
+     * @return 删除的消息数量
+     */
+    int compactUser(Integer userId, long watermark, int maxRows);
+
+    /**
+     * 服务启动以来累计删除的消息数量
+     */
+    long getTotalRowsReclaimed();
+}
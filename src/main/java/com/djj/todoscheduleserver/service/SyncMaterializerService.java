@@ -0,0 +1,16 @@
+package com.djj.todoscheduleserver.service;
+
+/**
+ * 同步消息物化服务接口
+ * 将已提交到sync_message的消息在后台异步投影到ordinary_schedule、time_slot、course等业务表
+ */
+public interface SyncMaterializerService {
+
+    /**
+     * 投影所有尚未投影的消息
+     * 不同用户的消息并行处理，同一用户的消息按HLC顺序处理
+     *
+     * @return 本次投影的消息数量
+     */
+    int materializePendingMessages();
+}
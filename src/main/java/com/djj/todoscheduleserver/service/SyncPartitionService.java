@@ -0,0 +1,23 @@
+package com.djj.todoscheduleserver.service;
+
+/**
+ * 同步消息表分区维护服务接口
+ * sync_message按HLC的物理时间按月RANGE分区，查询按hlc_timestamp条件只扫描相关的分区，过期的月份整个分区移出
+ */
+public interface SyncPartitionService {
+
+    /**
+     * 确保从当前月份起的配置月数都已有独立的分区
+     *
+     * @return 新建的分区数量；sync_message未分区时为0
+     */
+    int ensureFuturePartitions();
+
+    /**
+     * 移出超过保留期限的分区，按配置交换到归档表或直接删除
+     * 只移出所有消息都已被活跃设备确认、并且都已投影到业务表的分区
+     *
+     * @return 移出的分区数量
+     */
+    int removeExpiredPartitions();
+}
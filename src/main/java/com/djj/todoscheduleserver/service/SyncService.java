@@ -3,9 +3,14 @@ package com.djj.todoscheduleserver.service;
 import com.djj.todoscheduleserver.pojo.User;
 import com.djj.todoscheduleserver.pojo.crdt.Device;
 import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.pojo.dto.BatchUploadResponseDto;
+import com.djj.todoscheduleserver.pojo.dto.PagedResponseDto;
 // import com.djj.todoscheduleserver.pojo.sync.SyncRequest; // 如果直接使用CRDT消息，则可能不需要
 // import com.djj.todoscheduleserver.pojo.sync.SyncResponse; // CRDT消息的响应将有所不同
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -20,8 +25,20 @@ public interface SyncService {
      * @param deviceId 发送消息的设备ID
      * @param entityType 这些消息所属的实体类型（例如："OrdinarySchedule", "Course"）
      * @param messages 来自客户端的CRDT消息列表（JSON字符串）
+     * @return 每条消息的存储结果
      */
-    void storeClientMessages(User user, String deviceId, String entityType, List<String> messages);
+    BatchUploadResponseDto storeClientMessages(User user, String deviceId, String entityType, List<String> messages);
+
+    /**
+     * 以流的方式读取并存储客户端上传的CRDT消息（NDJSON），按批大小分块写入，每个分块独立提交
+     * @param user 经过身份验证的用户
+     * @param deviceId 发送消息的设备ID
+     * @param entityType 这些消息所属的实体类型
+     * @param body 请求体，每行一个JSON对象或JSON字符串
+     * @return 各分块的写入进度以及失败的消息
+     * @throws IOException 读取请求体失败时抛出
+     */
+    BatchUploadResponseDto storeClientMessageStream(User user, String deviceId, String entityType, InputStream body) throws IOException;
 
     /**
      * 检索客户端设备的CRDT消息，这些消息比该设备最后已知的HLC时间戳要新
@@ -61,42 +78,122 @@ public interface SyncService {
      */
     List<SyncMessage> getMessagesByEntityTypeAfterTimestampExcludingOriginDevice(User user, String deviceId, String entityType, Long lastSyncHlcTimestamp);
     
+    /**
+     * 按游标分页检索客户端设备的CRDT消息
+     * @param user 经过身份验证的用户
+     * @param deviceId 请求消息的设备ID
+     * @param entityType 实体类型，为null时返回所有类型
+     * @param excludeOrigin 是否排除来自该设备的消息
+     * @param lastSyncHlcTimestamp 第一页从该HLC时间戳之后开始，未提供时使用设备上次记录的HLC
+     * @param cursor 上一页返回的nextCursor，提供时忽略lastSyncHlcTimestamp
+     * @param limit 每页条数，超过服务器上限时按上限处理
+     * @param implicitAck 是否把客户端提供的游标或起点视为确认并推进设备的最后同步HLC；
+     *                    游标由服务器自己保存时（如WebSocket推送）必须为false，确认只来自客户端的ack
+     * @return 一页CRDT消息及下一页游标
+     * @throws IllegalArgumentException 游标无效时抛出
+     */
+    PagedResponseDto<SyncMessage> getMessagesPage(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                                  Long lastSyncHlcTimestamp, String cursor, Integer limit, boolean implicitAck);
+
+    /**
+     * 按服务器分配的序号分页下载消息
+     * 序号按提交顺序递增，HLC较小的补传消息同样排在已下载消息之后，不需要重叠下载
+     *
+     * @param user 用户
+     * @param deviceId 设备ID
+     * @param entityType 实体类型，为null时下载所有类型
+     * @param excludeOrigin 是否排除来自该设备的消息
+     * @param sinceSeq 客户端已收到的最大序号，首次同步为0
+     * @param limit 每页条数，为null时使用默认值
+     * @return 按seq升序排列的分页结果，nextSeq为下一次请求使用的序号
+     */
+    PagedResponseDto<SyncMessage> getMessagesAfterSeq(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                                      long sinceSeq, Integer limit);
+
+    /**
+     * 以流的方式将客户端设备的CRDT消息作为JSON数组写入输出流，内存占用与消息数量无关
+     * @param user 经过身份验证的用户
+     * @param deviceId 请求消息的设备ID
+     * @param entityType 实体类型，为null时返回所有类型
+     * @param excludeOrigin 是否排除来自该设备的消息
+     * @param lastSyncHlcTimestamp HLC时间戳，未提供时使用设备上次记录的HLC
+     * @param out 响应输出流
+     * @return 写出的消息数
+     * @throws IOException 写出失败（如客户端断开连接）时抛出
+     */
+    int streamMessagesForDevice(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                Long lastSyncHlcTimestamp, OutputStream out) throws IOException;
+
+    /**
+     * 检查设备的下载起点是否低于用户的保留下限，用于开始写出流式响应之前
+     *
+     * @param lastSyncHlcTimestamp 客户端提供的起点，为null时使用设备记录的最后同步HLC
+     * @throws com.djj.todoscheduleserver.exception.ApiError 起点之后的部分消息已随过期分区移出时抛出410
+     */
+    void checkRetained(User user, String deviceId, Long lastSyncHlcTimestamp);
+
+    /**
+     * 获取其他设备在指定时间戳之后写入的消息中最大的HLC时间戳，用于变更订阅判断是否需要立即返回
+     * @param user 经过身份验证的用户
+     * @param deviceId 订阅变更的设备ID
+     * @param lastSyncHlcTimestamp HLC时间戳，未提供时使用设备上次记录的HLC
+     * @return 最大的HLC时间戳；没有新消息、设备不存在或不属于该用户时返回null
+     */
+    Long getLatestChangeHlc(User user, String deviceId, Long lastSyncHlcTimestamp);
+
+    /**
+     * 获取属于该用户的设备
+     * @param user 经过身份验证的用户
+     * @param deviceId 设备ID
+     * @return 设备，不存在或不属于该用户时返回null
+     */
+    Device getUserDevice(User user, String deviceId);
+
+    /**
+     * 处理客户端的确认，将设备的最后同步时间戳推进到已确认的HLC，只会增大不会减小
+     * @param user 经过身份验证的用户
+     * @param deviceId 确认消息的设备ID
+     * @param hlcTimestamp 客户端已经应用的最大HLC时间戳
+     * @return 设备存在且属于该用户时返回true
+     */
+    boolean acknowledge(User user, String deviceId, long hlcTimestamp);
+
     /**
      * 注册或更新设备
      * @param device 设备信息
-     * @param token 用户token
+     * @param user 已认证的用户
      * @return 注册或更新后的Device对象
      */
-    Device registerDevice(Device device, String token);
+    Device registerDevice(Device device, User user);
     
     /**
-     * 根据用户token获取设备列表
-     * @param token 用户token
+     * 获取用户的设备列表
+     * @param user 已认证的用户
      * @return 设备列表
      */
-    List<Device> getDevicesByToken(String token);
+    List<Device> getDevicesByUser(User user);
     
     /**
      * 处理同步消息列表
      * @param messages 同步消息列表
-     * @param token 用户token
+     * @param user 已认证的用户
      */
-    void processMessages(List<SyncMessage> messages, String token);
+    void processMessages(List<SyncMessage> messages, User user);
     
     /**
      * 获取指定时间戳之后的消息
      * @param timestamp 时间戳
      * @param deviceId 设备ID
-     * @param token 用户token
+     * @param user 已认证的用户
      * @return 消息列表
      */
-    List<SyncMessage> getMessagesAfterTimestamp(Long timestamp, String deviceId, String token);
+    List<SyncMessage> getMessagesAfterTimestamp(Long timestamp, String deviceId, User user);
     
     /**
      * 更新设备最后同步时间戳
      * @param deviceId 设备ID
      * @param timestamp 时间戳
-     * @param token 用户token
+     * @param user 已认证的用户
      */
-    void updateDeviceLastSyncTimestamp(String deviceId, Long timestamp, String token);
+    void updateDeviceLastSyncTimestamp(String deviceId, Long timestamp, User user);
 } 
\ No newline at end of file
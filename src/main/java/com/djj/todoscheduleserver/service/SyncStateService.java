@@ -0,0 +1,30 @@
+package com.djj.todoscheduleserver.service;
+
+import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.pojo.dto.SyncDeltaDto;
+import com.djj.todoscheduleserver.pojo.dto.SyncSnapshotDto;
+
+/**
+ * 基于业务表（投影后的当前状态）的同步服务接口
+ * 与回放sync_message消息日志不同，直接返回ordinary_schedule、time_slot、course中的实体
+ */
+public interface SyncStateService {
+
+    /**
+     * 获取用户当前数据的快照
+     * @param user 经过身份验证的用户
+     * @param deviceId 请求快照的设备ID，快照返回后该设备的最后同步时间戳推进到快照的HLC
+     * @return 快照，设备不存在或不属于该用户时返回null
+     */
+    SyncSnapshotDto getSnapshot(User user, String deviceId);
+
+    /**
+     * 获取指定HLC时间戳之后发生变化的实体，包括已删除的实体（墓碑）
+     * 同一实体在此期间无论修改多少次，都只返回一行当前状态
+     * @param user 经过身份验证的用户
+     * @param deviceId 请求的设备ID，返回后该设备的最后同步时间戳推进到nextSinceHlc
+     * @param lastSyncHlcTimestamp 起始HLC时间戳，未提供时使用设备上次记录的HLC
+     * @return 增量结果，设备不存在或不属于该用户时返回null
+     */
+    SyncDeltaDto getDelta(User user, String deviceId, Long lastSyncHlcTimestamp);
+}
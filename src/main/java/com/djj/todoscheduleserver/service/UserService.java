@@ -1,6 +1,7 @@
 package com.djj.todoscheduleserver.service;
 
 import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.pojo.dto.AuthTokenDto;
 
 /**
  * 用户服务接口
@@ -24,7 +25,8 @@ public interface UserService {
     User getUserByOpenid(String openid);
     
     /**
-     * 根据令牌获取用户
+     * 根据访问令牌获取用户
+     * 签名令牌只验证签名、有效期和撤销列表；旧的UUID令牌按用户表token列查询
      */
     User getUserByToken(String token);
     
@@ -44,9 +46,10 @@ public interface UserService {
     User updateUserProfile(User user);
     
     /**
-     * 验证用户凭据
+     * 验证用户凭据，同一用户名或IP失败次数过多时抛出429
+     * @param clientIp 客户端IP，用于按IP限流，未知时为null
      */
-    User validateCredentials(String username, String password);
+    User validateCredentials(String username, String password, String clientIp);
     
     /**
      * 验证用户密码
@@ -59,7 +62,23 @@ public interface UserService {
     boolean updatePassword(Integer userId, String newPassword);
     
     /**
-     * 生成用户访问令牌
+     * 轮换用户的会话密钥并签发新令牌，此前签发的所有令牌随即失效
      */
-    String generateToken(User user);
+    AuthTokenDto generateToken(User user);
+    
+    /**
+     * 在用户当前会话下签发新令牌，不影响其他设备已持有的令牌
+     */
+    AuthTokenDto issueTokens(User user);
+    
+    /**
+     * 使用刷新令牌换取新的一对令牌，刷新令牌只能使用一次
+     * @return 刷新令牌无效、过期或已使用时返回null
+     */
+    AuthTokenDto refreshToken(String refreshToken);
+    
+    /**
+     * 撤销访问令牌或刷新令牌，用于退出登录
+     */
+    void revokeToken(String token);
 } 
\ No newline at end of file
@@ -1,69 +1,192 @@
 package com.djj.todoscheduleserver.service.impl;
 
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.HlcLeaseMapper;
 import com.djj.todoscheduleserver.service.HlcService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * HlcService的基本内存实现。
- * 警告：这是一个简化版本。生产级的HLC可能需要：
- * - 时钟逻辑组件的持久化，以便在重启后继续工作。
- * - 更复杂的时钟偏斜和物理时间跳跃处理机制。
- * - 如果服务器以分布式方式运行，可能需要特定于节点的标识符。
+ * HlcService的内存实现，高水位持久化到数据库。
+ * 每个用户一个独立的时钟，保存在AtomicLong中并通过CAS推进，不同用户之间没有锁竞争；userId为null时使用全局时钟。
+ *
+ * HLC的组成为 (物理时间毫秒 << 16) | (逻辑计数器 << nodeIdBits) | nodeId：
+ * - 节点ID占用逻辑部分的低位，多个节点生成的HLC互不相同；nodeIdBits为0时与单节点的编码完全相同。
+ * - 节点按租约预留物理时间：生成的HLC物理部分超过租约上限前，先把上限推进leaseMs并写入hlc_lease，
+ *   因此每leaseMs毫秒最多写一次数据库。重启后所有时钟从上次的租约上限之后开始，系统时钟回拨也不会生成重复或倒退的HLC。
+ * 客户端时钟偏斜由上传接口处理：HLC超前服务器时间超过sync.hlc.max-future-drift-ms的消息直接拒绝，
+ * 其余消息每批只把最大的HLC传给updateWithTimestamp，因此服务器时钟不会被客户端带到未来；各设备的偏差和拒绝次数由HlcSkewStats统计。
+ * 本类不检查传入的HLC，其他直接调用updateWithTimestamp的地方需要先用HlcSkewStats.isTooFarAhead过滤。
  */
+@Slf4j
 @Service
 public class HlcServiceImpl implements HlcService {
 
-    // HLC 通常是 ((物理时间左移) | 逻辑计数器)
-    // 为简单起见，我们将使用一个单独的AtomicLong来粗略地组合这些概念。
-    // 它旨在大致按时间排序且唯一。
-    private final AtomicLong currentHlc = new AtomicLong(System.currentTimeMillis() << 16); // 使用当前时间初始化，左移以便为计数器留出空间
-    private static final int LOGICAL_SHIFT = 16; // 逻辑计数器的位数，实际上允许每毫秒65536个事件。
+    private static final int LOGICAL_SHIFT = 16; // 逻辑部分（计数器和节点ID）的位数
+    private static final long LOGICAL_MASK = (1L << LOGICAL_SHIFT) - 1;
+
+    private final HlcLeaseMapper hlcLeaseMapper;
+    private final TransactionTemplate leaseTransaction;
+    private final int nodeId;
+    private final int nodeIdBits;
+    private final long counterLimit; // 逻辑计数器的上限（不含），nodeIdBits为0时每毫秒允许65536个事件
+    private final long leaseMs;
+
+    private final AtomicLong globalHlc = new AtomicLong();
+    private final Map<Integer, AtomicLong> userHlcs = new ConcurrentHashMap<>();
+    private final Object leaseLock = new Object();
+    private volatile boolean leaseLoaded;
+    private volatile long leaseUntil;
+    private volatile long floorHlc;
+
+    public HlcServiceImpl(HlcLeaseMapper hlcLeaseMapper, SyncProperties syncProperties, PlatformTransactionManager transactionManager) {
+        SyncProperties.Hlc config = syncProperties.getHlc();
+        if (config.getNodeIdBits() < 0 || config.getNodeIdBits() > 8) {
+            throw new IllegalArgumentException("sync.hlc.node-id-bits 必须在0到8之间");
+        }
+        if (config.getNodeId() < 0 || config.getNodeId() >= (1 << config.getNodeIdBits())) {
+            throw new IllegalArgumentException("sync.hlc.node-id 必须在0到2^node-id-bits-1之间");
+        }
+        this.hlcLeaseMapper = hlcLeaseMapper;
+        this.nodeId = config.getNodeId();
+        this.nodeIdBits = config.getNodeIdBits();
+        this.counterLimit = 1L << (LOGICAL_SHIFT - nodeIdBits);
+        this.leaseMs = Math.max(1, config.getLeaseMs());
+        // 续租在独立事务中立即提交，不能随调用方的事务回滚
+        this.leaseTransaction = new TransactionTemplate(transactionManager);
+        this.leaseTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public long now(Integer userId) {
+        AtomicLong clock = clockFor(userId);
+        while (true) {
+            long current = clock.get();
+            long next = tick(current, System.currentTimeMillis());
+            ensureLease(next >>> LOGICAL_SHIFT);
+            // 其他线程先推进了时钟时重新计算，保证每次返回的值都不相同且递增
+            if (clock.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
 
     @Override
-    public synchronized long now(Integer userId) {
-        long physicalTimeMs = System.currentTimeMillis();
-        long lastPhysical = currentHlc.get() >> LOGICAL_SHIFT;
-        long currentLogical = currentHlc.get() & ((1L << LOGICAL_SHIFT) - 1);
+    public long updateWithTimestamp(long receivedHlc, Integer userId) {
+        AtomicLong clock = clockFor(userId);
+        while (true) {
+            long current = clock.get();
+            long next = merge(current, receivedHlc, System.currentTimeMillis());
+            ensureLease(next >>> LOGICAL_SHIFT);
+            if (clock.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private AtomicLong clockFor(Integer userId) {
+        loadLease();
+        if (userId == null) {
+            return globalHlc;
+        }
+        // 新时钟从重启前的高水位之后开始
+        return userHlcs.computeIfAbsent(userId, id -> new AtomicLong(floorHlc));
+    }
+
+    /**
+     * 第一次使用时读取上次的租约上限，之后生成的HLC都大于它
+     */
+    private void loadLease() {
+        if (leaseLoaded) {
+            return;
+        }
+        synchronized (leaseLock) {
+            if (leaseLoaded) {
+                return;
+            }
+            Long stored = hlcLeaseMapper.getLeaseUntil(nodeId);
+            long lease = stored != null ? stored : 0;
+            floorHlc = compose(lease + 1, 0);
+            globalHlc.accumulateAndGet(floorHlc, Math::max);
+            leaseUntil = lease;
+            leaseLoaded = true;
+            log.info("HLC时钟已初始化: 节点 {}，上次的租约上限 {}", nodeId, lease);
+        }
+    }
+
+    /**
+     * 确保物理时间physicalMs在租约范围内，超出时续租并持久化，持久化失败时抛出异常，不返回该HLC
+     */
+    private void ensureLease(long physicalMs) {
+        if (physicalMs <= leaseUntil) {
+            return;
+        }
+        synchronized (leaseLock) {
+            if (physicalMs <= leaseUntil) {
+                return;
+            }
+            long next = physicalMs + leaseMs;
+            leaseTransaction.executeWithoutResult(status -> hlcLeaseMapper.saveLeaseUntil(nodeId, next));
+            leaseUntil = next;
+            log.debug("节点 {} 的HLC租约延长到 {}", nodeId, next);
+        }
+    }
+
+    private long compose(long physical, long counter) {
+        return (physical << LOGICAL_SHIFT) | (counter << nodeIdBits) | nodeId;
+    }
+
+    private long counterOf(long hlc) {
+        return (hlc & LOGICAL_MASK) >>> nodeIdBits;
+    }
+
+    /**
+     * 根据当前时钟值和物理时间计算下一个本地事件的HLC
+     */
+    private long tick(long currentHlc, long physicalTimeMs) {
+        long lastPhysical = currentHlc >>> LOGICAL_SHIFT;
+        long currentCounter = counterOf(currentHlc);
 
         long nextPhysical;
-        long nextLogical;
+        long nextCounter;
 
         if (physicalTimeMs > lastPhysical) {
             nextPhysical = physicalTimeMs;
-            nextLogical = 0;
+            nextCounter = 0;
         } else {
             // 物理时间相同或已倒退（时钟偏斜），增加逻辑部分
             nextPhysical = lastPhysical;
-            nextLogical = currentLogical + 1;
-            if (nextLogical >= (1L << LOGICAL_SHIFT)) {
+            nextCounter = currentCounter + 1;
+            if (nextCounter >= counterLimit) {
                 // 逻辑计数器溢出，必须推进物理时间组件
                 // 这种情况在有足够逻辑位的情况下很少见，但表明事件发生率非常高或时钟显著倒退。
                 // 对于这个简单实现，我们只是将其物理部分从先前的值增加1毫秒。
                 nextPhysical = lastPhysical + 1;
-                nextLogical = 0;
-                // 在真实系统中记录警告：HLC逻辑部分溢出。
+                nextCounter = 0;
             }
         }
-        long newHlc = (nextPhysical << LOGICAL_SHIFT) | nextLogical;
-        currentHlc.set(newHlc);
-        return newHlc;
+        return compose(nextPhysical, nextCounter);
     }
 
-    @Override
-    public synchronized long updateWithTimestamp(long receivedHlc, Integer userId) {
-        long physicalTimeMs = System.currentTimeMillis();
-        long currentServerHlc = currentHlc.get();
-
-        long receivedPhysical = receivedHlc >> LOGICAL_SHIFT;
-        // long receivedLogical = receivedHlc & ((1L << LOGICAL_SHIFT) - 1); // 收到的逻辑部分
+    /**
+     * 根据当前时钟值、收到的HLC和物理时间计算合并后的HLC
+     */
+    private long merge(long currentServerHlc, long receivedHlc, long physicalTimeMs) {
+        long receivedPhysical = receivedHlc >>> LOGICAL_SHIFT;
+        long receivedCounter = counterOf(receivedHlc);
 
-        long serverPhysical = currentServerHlc >> LOGICAL_SHIFT;
-        long serverLogical = currentServerHlc & ((1L << LOGICAL_SHIFT) - 1);
+        long serverPhysical = currentServerHlc >>> LOGICAL_SHIFT;
+        long serverCounter = counterOf(currentServerHlc);
 
         long nextPhysical;
-        long nextLogical;
+        long nextCounter;
 
         // 首先比较物理部分，如果物理部分相等，则考虑逻辑部分。
         // 主要思想：如果收到的HLC遥遥领先，服务器时钟应该跳跃。
@@ -72,36 +195,28 @@ public class HlcServiceImpl implements HlcService {
         if (physicalTimeMs > serverPhysical && physicalTimeMs > receivedPhysical) {
             // 当前物理时间是最新的
             nextPhysical = physicalTimeMs;
-            nextLogical = 0;
+            nextCounter = 0;
         } else if (receivedPhysical > serverPhysical) {
             // 收到的HLC的物理部分更大
             nextPhysical = receivedPhysical;
-            // 当从消息中采用未来的物理时间时，将逻辑部分重置为0或酌情使用消息的逻辑部分。
-            // 对于Synk，它通常基于消息的时间戳，因此我们采用其逻辑部分。
-            nextLogical = receivedHlc & ((1L << LOGICAL_SHIFT) - 1); 
+            // 当从消息中采用未来的物理时间时，沿用消息的逻辑计数器。
+            // 换成本节点的ID后如果比收到的HLC小，计数器再加一，保证不小于收到的HLC。
+            nextCounter = compose(receivedPhysical, receivedCounter) < receivedHlc ? receivedCounter + 1 : receivedCounter;
         } else if (serverPhysical > receivedPhysical) {
-            // 服务器的物理部分更大，只需确保在physicalTimeMs与serverPhysical相同时逻辑部分递增
-            if (physicalTimeMs == serverPhysical) {
-                nextPhysical = serverPhysical;
-                nextLogical = serverLogical + 1;
-            } else { // physicalTimeMs < serverPhysical (时钟倒退)
-                nextPhysical = serverPhysical; // 保留服务器较高的物理时间
-                nextLogical = serverLogical + 1; // 增加逻辑部分
-            }
+            // 服务器的物理部分更大（包括时钟倒退的情况），保留服务器较高的物理时间并增加逻辑部分
+            nextPhysical = serverPhysical;
+            nextCounter = serverCounter + 1;
         } else { // serverPhysical == receivedPhysical (服务器物理时间等于接收到的物理时间)
             nextPhysical = serverPhysical; // 或 receivedPhysical，它们是相同的
-            long maxLogical = Math.max(serverLogical, receivedHlc & ((1L << LOGICAL_SHIFT) - 1));
-            nextLogical = maxLogical + 1;
+            nextCounter = Math.max(serverCounter, receivedCounter) + 1;
         }
-        
+
         // 如果我们增加了逻辑部分，检查逻辑溢出
-        if (nextLogical >= (1L << LOGICAL_SHIFT)) {
+        if (nextCounter >= counterLimit) {
             nextPhysical++; // 增加物理部分
-            nextLogical = 0; // 重置逻辑部分
+            nextCounter = 0; // 重置逻辑部分
         }
 
-        long newHlc = (nextPhysical << LOGICAL_SHIFT) | nextLogical;
-        currentHlc.set(newHlc);
-        return newHlc;
+        return compose(nextPhysical, nextCounter);
     }
-} 
\ No newline at end of file
+}
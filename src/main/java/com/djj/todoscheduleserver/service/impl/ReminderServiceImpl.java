@@ -9,17 +9,19 @@ import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
 import com.djj.todoscheduleserver.service.HlcService;
 import com.djj.todoscheduleserver.service.ReminderService;
 import com.djj.todoscheduleserver.service.WechatService;
+import com.djj.todoscheduleserver.utils.Constants.EntityType;
 import com.djj.todoscheduleserver.utils.Constants.ScheduleType;
+import com.djj.todoscheduleserver.utils.SyncMessagePublisher;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -46,15 +48,18 @@ public class ReminderServiceImpl implements ReminderService {
     @Autowired
     private CourseMapper courseMapper;
     
-    @Autowired
-    private SyncMessageMapper syncMessageMapper;
-    
     @Autowired
     private ObjectMapper objectMapper;
     
     @Autowired
     private HlcService hlcService;
     
+    @Autowired
+    private SyncMessagePublisher syncMessagePublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
     @Value("${task.reminder.minutes-before:15}")
     private int minutesBefore; // 提前多少分钟提醒
     
@@ -63,10 +68,11 @@ public class ReminderServiceImpl implements ReminderService {
 
     /**
      * 每分钟运行一次，检查即将开始的任务
+     * 微信消息在事务之外发送；发送成功后每个时间段各自开启一个短事务标记已通知并写入同步消息，
+     * 分配序号时锁定的用户计数行不会在等待微信接口期间一直被持有，一个时间段出错也只回滚该时间段
      */
     @Scheduled(fixedRate = REMINDER_CHECK_INTERVAL_MS) // 每分钟检查一次
     @Override
-    @Transactional
     public void checkAndSendReminders() {
         long currentTimeMillis = System.currentTimeMillis();
         // getUpcomingReminders 查询已经考虑了 (start_time - reminder_offset)
@@ -125,38 +131,10 @@ public class ReminderServiceImpl implements ReminderService {
 
         if (sent) {
             log.info("已为TimeSlot CRDTKey: {} 发送提醒", timeSlot.getCrdtKey());
-            // 标记为已通知，并为此更改生成CRDT消息
+            // 标记为已通知，并为此更改生成CRDT消息；两者在同一个短事务中完成，出错时一起回滚
             try {
-                long newHlc = hlcService.now(user.getId());
-                // 更新本地状态
-                timeSlotMapper.updateNotificationStatusCrdt(user.getId(), timeSlot.getCrdtKey(), true, newHlc);
-                
-                // 创建CRDT消息
-                timeSlot.setIsNotified(true);
-                timeSlot.setHlcTimestamp(newHlc);
-                
-                // 生成CRDT消息
-                try {
-                    // 创建消息数据
-                    String messageData = objectMapper.writeValueAsString(timeSlot);
-                    
-                    // 创建同步消息
-                    SyncMessage syncMessage = new SyncMessage();
-                    syncMessage.setUserId(user.getId());
-                    syncMessage.setEntityType("TimeSlot");
-                    syncMessage.setCrdtKey(timeSlot.getCrdtKey());
-                    syncMessage.setMessageData(messageData);
-                    syncMessage.setHlcTimestamp(newHlc);
-                    syncMessage.setOriginDeviceId("server-reminder");
-                    syncMessage.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-                    
-                    // 存储消息（由于服务器是纯中继，不再处理消息内容）
-                    syncMessageMapper.insert(syncMessage);
-                    
-                    log.info("已为TimeSlot CRDTKey {} 的通知状态更新生成并存储CRDT消息。", timeSlot.getCrdtKey());
-                } catch (Exception e) {
-                    log.error("创建TimeSlot通知CRDT消息时出错: {}", e.getMessage(), e);
-                }
+                transactionTemplate.executeWithoutResult(status -> markNotified(user, timeSlot));
+                log.info("已为TimeSlot CRDTKey {} 的通知状态更新生成并存储CRDT消息。", timeSlot.getCrdtKey());
             } catch (Exception e) {
                 log.error("更新TimeSlot CRDTKey {} 的通知状态或生成CRDT消息时出错: {}", timeSlot.getCrdtKey(), e.getMessage(), e);
             }
@@ -164,6 +142,42 @@ public class ReminderServiceImpl implements ReminderService {
             log.error("未能为TimeSlot CRDTKey: {} 发送微信提醒", timeSlot.getCrdtKey());
         }
     }
+
+    /**
+     * 把时间段标记为已通知并写入对应的同步消息，必须在事务中调用
+     */
+    private void markNotified(User user, TimeSlot timeSlot) {
+        long newHlc = hlcService.now(user.getId());
+        // 更新本地状态
+        timeSlotMapper.updateNotificationStatusCrdt(user.getId(), timeSlot.getCrdtKey(), true, newHlc);
+
+        // 创建CRDT消息
+        timeSlot.setIsNotified(true);
+        timeSlot.setHlcTimestamp(newHlc);
+
+        // 创建消息数据
+        String messageData;
+        try {
+            messageData = objectMapper.writeValueAsString(timeSlot);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化TimeSlot失败", e);
+        }
+
+        // 创建同步消息
+        SyncMessage syncMessage = new SyncMessage();
+        syncMessage.setUserId(user.getId());
+        syncMessage.setEntityType(EntityType.TIME_SLOT);
+        syncMessage.setCrdtKey(timeSlot.getCrdtKey());
+        syncMessage.setMessageData(messageData);
+        syncMessage.setHlcTimestamp(newHlc);
+        syncMessage.setOriginDeviceId("server-reminder");
+        syncMessage.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        // 本地状态已在上面更新，无需再由后台物化任务投影
+        syncMessage.setProjected(true);
+
+        // 存储消息（由于服务器是纯中继，不再处理消息内容），提交后唤醒该用户正在等待变更的设备
+        syncMessagePublisher.insertAndPublish(syncMessage);
+    }
     
     /**
      * 获取任务标题
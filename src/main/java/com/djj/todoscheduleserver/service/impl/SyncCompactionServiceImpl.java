@@ -0,0 +1,125 @@
+package com.djj.todoscheduleserver.service.impl;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.DeviceMapper;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncWatermark;
+import com.djj.todoscheduleserver.service.SyncCompactionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 同步消息日志压缩服务实现类
+ * 水位线取用户活跃设备last_sync_hlc_timestamp的最小值，水位线以内的消息已被每台活跃设备确认过。
+ * 长时间没有确认新消息的设备视为过期，不再计入水位线，避免一台废弃的设备让该用户的消息永远无法删除。
+ * 对水位线以内的每个(entity_type, crdt_key)只保留HLC最大的一条消息，DELETE消息作为墓碑同样保留，
+ * 并且只有取代它的消息已经投影到业务表后，旧消息才会被删除。
+ * 按最后写入者胜出的规则，任何设备（包括过期后重新上线的设备）从任意位置同步，得到的最终状态与回放完整日志相同；
+ * 水位线之后的消息不受影响。
+ */
+@Slf4j
+@Service
+public class SyncCompactionServiceImpl implements SyncCompactionService {
+
+    private final SyncMessageMapper syncMessageMapper;
+    private final DeviceMapper deviceMapper;
+    private final SyncProperties syncProperties;
+    private final AtomicLong totalRowsReclaimed = new AtomicLong();
+
+    public SyncCompactionServiceImpl(SyncMessageMapper syncMessageMapper,
+                                     DeviceMapper deviceMapper,
+                                     SyncProperties syncProperties) {
+        this.syncMessageMapper = syncMessageMapper;
+        this.deviceMapper = deviceMapper;
+        this.syncProperties = syncProperties;
+    }
+
+    /**
+     * 定时压缩消息日志
+     */
+    @Scheduled(initialDelayString = "${sync.compaction.interval-ms:600000}", fixedDelayString = "${sync.compaction.interval-ms:600000}")
+    public void scheduledCompact() {
+        if (!syncProperties.getCompaction().isEnabled()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("压缩同步消息日志失败，将在下次执行时重试: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int compact() {
+        long start = System.currentTimeMillis();
+        int budget = Math.max(1, syncProperties.getCompaction().getMaxRowsPerRun());
+        int reclaimed = 0;
+        int users = 0;
+        long inactiveMillis = syncProperties.getCompaction().getDeviceInactiveDays() * 24L * 60 * 60 * 1000;
+        Timestamp activeSince = new Timestamp(start - inactiveMillis);
+        int inactiveDevices = deviceMapper.countInactiveDevices(activeSince);
+        if (inactiveDevices > 0) {
+            log.info("{} 台设备超过 {} 天没有同步，已不再计入水位线", inactiveDevices, syncProperties.getCompaction().getDeviceInactiveDays());
+        }
+        for (SyncWatermark watermark : deviceMapper.getSyncWatermarks(activeSince)) {
+            if (reclaimed >= budget) {
+                log.info("本轮压缩已达到 {} 条的上限，剩余的消息留到下一轮", budget);
+                break;
+            }
+            int userReclaimed = compactUser(watermark.getUserId(), watermark.getHlcTimestamp(), budget - reclaimed);
+            if (userReclaimed > 0) {
+                users++;
+                reclaimed += userReclaimed;
+            }
+        }
+        log.info("同步消息日志压缩完成: 本轮删除 {} 条消息（涉及 {} 个用户），耗时 {} ms，累计删除 {} 条",
+                reclaimed, users, System.currentTimeMillis() - start, totalRowsReclaimed.get());
+        return reclaimed;
+    }
+
+    @Override
+    public int compactUser(Integer userId, long watermark, int maxRows) {
+        SyncProperties.Compaction config = syncProperties.getCompaction();
+        int batchSize = Math.max(1, config.getBatchSize());
+        int reclaimed = 0;
+        while (reclaimed < maxRows && !Thread.currentThread().isInterrupted()) {
+            List<Long> ids = syncMessageMapper.findSupersededIds(userId, watermark, Math.min(batchSize, maxRows - reclaimed));
+            if (ids.isEmpty()) {
+                break;
+            }
+            // 每批单独提交，避免长事务和大范围锁
+            int deleted = syncMessageMapper.deleteByIds(ids, watermark);
+            reclaimed += deleted;
+            totalRowsReclaimed.addAndGet(deleted);
+            if (ids.size() < batchSize) {
+                break;
+            }
+            pause(config.getPauseMs());
+        }
+        if (reclaimed > 0) {
+            log.debug("用户 {} 在水位线 {} 以内删除了 {} 条被取代的消息", userId, watermark, reclaimed);
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public long getTotalRowsReclaimed() {
+        return totalRowsReclaimed.get();
+    }
+
+    private void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.djj.todoscheduleserver.service.impl;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.service.SyncMaterializerService;
+import com.djj.todoscheduleserver.utils.SyncEnvelopeParser;
+import com.djj.todoscheduleserver.utils.SyncProjectorRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 同步消息物化服务实现类
+ * 上传接口只提交原始sync_message记录，由本服务在后台将其投影到业务表。
+ * 每条消息的投影状态保存在sync_message.projected中，重启后从未投影的消息继续处理；
+ * 与单一的最大ID游标不同，它不会漏掉ID较小但提交较晚的消息。
+ * 投影出错的消息保持未投影状态并在之后的轮询中重试，连续失败达到上限后才跳过；只有无法解析的消息会被直接跳过。
+ */
+@Slf4j
+@Service
+public class SyncMaterializerServiceImpl implements SyncMaterializerService {
+
+    private final SyncMessageMapper syncMessageMapper;
+    private final SyncEnvelopeParser syncEnvelopeParser;
+    private final SyncProjectorRegistry syncProjectorRegistry;
+    private final SyncProperties syncProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService[] partitions;
+
+    public SyncMaterializerServiceImpl(SyncMessageMapper syncMessageMapper,
+                                       SyncEnvelopeParser syncEnvelopeParser,
+                                       SyncProjectorRegistry syncProjectorRegistry,
+                                       SyncProperties syncProperties,
+                                       PlatformTransactionManager transactionManager) {
+        this.syncMessageMapper = syncMessageMapper;
+        this.syncEnvelopeParser = syncEnvelopeParser;
+        this.syncProjectorRegistry = syncProjectorRegistry;
+        this.syncProperties = syncProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        // 每个分区是一个单线程执行器，保证同一用户的消息串行、按顺序投影
+        int partitionCount = Math.max(1, syncProperties.getMaterializer().getPartitions());
+        this.partitions = new ExecutorService[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            String threadName = "sync-materializer-" + i;
+            this.partitions[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, threadName));
+        }
+    }
+
+    /**
+     * 定时投影新提交的消息
+     */
+    @Scheduled(fixedDelayString = "${sync.materializer.poll-interval-ms:500}")
+    public void scheduledMaterialize() {
+        if (!syncProperties.getMaterializer().isEnabled()) {
+            return;
+        }
+        try {
+            materializePendingMessages();
+        } catch (Exception e) {
+            log.error("投影同步消息失败，将在下次轮询时重试: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int materializePendingMessages() {
+        int batchSize = Math.max(1, syncProperties.getMaterializer().getBatchSize());
+        int total = 0;
+        List<SyncMessage> pending;
+        do {
+            pending = syncMessageMapper.getPendingProjection(batchSize);
+            if (pending.isEmpty()) {
+                break;
+            }
+            materializeBatch(pending);
+            total += pending.size();
+        } while (pending.size() == batchSize);
+
+        if (total > 0) {
+            log.debug("本轮共投影 {} 条同步消息", total);
+        }
+        return total;
+    }
+
+    /**
+     * 按用户分区并行投影一批消息，等待整批完成后返回
+     */
+    private void materializeBatch(List<SyncMessage> batch) {
+        Map<Integer, List<SyncMessage>> byUser = new LinkedHashMap<>();
+        for (SyncMessage message : batch) {
+            byUser.computeIfAbsent(message.getUserId(), k -> new ArrayList<>()).add(message);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(byUser.size());
+        for (Map.Entry<Integer, List<SyncMessage>> entry : byUser.entrySet()) {
+            ExecutorService partition = partitions[Math.floorMod(entry.getKey(), partitions.length)];
+            futures.add(CompletableFuture.runAsync(() -> materializeUserMessages(entry.getKey(), entry.getValue()), partition));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * 按HLC顺序投影同一用户的消息，投影结果与投影状态在同一事务中提交
+     * 投影出错时整批回滚，再逐条在各自的事务中重试，只有出错的消息保持未投影状态，下次轮询时再试
+     */
+    private void materializeUserMessages(Integer userId, List<SyncMessage> messages) {
+        messages.sort(Comparator.comparing(SyncMessage::getHlcTimestamp).thenComparing(SyncMessage::getId));
+        try {
+            transactionTemplate.executeWithoutResult(status -> projectAndMark(userId, messages));
+            return;
+        } catch (RuntimeException e) {
+            if (isTransient(e)) {
+                throw e;
+            }
+            log.warn("用户 {} 的 {} 条同步消息投影失败，逐条重试: {}", userId, messages.size(), e.getMessage());
+        }
+        // 业务表按HLC做LWW，某条消息推迟投影不会让它覆盖之后投影的更新的版本
+        for (SyncMessage message : messages) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> projectAndMark(userId, List.of(message)));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                recordFailure(userId, message, e);
+            }
+        }
+    }
+
+    /**
+     * 投影消息并标记为已投影，投影抛出的异常会回滚整个事务
+     */
+    private void projectAndMark(Integer userId, List<SyncMessage> messages) {
+        List<Long> ids = new ArrayList<>(messages.size());
+        for (SyncMessage message : messages) {
+            SyncEnvelope envelope = null;
+            try {
+                envelope = syncEnvelopeParser.parse(message);
+            } catch (JsonProcessingException e) {
+                // 无法解析的消息重试也不会成功，直接跳过，避免阻塞后续消息
+                log.error("用户 {} 的同步消息 {} 无法解析，跳过投影: {}", userId, message.getId(), e.getOriginalMessage());
+            }
+            if (envelope != null) {
+                syncProjectorRegistry.project(message.getEntityType(), envelope);
+            }
+            ids.add(message.getId());
+        }
+        // 消息已按HLC排序，首尾即HLC范围
+        syncMessageMapper.markProjected(ids, messages.get(0).getHlcTimestamp(), messages.get(messages.size() - 1).getHlcTimestamp());
+    }
+
+    /**
+     * 记录单条消息的投影失败，失败次数达到上限后该消息不再重试
+     */
+    private void recordFailure(Integer userId, SyncMessage message, RuntimeException e) {
+        int maxAttempts = Math.max(1, syncProperties.getMaterializer().getMaxAttempts());
+        syncMessageMapper.recordProjectionFailure(message.getId(), message.getHlcTimestamp(), maxAttempts);
+        int attempts = (message.getProjectionAttempts() != null ? message.getProjectionAttempts() : 0) + 1;
+        if (attempts >= maxAttempts) {
+            log.error("用户 {} 的同步消息 {} 已连续投影失败 {} 次，不再重试", userId, message.getId(), attempts, e);
+        } else {
+            log.warn("用户 {} 的同步消息 {} 第 {} 次投影失败，将在下次轮询时重试: {}", userId, message.getId(), attempts, e.getMessage());
+        }
+    }
+
+    /**
+     * 数据库不可用、死锁、锁等待超时等暂时性错误不归咎于消息本身，不计入失败次数，直接等待下次轮询
+     */
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService partition : partitions) {
+            partition.shutdown();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.djj.todoscheduleserver.service.impl;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.DeviceMapper;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncPartition;
+import com.djj.todoscheduleserver.service.SyncPartitionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 同步消息表分区维护服务实现类
+ * 分区pYYYYMM保存该月（UTC）的消息，上界为下个月1日0点对应的HLC（物理毫秒左移16位），pmax兜底。
+ * 新分区从pmax中拆分，pmax通常为空，只修改元数据；旧分区通过交换分区或删除分区移出，同样与分区中的行数无关。
+ * 移出分区后，这部分消息只保留在业务表中。移出前把分区中每个用户的最大HLC和序号记为该用户的保留下限，
+ * 下载起点低于保留下限的请求返回410，客户端通过快照接口重新同步。
+ */
+@Slf4j
+@Service
+public class SyncPartitionServiceImpl implements SyncPartitionService {
+
+    private static final int LOGICAL_SHIFT = 16;
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    private final SyncMessageMapper syncMessageMapper;
+    private final DeviceMapper deviceMapper;
+    private final SyncProperties syncProperties;
+
+    public SyncPartitionServiceImpl(SyncMessageMapper syncMessageMapper,
+                                    DeviceMapper deviceMapper,
+                                    SyncProperties syncProperties) {
+        this.syncMessageMapper = syncMessageMapper;
+        this.deviceMapper = deviceMapper;
+        this.syncProperties = syncProperties;
+    }
+
+    /**
+     * 定时维护分区，启动后立即执行一次
+     */
+    @Scheduled(fixedDelayString = "${sync.partition.interval-ms:86400000}")
+    public void scheduledMaintain() {
+        if (!syncProperties.getPartition().isEnabled()) {
+            return;
+        }
+        try {
+            ensureFuturePartitions();
+            removeExpiredPartitions();
+        } catch (Exception e) {
+            log.error("维护同步消息分区失败，将在下次执行时重试: {}", e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int ensureFuturePartitions() {
+        List<SyncPartition> partitions = syncMessageMapper.listPartitions();
+        if (partitions.isEmpty()) {
+            log.debug("sync_message未分区，跳过分区维护");
+            return 0;
+        }
+        Long lastBound = partitions.stream()
+                .map(SyncPartition::getUpperBound)
+                .filter(Objects::nonNull)
+                .max(Long::compare)
+                .orElse(null);
+        if (lastBound == null) {
+            log.warn("sync_message只有MAXVALUE分区，无法确定按月分区的起点，跳过分区维护");
+            return 0;
+        }
+        YearMonth target = YearMonth.now(ZoneOffset.UTC).plusMonths(Math.max(0, syncProperties.getPartition().getMonthsAhead()));
+        int created = 0;
+        YearMonth month = toMonth(lastBound);
+        while (!month.isAfter(target)) {
+            String name = month.format(PARTITION_NAME);
+            long upperBound = toHlc(month.plusMonths(1));
+            syncMessageMapper.addPartition(name, upperBound);
+            log.info("已创建同步消息分区 {}，HLC上界 {}", name, upperBound);
+            created++;
+            month = month.plusMonths(1);
+        }
+        return created;
+    }
+
+    @Override
+    public int removeExpiredPartitions() {
+        SyncProperties.Partition config = syncProperties.getPartition();
+        if (config.getRetentionMonths() <= 0) {
+            return 0;
+        }
+        List<SyncPartition> partitions = syncMessageMapper.listPartitions();
+        long cutoff = toHlc(YearMonth.now(ZoneOffset.UTC).minusMonths(config.getRetentionMonths()));
+        long inactiveMillis = syncProperties.getCompaction().getDeviceInactiveDays() * 24L * 60 * 60 * 1000;
+        Long watermark = deviceMapper.getMinSyncWatermark(new Timestamp(System.currentTimeMillis() - inactiveMillis));
+        int removed = 0;
+        // 分区按上界升序排列，遇到第一个不满足条件的分区即停止，保证剩余的消息在HLC上是连续的
+        for (SyncPartition partition : partitions) {
+            Long upperBound = partition.getUpperBound();
+            if (upperBound == null || upperBound > cutoff) {
+                break;
+            }
+            if (watermark != null && upperBound - 1 > watermark) {
+                log.info("分区 {} 中还有活跃设备未确认的消息，暂不移出", partition.getName());
+                break;
+            }
+            if (syncMessageMapper.countUnprojectedBefore(upperBound) > 0) {
+                log.info("分区 {} 中还有未投影的消息，暂不移出", partition.getName());
+                break;
+            }
+            // 先记录保留下限再移出；移出失败时只会让部分设备多做一次快照同步，不会漏掉消息
+            syncMessageMapper.recordRetentionFloor(partition.getName());
+            if (config.isArchive()) {
+                String table = "sync_message_archive_" + partition.getName();
+                syncMessageMapper.createArchiveTable(table);
+                syncMessageMapper.removeArchivePartitioning(table);
+                syncMessageMapper.exchangePartition(partition.getName(), table);
+                log.info("已将同步消息分区 {} 的约 {} 条消息交换到归档表 {}", partition.getName(), partition.getTableRows(), table);
+            }
+            syncMessageMapper.dropPartition(partition.getName());
+            log.info("已删除同步消息分区 {}", partition.getName());
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * 月份（UTC）开始时刻对应的HLC时间戳
+     */
+    static long toHlc(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() << LOGICAL_SHIFT;
+    }
+
+    /**
+     * HLC时间戳所在的月份（UTC）
+     */
+    static YearMonth toMonth(long hlc) {
+        return YearMonth.from(Instant.ofEpochMilli(hlc >>> LOGICAL_SHIFT).atZone(ZoneOffset.UTC));
+    }
+}
@@ -1,26 +1,53 @@
 package com.djj.todoscheduleserver.service.impl;
 
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
 import com.djj.todoscheduleserver.mapper.DeviceMapper;
 import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
 import com.djj.todoscheduleserver.pojo.User;
 import com.djj.todoscheduleserver.pojo.crdt.Device;
+import com.djj.todoscheduleserver.pojo.crdt.SyncCursor;
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
 import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.pojo.crdt.SyncRetentionFloor;
+import com.djj.todoscheduleserver.pojo.dto.BatchUploadResponseDto;
+import com.djj.todoscheduleserver.pojo.dto.PagedResponseDto;
 import com.djj.todoscheduleserver.service.HlcService;
 import com.djj.todoscheduleserver.service.SyncService;
-import com.djj.todoscheduleserver.service.UserService;
-import com.djj.todoscheduleserver.utils.OrdinaryScheduleParserUtil;
-import com.djj.todoscheduleserver.utils.TimeSlotParserUtil;
+import com.djj.todoscheduleserver.utils.HlcSkewStats;
+import com.djj.todoscheduleserver.utils.RecentMessageFilter;
+import com.djj.todoscheduleserver.utils.SyncEnvelopeParser;
+import com.djj.todoscheduleserver.utils.SyncMessagePublisher;
+import com.djj.todoscheduleserver.utils.SyncMessageTailCache;
+import com.djj.todoscheduleserver.utils.SyncSequenceAllocator;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 数据同步服务实现类
@@ -30,62 +57,404 @@ import java.util.List;
 @Service
 public class SyncServiceImpl implements SyncService {
 
+    private static final String STATUS_SUCCESS = "success";
+    private static final String STATUS_FAILURE = "failure";
+    private static final String STATUS_DUPLICATE = "duplicate";
+    private static final int STREAM_FLUSH_INTERVAL = 100;
+
     @Autowired
     private SyncMessageMapper syncMessageMapper;
 
     @Autowired
     private DeviceMapper deviceMapper;
     
-    @Autowired
-    private ObjectMapper objectMapper;
-    
     @Autowired
     private HlcService hlcService;
     
     @Autowired
-    private UserService userService;
+    private SyncProperties syncProperties;
+
+    @Autowired
+    private SyncEnvelopeParser syncEnvelopeParser;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RecentMessageFilter recentMessageFilter;
 
     @Autowired
-    private OrdinaryScheduleParserUtil ordinaryScheduleParserUtil;
+    private SyncMessageTailCache syncMessageTailCache;
 
     @Autowired
-    private TimeSlotParserUtil timeSlotParserUtil;
+    private SyncMessagePublisher syncMessagePublisher;
+
+    @Autowired
+    private SyncSequenceAllocator syncSequenceAllocator;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private HlcSkewStats hlcSkewStats;
     
     @Override
     @Transactional
-    public void storeClientMessages(User user, String deviceId, String entityType, List<String> messages) {
+    public BatchUploadResponseDto storeClientMessages(User user, String deviceId, String entityType, List<String> messages) {
         log.info("用户 {} 来自设备 {}: 为实体类型 {} 存储 {} 条消息", user.getId(), deviceId, entityType, messages.size());
-        
+
+        // 每条上传消息对应一个处理结果，顺序与上传顺序一致
+        List<BatchUploadResponseDto.MessageResult> results = new ArrayList<>(messages.size());
+        List<SyncMessage> pending = new ArrayList<>(messages.size());
+        List<BatchUploadResponseDto.MessageResult> pendingResults = new ArrayList<>(messages.size());
+
         for (String msgData : messages) {
+            BatchUploadResponseDto.MessageResult result = new BatchUploadResponseDto.MessageResult();
+            results.add(result);
             try {
-                JsonNode rootNode = objectMapper.readTree(msgData);
-                long hlc = rootNode.path("hlcTimestamp").asLong(); // 假设Synk消息将'timestamp'作为HLC
-                String key = rootNode.path("crdt_key").asText();
-                // 尝试兼容旧版本客户端，如果crdtKey不存在，则尝试读取key字段
-                if (key == null || key.isEmpty()) {
-                    key = rootNode.path("key").asText();
+                // 每条消息只解析一次，解析结果供存储和投影共同使用
+                SyncEnvelope envelope = syncEnvelopeParser.parse(msgData);
+                result.setCrdtKey(envelope.getCrdtKey());
+                checkClockDrift(envelope, deviceId);
+                attachMessage(envelope, user, deviceId, entityType, msgData);
+
+                pending.add(envelope.getMessage());
+                pendingResults.add(result);
+            } catch (JsonProcessingException e) {
+                log.error("解析来自设备 {} 的CRDT消息失败: {}", deviceId, msgData, e);
+                result.setStatus(STATUS_FAILURE);
+                result.setMessage("消息不是有效的JSON: " + e.getOriginalMessage());
+            } catch (IllegalArgumentException e) {
+                result.setStatus(STATUS_FAILURE);
+                result.setMessage(e.getMessage());
+            }
+        }
+
+        // 按配置的批大小分批写入，每批只需一次数据库往返
+        // 这里只提交原始消息，投影到业务表由SyncMaterializerService在后台异步完成
+        int batchSize = Math.max(1, syncProperties.getUpload().getBatchSize());
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, pending.size());
+            insertChunk(pending.subList(from, to), pendingResults.subList(from, to));
+        }
+        publishChanges(pending, pendingResults);
+
+        BatchUploadResponseDto response = new BatchUploadResponseDto();
+        response.setMessagesReceived(messages.size());
+        response.setResults(results);
+        // 重复消息已经在之前的上传中保存过，对客户端而言同样是成功
+        response.setSuccess(results.stream().noneMatch(r -> STATUS_FAILURE.equals(r.getStatus())));
+        return response;
+    }
+
+    @Override
+    public BatchUploadResponseDto storeClientMessageStream(User user, String deviceId, String entityType, InputStream body) throws IOException {
+        log.info("用户 {} 来自设备 {}: 开始流式接收实体类型 {} 的消息", user.getId(), deviceId, entityType);
+
+        int batchSize = Math.max(1, syncProperties.getUpload().getBatchSize());
+        // 只保留当前分块和失败结果，内存占用与上传总量无关
+        List<SyncMessage> pending = new ArrayList<>(batchSize);
+        List<BatchUploadResponseDto.MessageResult> pendingResults = new ArrayList<>(batchSize);
+        List<BatchUploadResponseDto.MessageResult> failures = new ArrayList<>();
+        List<BatchUploadResponseDto.ChunkResult> chunks = new ArrayList<>();
+        int received = 0;
+
+        BatchUploadResponseDto response = new BatchUploadResponseDto();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                received++;
+                BatchUploadResponseDto.MessageResult result = new BatchUploadResponseDto.MessageResult();
+                String msgData = null;
+                try {
+                    SyncEnvelope envelope;
+                    if (token == JsonToken.START_OBJECT) {
+                        JsonNode root = objectMapper.readTree(parser);
+                        msgData = objectMapper.writeValueAsString(root);
+                        envelope = syncEnvelopeParser.parse(root);
+                    } else if (token == JsonToken.VALUE_STRING) {
+                        // 兼容普通上传接口的格式：每行是一个JSON字符串
+                        msgData = parser.getText();
+                        envelope = syncEnvelopeParser.parse(msgData);
+                    } else {
+                        parser.skipChildren();
+                        throw new IllegalArgumentException("每行必须是一个JSON对象或JSON字符串");
+                    }
+                    result.setCrdtKey(envelope.getCrdtKey());
+                    checkClockDrift(envelope, deviceId);
+                    attachMessage(envelope, user, deviceId, entityType, msgData);
+                    pending.add(envelope.getMessage());
+                    pendingResults.add(result);
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    if (e instanceof JsonParseException parseException && parseException.getProcessor() == parser) {
+                        // 流本身的语法错误无法定位下一条消息的起点，只能终止读取
+                        throw parseException;
+                    }
+                    log.error("解析来自设备 {} 的第 {} 条CRDT消息失败: {}", deviceId, received, msgData, e);
+                    result.setStatus(STATUS_FAILURE);
+                    result.setMessage("第 " + received + " 条消息无效: " + e.getMessage());
+                    failures.add(result);
                 }
 
-                SyncMessage syncMessage = new SyncMessage();
-                syncMessage.setUserId(user.getId());
-                syncMessage.setEntityType(entityType);
-                syncMessage.setCrdtKey(key);
-                syncMessage.setMessageData(msgData);
-                syncMessage.setHlcTimestamp(hlc);
-                syncMessage.setOriginDeviceId(deviceId);
-                syncMessage.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-                
+                if (pending.size() >= batchSize) {
+                    chunks.add(flushChunk(chunks.size(), pending, pendingResults, failures));
+                }
+            }
+        } catch (JsonParseException e) {
+            log.error("设备 {} 的流式上传在第 {} 条消息处中断: {}", deviceId, received, e.getOriginalMessage());
+            response.setErrorCode(400);
+            response.setErrorMessage("第 " + received + " 条消息处JSON格式错误，之后的内容未被接收: " + e.getOriginalMessage());
+        }
+
+        // 写入最后一个不满批大小的分块，已读取的消息即使流被中断也会保存
+        if (!pending.isEmpty()) {
+            chunks.add(flushChunk(chunks.size(), pending, pendingResults, failures));
+        }
+
+        log.info("用户 {} 来自设备 {}: 流式接收 {} 条消息，共 {} 个分块，失败 {} 条",
+                user.getId(), deviceId, received, chunks.size(), failures.size());
+        response.setMessagesReceived(received);
+        response.setResults(failures);
+        response.setChunks(chunks);
+        response.setSuccess(failures.isEmpty() && response.getErrorCode() == null);
+        return response;
+    }
+
+    /**
+     * 写入一个分块并清空缓冲区，每个分块在独立的事务中提交
+     */
+    private BatchUploadResponseDto.ChunkResult flushChunk(int chunkIndex, List<SyncMessage> pending,
+                                                          List<BatchUploadResponseDto.MessageResult> pendingResults,
+                                                          List<BatchUploadResponseDto.MessageResult> failures) {
+        // 序号分配与消息写入必须在同一事务中，见SyncSequenceAllocator
+        int stored = transactionTemplate.execute(status -> insertChunk(pending, pendingResults));
+        publishChanges(pending, pendingResults);
+        int duplicates = 0;
+        for (BatchUploadResponseDto.MessageResult result : pendingResults) {
+            if (STATUS_FAILURE.equals(result.getStatus())) {
+                failures.add(result);
+            } else if (STATUS_DUPLICATE.equals(result.getStatus())) {
+                duplicates++;
+            }
+        }
+
+        BatchUploadResponseDto.ChunkResult chunkResult = new BatchUploadResponseDto.ChunkResult();
+        chunkResult.setChunkIndex(chunkIndex);
+        chunkResult.setMessageCount(pending.size());
+        chunkResult.setStoredCount(stored);
+        chunkResult.setDuplicateCount(duplicates);
+        chunkResult.setFailedCount(pending.size() - stored - duplicates);
+        pending.clear();
+        pendingResults.clear();
+        return chunkResult;
+    }
+
+    /**
+     * 拒绝HLC超前服务器时间过多的消息：按最后写入者胜出的规则，这样的消息会一直覆盖其他设备之后的修改
+     *
+     * @throws IllegalArgumentException HLC超前超过sync.hlc.max-future-drift-ms时抛出
+     */
+    private void checkClockDrift(SyncEnvelope envelope, String deviceId) {
+        long now = System.currentTimeMillis();
+        if (hlcSkewStats.isTooFarAhead(envelope.getHlcTimestamp(), now)) {
+            hlcSkewStats.recordRejection(deviceId);
+            long aheadMs = (envelope.getHlcTimestamp() >>> 16) - now;
+            log.warn("设备 {} 的消息 {} 的HLC超前服务器时间 {} ms，拒绝存储", deviceId, envelope.getCrdtKey(), aheadMs);
+            throw new IllegalArgumentException("HLC时间戳超前服务器时间 " + aheadMs + " ms，请校准设备时钟");
+        }
+    }
+
+    /**
+     * 根据解析结果构造待存储的SyncMessage，并挂到envelope上
+     */
+    private void attachMessage(SyncEnvelope envelope, User user, String deviceId, String entityType, String msgData) {
+        SyncMessage syncMessage = new SyncMessage();
+        syncMessage.setUserId(user.getId());
+        syncMessage.setEntityType(entityType);
+        syncMessage.setCrdtKey(envelope.getCrdtKey());
+        syncMessage.setMessageData(msgData);
+        syncMessage.setHlcTimestamp(envelope.getHlcTimestamp());
+        syncMessage.setOriginDeviceId(deviceId);
+        syncMessage.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        envelope.setMessage(syncMessage);
+    }
+
+    /**
+     * 将一批消息写入sync_message表
+     * 先跳过已经存储过的重复消息，再优先使用多行INSERT；若整批失败，则逐条重试以定位并报告具体失败的消息
+     *
+     * @param chunk 待写入的消息，必须属于同一用户
+     * @param chunkResults 与chunk一一对应的处理结果，会在此方法中被填充
+     * @return 实际写入（已回填ID）的消息数
+     */
+    private int insertChunk(List<SyncMessage> chunk, List<BatchUploadResponseDto.MessageResult> chunkResults) {
+        // 布隆过滤器判定"可能写入过"的消息才需要查询数据库，正常上传不会产生额外查询
+        List<SyncMessage> suspects = new ArrayList<>();
+        for (SyncMessage syncMessage : chunk) {
+            if (recentMessageFilter.mightContain(syncMessage)) {
+                suspects.add(syncMessage);
+            }
+        }
+        Map<String, Long> existingIds = findExistingIds(chunk.get(0).getUserId(), suspects);
+
+        List<SyncMessage> fresh = new ArrayList<>(chunk.size());
+        List<BatchUploadResponseDto.MessageResult> freshResults = new ArrayList<>(chunk.size());
+        // 同一次上传中重复出现的消息，与第一次出现的消息共用写入结果
+        Map<String, BatchUploadResponseDto.MessageResult> firstOccurrences = new HashMap<>();
+        List<BatchUploadResponseDto.MessageResult> repeats = new ArrayList<>();
+        List<BatchUploadResponseDto.MessageResult> repeatedFirsts = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            SyncMessage syncMessage = chunk.get(i);
+            BatchUploadResponseDto.MessageResult result = chunkResults.get(i);
+            String dedupKey = dedupKey(syncMessage);
+            Long existingId = existingIds.get(dedupKey);
+            if (existingId != null) {
+                markDuplicate(result, existingId);
+                continue;
+            }
+            BatchUploadResponseDto.MessageResult first = firstOccurrences.putIfAbsent(dedupKey, result);
+            if (first != null) {
+                repeats.add(result);
+                repeatedFirsts.add(first);
+                continue;
+            }
+            fresh.add(syncMessage);
+            freshResults.add(result);
+        }
+
+        int stored = fresh.isEmpty() ? 0 : insertFresh(fresh, freshResults);
+        for (int i = 0; i < repeats.size(); i++) {
+            BatchUploadResponseDto.MessageResult first = repeatedFirsts.get(i);
+            if (STATUS_FAILURE.equals(first.getStatus())) {
+                repeats.get(i).setStatus(STATUS_FAILURE);
+                repeats.get(i).setMessage(first.getMessage());
+            } else {
+                markDuplicate(repeats.get(i), first.getMessageId());
+            }
+        }
+        return stored;
+    }
+
+    private int insertFresh(List<SyncMessage> fresh, List<BatchUploadResponseDto.MessageResult> freshResults) {
+        // 逐条重试时沿用已分配的序号，写入失败的消息留下的空号不影响按序号续传
+        syncSequenceAllocator.assign(fresh.get(0).getUserId(), fresh);
+        try {
+            syncMessageMapper.insertBatch(fresh);
+            for (int i = 0; i < fresh.size(); i++) {
+                markSuccess(freshResults.get(i), fresh.get(i));
+            }
+            return fresh.size();
+        } catch (DataAccessException e) {
+            log.warn("批量写入 {} 条消息失败，改为逐条写入以定位失败消息: {}", fresh.size(), e.getMessage());
+        }
+
+        int stored = 0;
+        for (int i = 0; i < fresh.size(); i++) {
+            SyncMessage syncMessage = fresh.get(i);
+            BatchUploadResponseDto.MessageResult result = freshResults.get(i);
+            try {
                 syncMessageMapper.insert(syncMessage);
+                markSuccess(result, syncMessage);
+                stored++;
+            } catch (DuplicateKeyException e) {
+                // 过滤器没有记录到的重复消息（如服务重启后客户端重试），由唯一索引拦截
+                Long existingId = findExistingIds(syncMessage.getUserId(), List.of(syncMessage)).get(dedupKey(syncMessage));
+                markDuplicate(result, existingId);
+            } catch (DataAccessException e) {
+                log.error("写入CRDT消息 {} 失败: {}", syncMessage.getCrdtKey(), e.getMessage());
+                result.setStatus(STATUS_FAILURE);
+                result.setMessage("消息存储失败");
+            }
+        }
+        return stored;
+    }
 
-                ordinaryScheduleParserUtil.processSyncMessage(syncMessage);
-                timeSlotParserUtil.processSyncMessage(syncMessage);
+    /**
+     * 查询已存储的相同消息
+     *
+     * @return 去重键到已存储消息ID的映射
+     */
+    private Map<String, Long> findExistingIds(Integer userId, List<SyncMessage> candidates) {
+        if (candidates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> existingIds = new HashMap<>();
+        for (SyncMessage existing : syncMessageMapper.findExisting(userId, candidates)) {
+            existingIds.put(dedupKey(existing), existing.getId());
+        }
+        return existingIds;
+    }
 
+    private String dedupKey(SyncMessage syncMessage) {
+        return syncMessage.getOriginDeviceId() + "\u0000" + syncMessage.getCrdtKey() + "\u0000" + syncMessage.getHlcTimestamp();
+    }
 
-            } catch (JsonProcessingException e) {
-                log.error("解析来自设备 {} 的CRDT消息失败: {}", deviceId, msgData, e);
-                // 可选：存储失败消息记录或通知管理员
+    private void markDuplicate(BatchUploadResponseDto.MessageResult result, Long existingId) {
+        result.setStatus(STATUS_DUPLICATE);
+        result.setMessageId(existingId);
+        result.setMessage("消息已存在，未重复存储");
+    }
+
+    private void markSuccess(BatchUploadResponseDto.MessageResult result, SyncMessage syncMessage) {
+        result.setStatus(STATUS_SUCCESS);
+        result.setMessageId(syncMessage.getId());
+        recentMessageFilter.put(syncMessage);
+    }
+
+    /**
+     * 事务提交后发布本批实际写入的新消息，只有实际写入了新消息才处理
+     * 同时让服务器时钟观察这批消息的HLC，每批只合并一次
+     */
+    private void publishChanges(List<SyncMessage> messages, List<BatchUploadResponseDto.MessageResult> results) {
+        List<SyncMessage> stored = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            SyncMessage message = messages.get(i);
+            if (STATUS_SUCCESS.equals(results.get(i).getStatus()) && message.getHlcTimestamp() != null) {
+                stored.add(message);
+            }
+        }
+        if (stored.isEmpty()) {
+            return;
+        }
+        Integer userId = messages.get(0).getUserId();
+        observeClientClocks(userId, SyncMessagePublisher.latestByOrigin(stored));
+        syncMessagePublisher.publishAfterCommit(userId, stored);
+    }
+
+    /**
+     * 把一批消息中最大的HLC合并到用户的服务器时钟，之后服务器生成的消息（如提醒）排在这些修改之后；并按设备记录时钟偏差
+     * 超前过多的HLC不合并，避免服务器时钟被带到未来
+     *
+     * @param latestByOrigin 来源设备到该设备本批消息最大HLC的映射
+     */
+    private void observeClientClocks(Integer userId, Map<String, Long> latestByOrigin) {
+        long now = System.currentTimeMillis();
+        long latest = Long.MIN_VALUE;
+        for (Map.Entry<String, Long> entry : latestByOrigin.entrySet()) {
+            long hlc = entry.getValue();
+            hlcSkewStats.recordDrift(entry.getKey(), (hlc >>> 16) - now);
+            if (!hlcSkewStats.isTooFarAhead(hlc, now)) {
+                latest = Math.max(latest, hlc);
             }
         }
+        if (latest > 0) {
+            hlcService.updateWithTimestamp(latest, userId);
+        }
+    }
+
+    /**
+     * 客户端从指定位置继续下载，说明该位置及之前的消息都已应用，据此推进设备的确认位置
+     * 只有确认位置前进时才写数据库，重复轮询同一位置不会产生写入
+     */
+    private void acknowledgeImplicitly(Device device, Long ackHlc) {
+        if (ackHlc == null || ackHlc <= 0) {
+            return;
+        }
+        Long current = device.getLastSyncHlcTimestamp();
+        if (current != null && current >= ackHlc) {
+            return;
+        }
+        deviceMapper.advanceLastSyncHlcTimestamp(device.getId(), ackHlc, new Timestamp(System.currentTimeMillis()));
     }
 
     @Override
@@ -99,7 +468,13 @@ public class SyncServiceImpl implements SyncService {
         
         Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
         if (fetchSince == null) fetchSince = 0L; // 初始同步
+        requireRetained(user.getId(), fetchSince, null);
+        acknowledgeImplicitly(device, lastSyncHlcTimestamp);
 
+        List<SyncMessage> cached = syncMessageTailCache.find(user.getId(), null, null, fetchSince);
+        if (cached != null) {
+            return cached;
+        }
         List<SyncMessage> messages = syncMessageMapper.getMessagesAfterTimestamp(user.getId(), fetchSince);
         return messages;
     }
@@ -115,7 +490,13 @@ public class SyncServiceImpl implements SyncService {
         
         Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
         if (fetchSince == null) fetchSince = 0L; // 初始同步
+        requireRetained(user.getId(), fetchSince, null);
+        acknowledgeImplicitly(device, lastSyncHlcTimestamp);
 
+        List<SyncMessage> cached = syncMessageTailCache.find(user.getId(), null, deviceId, fetchSince);
+        if (cached != null) {
+            return cached;
+        }
         return syncMessageMapper.getMessagesAfterTimestampExcludingOriginDevice(user.getId(), deviceId, fetchSince);
     }
     
@@ -130,7 +511,13 @@ public class SyncServiceImpl implements SyncService {
 
         Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
         if (fetchSince == null) fetchSince = 0L; // 初始同步
+        requireRetained(user.getId(), fetchSince, null);
+        acknowledgeImplicitly(device, lastSyncHlcTimestamp);
 
+        List<SyncMessage> cached = syncMessageTailCache.find(user.getId(), entityType, null, fetchSince);
+        if (cached != null) {
+            return cached;
+        }
         List<SyncMessage> messages = syncMessageMapper.getMessagesByEntityTypeAfterTimestamp(user.getId(), entityType, fetchSince);
         return messages;
     }
@@ -146,21 +533,213 @@ public class SyncServiceImpl implements SyncService {
 
         Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
         if (fetchSince == null) fetchSince = 0L; // 初始同步
+        requireRetained(user.getId(), fetchSince, null);
+        acknowledgeImplicitly(device, lastSyncHlcTimestamp);
 
+        List<SyncMessage> cached = syncMessageTailCache.find(user.getId(), entityType, deviceId, fetchSince);
+        if (cached != null) {
+            return cached;
+        }
         return syncMessageMapper.getMessagesByEntityTypeAfterTimestampExcludingOriginDevice(user.getId(), deviceId, entityType, fetchSince);
     }
 
     @Override
-    @Transactional
-    public Device registerDevice(Device device, String authorization) {
-        if (authorization == null || !authorization.startsWith("Bearer ")) {
-            log.warn("授权头部缺失或格式不正确");
+    public PagedResponseDto<SyncMessage> getMessagesPage(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                                         Long lastSyncHlcTimestamp, String cursor, Integer limit, boolean implicitAck) {
+        SyncProperties.Download download = syncProperties.getDownload();
+        int pageSize = limit != null && limit > 0 ? Math.min(limit, download.getMaxPageSize()) : download.getDefaultPageSize();
+
+        PagedResponseDto.PageInfo pageInfo = new PagedResponseDto.PageInfo();
+        pageInfo.setPageSize(pageSize);
+        PagedResponseDto<SyncMessage> page = new PagedResponseDto<>();
+        page.setPagination(pageInfo);
+
+        Device device = deviceMapper.findById(deviceId);
+        if (device == null || !device.getUserId().equals(user.getId())) {
+            log.warn("设备 {} 未找到或不属于用户 {}。返回空页。", deviceId, user.getId());
+            page.setData(new ArrayList<>());
+            return page;
+        }
+
+        SyncCursor start;
+        if (cursor != null && !cursor.isEmpty()) {
+            start = SyncCursor.decode(cursor);
+            // 游标之前的消息客户端都已收到；游标所在HLC可能还有ID更大的消息未收到，只确认到前一个HLC
+            if (implicitAck) {
+                acknowledgeImplicitly(device, start.getId() == Long.MAX_VALUE ? start.getHlcTimestamp() : start.getHlcTimestamp() - 1);
+            }
+        } else {
+            Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
+            start = SyncCursor.after(fetchSince != null ? fetchSince : 0L);
+            if (implicitAck) {
+                acknowledgeImplicitly(device, lastSyncHlcTimestamp);
+            }
+        }
+        requireRetained(user.getId(), start.getHlcTimestamp(), null);
+        log.info("用户 {} 来自设备 {}: 分页获取实体 {} 的消息，游标 ({}, {})，每页 {} 条",
+                user.getId(), deviceId, entityType != null ? entityType : "全部", start.getHlcTimestamp(), start.getId(), pageSize);
+
+        // 多取一条用于判断是否还有下一页
+        List<SyncMessage> messages = syncMessageMapper.getMessagesPage(user.getId(), entityType,
+                excludeOrigin ? deviceId : null, start.getHlcTimestamp(), start.getId(), pageSize + 1);
+        boolean hasMore = messages.size() > pageSize;
+        if (hasMore) {
+            messages = messages.subList(0, pageSize);
+        }
+
+        // 没有新消息时返回原游标，客户端之后可以用它继续拉取
+        SyncCursor next = start;
+        if (!messages.isEmpty()) {
+            SyncMessage last = messages.get(messages.size() - 1);
+            next = new SyncCursor(last.getHlcTimestamp(), last.getId());
+        }
+        pageInfo.setHasMore(hasMore);
+        pageInfo.setNextCursor(next.encode());
+        page.setData(messages);
+        return page;
+    }
+
+    @Override
+    public PagedResponseDto<SyncMessage> getMessagesAfterSeq(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                                             long sinceSeq, Integer limit) {
+        SyncProperties.Download download = syncProperties.getDownload();
+        int pageSize = limit != null && limit > 0 ? Math.min(limit, download.getMaxPageSize()) : download.getDefaultPageSize();
+
+        PagedResponseDto.PageInfo pageInfo = new PagedResponseDto.PageInfo();
+        pageInfo.setPageSize(pageSize);
+        PagedResponseDto<SyncMessage> page = new PagedResponseDto<>();
+        page.setPagination(pageInfo);
+
+        if (getUserDevice(user, deviceId) == null) {
+            log.warn("设备 {} 未找到或不属于用户 {}。返回空页。", deviceId, user.getId());
+            page.setData(new ArrayList<>());
+            return page;
+        }
+        requireRetained(user.getId(), null, sinceSeq);
+        log.info("用户 {} 来自设备 {}: 获取实体 {} 序号 {} 之后的消息，每页 {} 条",
+                user.getId(), deviceId, entityType != null ? entityType : "全部", sinceSeq, pageSize);
+
+        // 多取一条用于判断是否还有下一页
+        List<SyncMessage> messages = syncMessageMapper.getMessagesAfterSeq(user.getId(), entityType,
+                excludeOrigin ? deviceId : null, sinceSeq, pageSize + 1);
+        boolean hasMore = messages.size() > pageSize;
+        if (hasMore) {
+            messages = messages.subList(0, pageSize);
+        }
+        // 没有新消息时返回原序号
+        pageInfo.setNextSeq(messages.isEmpty() ? sinceSeq : messages.get(messages.size() - 1).getSeq());
+        pageInfo.setHasMore(hasMore);
+        page.setData(messages);
+        return page;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public int streamMessagesForDevice(User user, String deviceId, String entityType, boolean excludeOrigin,
+                                       Long lastSyncHlcTimestamp, OutputStream out) throws IOException {
+        Device device = deviceMapper.findById(deviceId);
+        boolean deviceValid = device != null && device.getUserId().equals(user.getId());
+        if (!deviceValid) {
+            log.warn("设备 {} 未找到或不属于用户 {}。返回空列表。", deviceId, user.getId());
+        }
+
+        // 逐条序列化，由这里控制刷新时机，而不是每写一条消息刷新一次
+        ObjectWriter writer = objectMapper.writerFor(SyncMessage.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        int count = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            if (deviceValid) {
+                Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
+                if (fetchSince == null) fetchSince = 0L; // 初始同步
+
+                try (Cursor<SyncMessage> cursor = syncMessageMapper.streamMessagesAfterTimestamp(
+                        user.getId(), entityType, excludeOrigin ? deviceId : null, fetchSince)) {
+                    for (SyncMessage message : cursor) {
+                        writer.writeValue(generator, message);
+                        // 第一条消息立即发出，之后按固定间隔刷新，缩短客户端等待首字节的时间
+                        if (++count == 1 || count % STREAM_FLUSH_INTERVAL == 0) {
+                            generator.flush();
+                        }
+                    }
+                }
+            }
+            generator.writeEndArray();
+        }
+        log.info("用户 {} 来自设备 {}: 流式下载实体 {} 的消息 {} 条", user.getId(), deviceId,
+                entityType != null ? entityType : "全部", count);
+        return count;
+    }
+
+    @Override
+    public void checkRetained(User user, String deviceId, Long lastSyncHlcTimestamp) {
+        Device device = deviceMapper.findById(deviceId);
+        if (device == null || !device.getUserId().equals(user.getId())) {
+            return;
+        }
+        Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
+        requireRetained(user.getId(), fetchSince != null ? fetchSince : 0L, null);
+    }
+
+    /**
+     * 下载起点低于用户的保留下限时，其后的部分消息已随过期分区移出，增量下载会漏掉它们，要求客户端通过快照重新同步
+     *
+     * @param fetchSince 按HLC下载时的起点，按序号下载时为null
+     * @param sinceSeq 按序号下载时的起点，按HLC下载时为null
+     * @throws ApiError 起点低于保留下限时抛出410
+     */
+    private void requireRetained(Integer userId, Long fetchSince, Long sinceSeq) {
+        SyncRetentionFloor floor = syncMessageMapper.getRetentionFloor(userId);
+        if (floor == null) {
+            return;
+        }
+        boolean expired = sinceSeq != null ? sinceSeq < floor.getFloorSeq() : fetchSince < floor.getFloorHlc();
+        if (expired) {
+            log.info("用户 {} 的下载起点 HLC {} / 序号 {} 低于保留下限 ({}, {})，需要通过快照重新同步",
+                    userId, fetchSince, sinceSeq, floor.getFloorHlc(), floor.getFloorSeq());
+            throw new ApiError(HttpStatus.GONE, 4100, "部分历史消息已清理，请通过快照接口重新同步");
+        }
+    }
+
+    @Override
+    public Long getLatestChangeHlc(User user, String deviceId, Long lastSyncHlcTimestamp) {
+        Device device = deviceMapper.findById(deviceId);
+        if (device == null || !device.getUserId().equals(user.getId())) {
+            log.warn("设备 {} 未找到或不属于用户 {}。", deviceId, user.getId());
             return null;
         }
-        String token = authorization.substring(7); // 去掉"Bearer "前缀
-        User user = userService.getUserByToken(token);
+
+        Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
+        if (fetchSince == null) fetchSince = 0L; // 初始同步
+
+        return syncMessageMapper.getLatestHlcExcludingOriginDevice(user.getId(), deviceId, fetchSince);
+    }
+
+    @Override
+    public Device getUserDevice(User user, String deviceId) {
+        Device device = deviceMapper.findById(deviceId);
+        if (device == null || !device.getUserId().equals(user.getId())) {
+            return null;
+        }
+        return device;
+    }
+
+    @Override
+    @Transactional
+    public boolean acknowledge(User user, String deviceId, long hlcTimestamp) {
+        if (getUserDevice(user, deviceId) == null) {
+            log.warn("确认失败，设备 {} 不存在或不属于用户 {}", deviceId, user.getId());
+            return false;
+        }
+        deviceMapper.advanceLastSyncHlcTimestamp(deviceId, hlcTimestamp, new Timestamp(System.currentTimeMillis()));
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public Device registerDevice(Device device, User user) {
         if (user == null) {
-            log.warn("注册设备 {} 失败，无效的用户令牌: {}", device.getId(), token);
+            log.warn("注册设备 {} 失败，用户未登录", device.getId());
             throw new RuntimeException("用户未登录");
         }
 
@@ -186,8 +765,7 @@ public class SyncServiceImpl implements SyncService {
     }
 
     @Override
-    public List<Device> getDevicesByToken(String token) {
-        User user = userService.getUserByToken(token);
+    public List<Device> getDevicesByUser(User user) {
         if (user == null) {
             throw new RuntimeException("用户未登录");
         }
@@ -196,12 +774,11 @@ public class SyncServiceImpl implements SyncService {
 
     @Override
     @Transactional
-    public void processMessages(List<SyncMessage> messages, String token) {
+    public void processMessages(List<SyncMessage> messages, User user) {
         if (messages == null || messages.isEmpty()) {
             return;
         }
 
-        User user = userService.getUserByToken(token);
         if (user == null) {
             throw new RuntimeException("用户未登录");
         }
@@ -209,20 +786,34 @@ public class SyncServiceImpl implements SyncService {
         for (SyncMessage message : messages) {
             message.setUserId(user.getId());
             message.setCreatedAt(new Timestamp(System.currentTimeMillis()));
-            
-            // 存储消息
-            syncMessageMapper.insert(message);
+            // 该接口只做消息中继，不投影到业务表
+            message.setProjected(true);
+        }
+
+        // 分批存储消息，重复提交的消息会被跳过
+        List<BatchUploadResponseDto.MessageResult> results = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            results.add(new BatchUploadResponseDto.MessageResult());
         }
+        int batchSize = Math.max(1, syncProperties.getUpload().getBatchSize());
+        for (int from = 0; from < messages.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, messages.size());
+            insertChunk(messages.subList(from, to), results.subList(from, to));
+        }
+        publishChanges(messages, results);
     }
 
     @Override
-    public List<SyncMessage> getMessagesAfterTimestamp(Long timestamp, String deviceId, String token) {
-        User user = userService.getUserByToken(token);
+    public List<SyncMessage> getMessagesAfterTimestamp(Long timestamp, String deviceId, User user) {
         if (user == null) {
             throw new RuntimeException("用户未登录");
         }
 
-        List<SyncMessage> messages = syncMessageMapper.getMessagesAfterTimestamp(user.getId(), timestamp);
+        requireRetained(user.getId(), timestamp != null ? timestamp : 0L, null);
+        List<SyncMessage> messages = syncMessageTailCache.find(user.getId(), null, null, timestamp);
+        if (messages == null) {
+            messages = syncMessageMapper.getMessagesAfterTimestamp(user.getId(), timestamp);
+        }
         
         // 如果提供了设备ID，更新设备的最后同步时间戳
         if (deviceId != null && !deviceId.isEmpty() && !messages.isEmpty()) {
@@ -231,7 +822,7 @@ public class SyncServiceImpl implements SyncService {
                     .max(Long::compare)
                     .orElse(timestamp);
             
-            updateDeviceLastSyncTimestamp(deviceId, maxTimestamp, token);
+            updateDeviceLastSyncTimestamp(deviceId, maxTimestamp, user);
         }
         
         return messages;
@@ -239,10 +830,9 @@ public class SyncServiceImpl implements SyncService {
 
     @Override
     @Transactional
-    public void updateDeviceLastSyncTimestamp(String deviceId, Long timestamp, String token) {
-        User user = userService.getUserByToken(token);
+    public void updateDeviceLastSyncTimestamp(String deviceId, Long timestamp, User user) {
         if (user == null) {
-            log.warn("更新设备 {} 的最后同步时间戳失败，无效的用户令牌: {}", deviceId, token);
+            log.warn("更新设备 {} 的最后同步时间戳失败，用户未登录", deviceId);
             throw new RuntimeException("用户未登录或令牌无效");
         }
 
@@ -0,0 +1,103 @@
+package com.djj.todoscheduleserver.service.impl;
+
+import com.djj.todoscheduleserver.mapper.CourseMapper;
+import com.djj.todoscheduleserver.mapper.DeviceMapper;
+import com.djj.todoscheduleserver.mapper.OrdinaryScheduleMapper;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.mapper.TimeSlotMapper;
+import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.pojo.crdt.Device;
+import com.djj.todoscheduleserver.pojo.dto.SyncDeltaDto;
+import com.djj.todoscheduleserver.pojo.dto.SyncSnapshotDto;
+import com.djj.todoscheduleserver.service.SyncStateService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+
+/**
+ * 基于业务表的同步服务实现类
+ * 快照和增量都在一个可重复读的只读事务中读取：后台物化任务在同一事务中写入业务表并标记消息已投影，
+ * 因此同一个一致性视图下，所有HLC小于最早未投影消息的消息都已反映在业务表中。
+ */
+@Slf4j
+@Service
+public class SyncStateServiceImpl implements SyncStateService {
+
+    private final SyncMessageMapper syncMessageMapper;
+    private final OrdinaryScheduleMapper ordinaryScheduleMapper;
+    private final TimeSlotMapper timeSlotMapper;
+    private final CourseMapper courseMapper;
+    private final DeviceMapper deviceMapper;
+    private final TransactionTemplate snapshotTransaction;
+
+    public SyncStateServiceImpl(SyncMessageMapper syncMessageMapper,
+                                OrdinaryScheduleMapper ordinaryScheduleMapper,
+                                TimeSlotMapper timeSlotMapper,
+                                CourseMapper courseMapper,
+                                DeviceMapper deviceMapper,
+                                PlatformTransactionManager transactionManager) {
+        this.syncMessageMapper = syncMessageMapper;
+        this.ordinaryScheduleMapper = ordinaryScheduleMapper;
+        this.timeSlotMapper = timeSlotMapper;
+        this.courseMapper = courseMapper;
+        this.deviceMapper = deviceMapper;
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setReadOnly(true);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @Override
+    public SyncSnapshotDto getSnapshot(User user, String deviceId) {
+        Device device = deviceMapper.findById(deviceId);
+        if (device == null || !device.getUserId().equals(user.getId())) {
+            log.warn("设备 {} 未找到或不属于用户 {}。无法生成快照。", deviceId, user.getId());
+            return null;
+        }
+
+        SyncSnapshotDto snapshot = snapshotTransaction.execute(status -> {
+            SyncSnapshotDto dto = new SyncSnapshotDto();
+            dto.setSnapshotHlc(syncMessageMapper.getProjectedHlc(user.getId()));
+            dto.setSnapshotSeq(syncMessageMapper.getProjectedSeq(user.getId()));
+            dto.setOrdinarySchedules(ordinaryScheduleMapper.getAllByUserId(user.getId()));
+            dto.setTimeSlots(timeSlotMapper.getAllByUserId(user.getId()));
+            dto.setCourses(courseMapper.getAllByUserId(user.getId()));
+            return dto;
+        });
+
+        // 设备之后从快照的HLC继续增量同步，同时让压缩任务的水位线不再停留在0
+        deviceMapper.advanceLastSyncHlcTimestamp(deviceId, snapshot.getSnapshotHlc(), new Timestamp(System.currentTimeMillis()));
+        log.info("用户 {} 的设备 {} 获取快照: HLC {}，普通日程 {} 个，时间槽 {} 个，课程 {} 个", user.getId(), deviceId,
+                snapshot.getSnapshotHlc(), snapshot.getOrdinarySchedules().size(), snapshot.getTimeSlots().size(), snapshot.getCourses().size());
+        return snapshot;
+    }
+
+    @Override
+    public SyncDeltaDto getDelta(User user, String deviceId, Long lastSyncHlcTimestamp) {
+        Device device = deviceMapper.findById(deviceId);
+        if (device == null || !device.getUserId().equals(user.getId())) {
+            log.warn("设备 {} 未找到或不属于用户 {}。无法获取增量。", deviceId, user.getId());
+            return null;
+        }
+        Long fetchSince = (lastSyncHlcTimestamp != null) ? lastSyncHlcTimestamp : device.getLastSyncHlcTimestamp();
+        long since = fetchSince != null ? fetchSince : 0L;
+
+        SyncDeltaDto delta = snapshotTransaction.execute(status -> {
+            SyncDeltaDto dto = new SyncDeltaDto();
+            dto.setSinceHlc(since);
+            dto.setNextSinceHlc(Math.max(since, syncMessageMapper.getProjectedHlc(user.getId())));
+            dto.setOrdinarySchedules(ordinaryScheduleMapper.getUpdatedAfterTimestamp(user.getId(), since));
+            dto.setTimeSlots(timeSlotMapper.getUpdatedAfterTimestamp(user.getId(), since));
+            dto.setCourses(courseMapper.getUpdatedAfterTimestamp(user.getId(), since));
+            return dto;
+        });
+
+        deviceMapper.advanceLastSyncHlcTimestamp(deviceId, delta.getNextSinceHlc(), new Timestamp(System.currentTimeMillis()));
+        log.info("用户 {} 的设备 {} 获取自HLC {} 以来的增量: 普通日程 {} 个，时间槽 {} 个，课程 {} 个，下次自HLC {}", user.getId(), deviceId,
+                since, delta.getOrdinarySchedules().size(), delta.getTimeSlots().size(), delta.getCourses().size(), delta.getNextSinceHlc());
+        return delta;
+    }
+}
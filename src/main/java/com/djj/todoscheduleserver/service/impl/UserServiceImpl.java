@@ -1,16 +1,21 @@
 package com.djj.todoscheduleserver.service.impl;
 
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
 import com.djj.todoscheduleserver.mapper.UserMapper;
 import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.pojo.dto.AuthTokenDto;
 import com.djj.todoscheduleserver.service.UserService;
+import com.djj.todoscheduleserver.utils.LoginAttemptLimiter;
+import com.djj.todoscheduleserver.utils.PasswordHasher;
+import com.djj.todoscheduleserver.utils.SignedTokenCodec;
+import com.djj.todoscheduleserver.utils.TokenRevocationList;
+import com.djj.todoscheduleserver.utils.UserTokenCache;
 import lombok.extern.slf4j.Slf4j;
-import org.mindrot.jbcrypt.BCrypt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.security.SecureRandom;
 import java.sql.Timestamp;
-import java.util.UUID;
 
 /**
  * 用户服务实现类
@@ -22,6 +27,24 @@ public class UserServiceImpl implements UserService {
 
     @Autowired
     private UserMapper userMapper;
+
+    @Autowired
+    private UserTokenCache userTokenCache;
+
+    @Autowired
+    private SignedTokenCodec signedTokenCodec;
+
+    @Autowired
+    private TokenRevocationList tokenRevocationList;
+
+    @Autowired
+    private AuthProperties authProperties;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private LoginAttemptLimiter loginAttemptLimiter;
     
     @Override
     public User getUserById(Integer id) {
@@ -44,14 +67,20 @@ public class UserServiceImpl implements UserService {
             return null;
         }
         
-        // 实际项目中应该有一个token表来存储和管理token
-        // 这里简化处理，假设token存储在用户表中
-        User user = userMapper.getUserByToken(token);
-        
-        // 检查token是否过期
-        // TODO: 实现token过期机制
+        if (SignedTokenCodec.isSigned(token)) {
+            // 签名令牌只在内存中验证，用户信息按用户ID缓存
+            SignedTokenCodec.Claims claims = signedTokenCodec.verify(token, System.currentTimeMillis());
+            if (claims == null || !SignedTokenCodec.ACCESS.equals(claims.getType()) || tokenRevocationList.isRevoked(claims)) {
+                return null;
+            }
+            return userTokenCache.getById(claims.getUserId(), userMapper::getUserById);
+        }
         
-        return user;
+        // 旧的UUID令牌存储在用户表中，没有过期时间；查询结果按令牌缓存，令牌或用户信息变化时失效
+        if (!authProperties.getToken().isLegacyEnabled()) {
+            return null;
+        }
+        return userTokenCache.get(token, userMapper::getUserByToken);
     }
     
     @Override
@@ -59,11 +88,11 @@ public class UserServiceImpl implements UserService {
         try {
             // 使用BCrypt加密密码
             String plainPassword = user.getPasswordHash(); // 此处存储的是明文密码
-            String hashedPassword = BCrypt.hashpw(plainPassword, BCrypt.gensalt());
+            String hashedPassword = passwordHasher.hash(plainPassword);
             user.setPasswordHash(hashedPassword);
             
-            // 生成默认token
-            user.setToken(generateToken(user));
+            // 生成会话密钥，刷新令牌与之绑定
+            user.setToken(signedTokenCodec.newSessionKey());
             
             // 设置创建时间（如果未设置）
             if (user.getCreatedAt() == null) {
@@ -79,6 +108,8 @@ public class UserServiceImpl implements UserService {
                 log.error("创建用户失败: {}", user.getUsername());
                 return null;
             }
+        } catch (ApiError e) {
+            throw e;
         } catch (Exception e) {
             log.error("创建用户时发生错误: {}", e.getMessage(), e);
             return null;
@@ -87,20 +118,23 @@ public class UserServiceImpl implements UserService {
     
     @Override
     public int updateUser(User user) {
-        return userMapper.updateUser(user);
+        int result = userMapper.updateUser(user);
+        userTokenCache.invalidateUser(user.getId());
+        return result;
     }
     
     @Override
     public User updateUserProfile(User user) {
         try {
-            int result = userMapper.updateUser(user);
+            userMapper.updateUser(user);
+            userTokenCache.invalidateUser(user.getId());
             
-            if (result > 0) {
-                return userMapper.getUserById(user.getId());
-            } else {
+            // 影响行数为0也可能只是资料未发生变化，因此以用户是否存在判断结果
+            User updatedUser = userMapper.getUserById(user.getId());
+            if (updatedUser == null) {
                 log.error("更新用户资料失败: id={}", user.getId());
-                return null;
             }
+            return updatedUser;
         } catch (Exception e) {
             log.error("更新用户资料时发生错误: {}", e.getMessage(), e);
             return null;
@@ -108,22 +142,50 @@ public class UserServiceImpl implements UserService {
     }
     
     @Override
-    public User validateCredentials(String username, String password) {
+    public User validateCredentials(String username, String password, String clientIp) {
+        // 失败次数过多时直接拒绝，不再查询数据库和计算哈希
+        loginAttemptLimiter.checkAllowed(username, clientIp);
         User user = userMapper.getUserByUsername(username);
         
         if (user == null) {
             log.info("用户名不存在: {}", username);
+            loginAttemptLimiter.recordFailure(username, clientIp);
             return null;
         }
         
         if (validatePassword(user, password)) {
+            loginAttemptLimiter.recordSuccess(username);
+            rehashIfNeeded(user, password);
             return user;
         } else {
             log.info("密码验证失败: username={}", username);
+            loginAttemptLimiter.recordFailure(username, clientIp);
             return null;
         }
     }
     
+    /**
+     * 成本因子配置变化后，在用户登录成功、持有明文密码时按新的成本因子重新哈希
+     * 重新哈希失败不影响本次登录，下次登录时再试
+     */
+    private void rehashIfNeeded(User user, String plainPassword) {
+        if (!passwordHasher.needsRehash(user.getPasswordHash())) {
+            return;
+        }
+        try {
+            String hashedPassword = passwordHasher.hash(plainPassword);
+            User userToUpdate = new User();
+            userToUpdate.setId(user.getId());
+            userToUpdate.setPasswordHash(hashedPassword);
+            userMapper.updateUser(userToUpdate);
+            userTokenCache.invalidateUser(user.getId());
+            user.setPasswordHash(hashedPassword);
+            log.info("已按新的成本因子重新哈希用户密码: userId={}", user.getId());
+        } catch (Exception e) {
+            log.warn("重新哈希用户密码失败: userId={}, {}", user.getId(), e.getMessage());
+        }
+    }
+    
     @Override
     public boolean validatePassword(User user, String plainPassword) {
         if (user == null || user.getPasswordHash() == null || plainPassword == null) {
@@ -132,7 +194,9 @@ public class UserServiceImpl implements UserService {
         
         try {
             // 使用BCrypt验证密码
-            return BCrypt.checkpw(plainPassword, user.getPasswordHash());
+            return passwordHasher.check(plainPassword, user.getPasswordHash());
+        } catch (ApiError e) {
+            throw e;
         } catch (Exception e) {
             log.error("验证密码时发生错误: {}", e.getMessage(), e);
             return false;
@@ -148,11 +212,16 @@ public class UserServiceImpl implements UserService {
             }
             
             // 使用BCrypt生成新的密码哈希
-            String hashedPassword = BCrypt.hashpw(newPassword, BCrypt.gensalt());
+            String hashedPassword = passwordHasher.hash(newPassword);
             user.setPasswordHash(hashedPassword);
+            // 轮换会话密钥，修改密码前签发的令牌全部失效
+            user.setToken(signedTokenCodec.newSessionKey());
             
             int result = userMapper.updateUser(user);
+            revokeAllTokens(userId);
             return result > 0;
+        } catch (ApiError e) {
+            throw e;
         } catch (Exception e) {
             log.error("更新密码时发生错误: userId={}, {}", userId, e.getMessage(), e);
             return false;
@@ -160,20 +229,82 @@ public class UserServiceImpl implements UserService {
     }
     
     @Override
-    public String generateToken(User user) {
+    public AuthTokenDto generateToken(User user) {
         if (user == null || user.getId() == null) {
             return null;
         }
         
-        // 生成一个随机的UUID作为token
-        String token = UUID.randomUUID().toString();
-        
-        // 更新用户的token
+        // 生成新的会话密钥，旧的刷新令牌与之不再匹配
+        String sessionKey = signedTokenCodec.newSessionKey();
         User userToUpdate = new User();
         userToUpdate.setId(user.getId());
-        userToUpdate.setToken(token);
+        userToUpdate.setToken(sessionKey);
         userMapper.updateUser(userToUpdate);
+        user.setToken(sessionKey);
+        // 旧的访问令牌随即失效
+        revokeAllTokens(user.getId());
         
-        return token;
+        return issue(user);
+    }
+    
+    @Override
+    public AuthTokenDto issueTokens(User user) {
+        if (user == null || user.getId() == null) {
+            return null;
+        }
+        if (user.getToken() == null) {
+            return generateToken(user);
+        }
+        return issue(user);
+    }
+    
+    @Override
+    public AuthTokenDto refreshToken(String refreshToken) {
+        if (refreshToken == null || !SignedTokenCodec.isSigned(refreshToken)) {
+            return null;
+        }
+        SignedTokenCodec.Claims claims = signedTokenCodec.verify(refreshToken, System.currentTimeMillis());
+        if (claims == null || !SignedTokenCodec.REFRESH.equals(claims.getType()) || tokenRevocationList.isRevoked(claims)) {
+            return null;
+        }
+        // 刷新不频繁，查询数据库确认会话密钥未被轮换，保证修改密码后旧的刷新令牌在重启后也不能使用
+        User user = userMapper.getUserById(claims.getUserId());
+        if (user == null || user.getToken() == null
+                || !SignedTokenCodec.fingerprint(user.getToken()).equals(claims.getSession())) {
+            log.info("刷新令牌已失效: userId={}", claims.getUserId());
+            return null;
+        }
+        // 并发使用同一个刷新令牌时只有一个请求成功
+        if (!tokenRevocationList.revoke(claims)) {
+            return null;
+        }
+        return issue(user);
+    }
+    
+    @Override
+    public void revokeToken(String token) {
+        if (token == null || !SignedTokenCodec.isSigned(token)) {
+            return;
+        }
+        SignedTokenCodec.Claims claims = signedTokenCodec.verify(token, System.currentTimeMillis());
+        if (claims != null) {
+            tokenRevocationList.revoke(claims);
+        }
+    }
+    
+    private AuthTokenDto issue(User user) {
+        long now = System.currentTimeMillis();
+        return new AuthTokenDto(
+                signedTokenCodec.issueAccess(user.getId(), now), signedTokenCodec.getAccessTtlSeconds(),
+                signedTokenCodec.issueRefresh(user.getId(), user.getToken(), now), signedTokenCodec.getRefreshTtlSeconds());
+    }
+    
+    /**
+     * 作废用户此前签发的所有访问令牌，并清除缓存的用户信息
+     */
+    private void revokeAllTokens(Integer userId) {
+        long now = System.currentTimeMillis();
+        tokenRevocationList.revokeUser(userId, now, now + signedTokenCodec.getAccessTtlSeconds() * 1000);
+        userTokenCache.invalidateUser(userId);
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -15,6 +15,15 @@ public class Constants {
         public static final String EXAM = "exam";
     }
     
+    /**
+     * 同步实体类型常量，与同步接口中的entityType一致
+     */
+    public static class EntityType {
+        public static final String ORDINARY_SCHEDULE = "OrdinarySchedule";
+        public static final String TIME_SLOT = "TimeSlot";
+        public static final String COURSE = "Course";
+    }
+    
     /**
      * 日程状态常量
      */
@@ -0,0 +1,166 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.mapper.CourseMapper;
+import com.djj.todoscheduleserver.pojo.Course;
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * 用于解析和处理Course相关的CRDT同步消息的工具类
+ */
+@Slf4j
+@Component
+public class CourseParserUtil implements SyncProjector {
+
+    private final CourseMapper courseMapper;
+    private final SyncEnvelopeParser syncEnvelopeParser;
+
+    public CourseParserUtil(CourseMapper courseMapper, SyncEnvelopeParser syncEnvelopeParser) {
+        this.courseMapper = courseMapper;
+        this.syncEnvelopeParser = syncEnvelopeParser;
+    }
+
+    @Override
+    public String getEntityType() {
+        return Constants.EntityType.COURSE;
+    }
+
+    /**
+     * 处理SyncMessage并将其转换为Course实体并保存到数据库
+     *
+     * @param syncMessage 同步消息对象
+     * @return 是否成功处理
+     */
+    public boolean processSyncMessage(SyncMessage syncMessage) {
+        try {
+            return processSyncMessage(syncEnvelopeParser.parse(syncMessage));
+        } catch (JsonProcessingException e) {
+            log.error("解析Course同步消息 {} 时出错", syncMessage.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 处理已解析的同步消息并将其转换为Course实体并保存到数据库
+     *
+     * @param envelope 已解析的同步消息
+     * @return 是否成功处理
+     */
+    @Override
+    public boolean processSyncMessage(SyncEnvelope envelope) {
+        // 数据库错误直接抛出，由调用方回滚事务后重试，不能当作已处理
+        if ("DELETE".equals(envelope.getOperationType())) {
+            return handleDeleteOperation(envelope);
+        } else {
+            return handleAddOrUpdateOperation(envelope);
+        }
+    }
+
+    /**
+     * 处理添加或更新操作
+     */
+    private boolean handleAddOrUpdateOperation(SyncEnvelope envelope) {
+        Course course = parseCourse(envelope);
+
+        if (course != null) {
+            // 插入或更新到数据库，仅当该消息的HLC时间戳比已存储的版本更新时才会覆盖
+            int result = courseMapper.insertOrUpdateIfNewer(course);
+            if (result == 0) {
+                log.debug("Course {} 已存在相同或更新的版本，忽略HLC为 {} 的消息", course.getCrdtKey(), course.getHlcTimestamp());
+            }
+            return result > 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * 处理删除操作
+     */
+    private boolean handleDeleteOperation(SyncEnvelope envelope) {
+        // 执行软删除
+        int result = courseMapper.markAsDeleted(
+            envelope.getMessage().getUserId(),
+            envelope.getCrdtKey(),
+            envelope.getHlcTimestamp(),
+            new Timestamp(Instant.now().toEpochMilli())
+        );
+
+        return result > 0;
+    }
+
+    /**
+     * 解析同步消息中的JSON数据，转换为Course对象
+     */
+    private Course parseCourse(SyncEnvelope envelope) {
+        JsonNode dataNode = envelope.getPayload();
+
+        Course course = new Course();
+
+        // 设置基本属性
+        // 重要！使用crdt_key而非id
+        course.setCrdtKey(dataNode.has("crdt_key") ? dataNode.get("crdt_key").asText() :
+                         (dataNode.has("crdtKey") ? dataNode.get("crdtKey").asText() : envelope.getCrdtKey()));
+        course.setUserId(envelope.getMessage().getUserId());
+        course.setCourseName(getText(dataNode, "courseName", "course_name"));
+        course.setColor(getText(dataNode, "color", "color"));
+        course.setRoom(getText(dataNode, "room", "room"));
+        course.setTeacher(getText(dataNode, "teacher", "teacher"));
+        course.setCourseCode(getText(dataNode, "courseCode", "course_code"));
+        course.setSyllabusLink(getText(dataNode, "syllabusLink", "syllabus_link"));
+
+        String credit = getText(dataNode, "credit", "credit");
+        if (credit != null) {
+            try {
+                course.setCredit(Float.parseFloat(credit));
+            } catch (NumberFormatException e) {
+                course.setCredit(null);
+            }
+        }
+
+        // 设置课程节次和周次
+        course.setStartNode(getInteger(dataNode, "startNode", "start_node"));
+        course.setStep(getInteger(dataNode, "step", "step"));
+        course.setDay(getInteger(dataNode, "day", "day"));
+        course.setStartWeek(getInteger(dataNode, "startWeek", "start_week"));
+        course.setEndWeek(getInteger(dataNode, "endWeek", "end_week"));
+        Integer weekType = getInteger(dataNode, "weekType", "week_type");
+        course.setWeekType(weekType != null ? weekType : Constants.WeekType.ALL);
+
+        // 设置CRDT相关字段
+        course.setHlcTimestamp(envelope.getHlcTimestamp());
+        course.setIsDeleted(false);
+
+        return course;
+    }
+
+    /**
+     * 按驼峰或下划线字段名读取文本值，字段不存在或为null时返回null
+     */
+    private String getText(JsonNode dataNode, String camelName, String snakeName) {
+        JsonNode node = dataNode.has(camelName) ? dataNode.get(camelName) : dataNode.get(snakeName);
+        return node != null && !node.isNull() ? node.asText() : null;
+    }
+
+    /**
+     * 按驼峰或下划线字段名读取整数值，字段不存在或无法解析时返回null
+     */
+    private Integer getInteger(JsonNode dataNode, String camelName, String snakeName) {
+        String value = getText(dataNode, camelName, snakeName);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按设备统计客户端HLC与服务器时间的偏差
+ * 每次上传记录一批消息中最大HLC的物理部分与服务器当前时间之差（毫秒），正数表示客户端时钟超前。
+ * 离线补传的旧消息会表现为较大的负偏差，判断时钟偏斜主要看超前的部分；超前过多而被拒绝的消息单独计数。
+ */
+@Slf4j
+@Component
+public class HlcSkewStats {
+
+    private final SyncProperties.Hlc config;
+    private final Map<String, DeviceSkew> devices = new ConcurrentHashMap<>();
+    private final AtomicLong totalRejected = new AtomicLong();
+
+    public HlcSkewStats(SyncProperties syncProperties) {
+        this.config = syncProperties.getHlc();
+    }
+
+    /**
+     * 判断HLC的物理部分是否超前服务器时间过多
+     */
+    public boolean isTooFarAhead(long hlcTimestamp, long nowMs) {
+        long maxFutureDriftMs = config.getMaxFutureDriftMs();
+        return maxFutureDriftMs > 0 && (hlcTimestamp >>> 16) - nowMs > maxFutureDriftMs;
+    }
+
+    /**
+     * 记录一次上传的偏差
+     *
+     * @param driftMs 客户端HLC物理部分减服务器时间
+     */
+    public void recordDrift(String deviceId, long driftMs) {
+        DeviceSkew skew = devices.computeIfAbsent(deviceKey(deviceId), DeviceSkew::new);
+        synchronized (skew) {
+            skew.setSamples(skew.getSamples() + 1);
+            skew.setLastDriftMs(driftMs);
+            skew.setMaxAheadMs(Math.max(skew.getMaxAheadMs(), driftMs));
+            skew.setUpdatedAt(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 记录一条因超前过多而被拒绝的消息
+     */
+    public void recordRejection(String deviceId) {
+        DeviceSkew skew = devices.computeIfAbsent(deviceKey(deviceId), DeviceSkew::new);
+        synchronized (skew) {
+            skew.setRejected(skew.getRejected() + 1);
+            skew.setUpdatedAt(System.currentTimeMillis());
+        }
+        totalRejected.incrementAndGet();
+    }
+
+    /**
+     * 所有设备的统计快照，按超前程度降序排列
+     */
+    public List<DeviceSkew> snapshot() {
+        List<DeviceSkew> result = new ArrayList<>(devices.size());
+        for (DeviceSkew skew : devices.values()) {
+            synchronized (skew) {
+                result.add(skew.copy());
+            }
+        }
+        result.sort(Comparator.comparingLong(DeviceSkew::getMaxAheadMs).reversed());
+        return result;
+    }
+
+    public long getTotalRejected() {
+        return totalRejected.get();
+    }
+
+    /**
+     * 定期输出时钟超前最多的设备，并清理长时间没有上传的设备
+     */
+    @Scheduled(fixedDelayString = "${sync.hlc.skew-stats-log-interval-ms:600000}")
+    public void logStats() {
+        long expireBefore = System.currentTimeMillis() - 7L * 24 * 60 * 60 * 1000;
+        devices.values().removeIf(skew -> skew.getUpdatedAt() < expireBefore);
+        List<DeviceSkew> skews = snapshot();
+        if (skews.isEmpty()) {
+            return;
+        }
+        log.info("HLC偏差统计: {} 台设备，累计拒绝 {} 条超前消息，超前最多的设备: {}",
+                skews.size(), totalRejected.get(), skews.subList(0, Math.min(5, skews.size())));
+    }
+
+    private static String deviceKey(String deviceId) {
+        return deviceId != null ? deviceId : "";
+    }
+
+    /**
+     * 单台设备的偏差统计
+     */
+    @Data
+    public static class DeviceSkew {
+        private final String deviceId;
+        private long samples;        // 记录的上传次数
+        private long lastDriftMs;    // 最近一次上传的偏差
+        private long maxAheadMs;     // 最大的超前量，没有超前过时为0
+        private long rejected;       // 因超前过多而被拒绝的消息数
+        private long updatedAt;      // 最后一次记录的时间
+
+        DeviceSkew copy() {
+            DeviceSkew copy = new DeviceSkew(deviceId);
+            copy.setSamples(samples);
+            copy.setLastDriftMs(lastDriftMs);
+            copy.setMaxAheadMs(maxAheadMs);
+            copy.setRejected(rejected);
+            copy.setUpdatedAt(updatedAt);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.pojo.dto.BatchUploadResponseDto;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按Idempotency-Key缓存上传接口的响应
+ * 客户端因超时重试时携带相同的Idempotency-Key，服务器直接重放第一次的响应而不再处理请求体
+ */
+@Component
+public class IdempotencyCache {
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+
+    public IdempotencyCache(SyncProperties syncProperties) {
+        SyncProperties.Idempotency config = syncProperties.getIdempotency();
+        this.ttlMillis = config.getTtlSeconds() * 1000;
+        int maxEntries = Math.max(1, config.getMaxEntries());
+        this.entries = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 查找缓存的响应
+     *
+     * @param userId 用户ID，不同用户的Idempotency-Key互不影响
+     * @param key Idempotency-Key
+     * @return 未过期的缓存项，不存在时返回null
+     */
+    public Entry get(Integer userId, String key) {
+        String cacheKey = userId + ":" + key;
+        synchronized (entries) {
+            Entry entry = entries.get(cacheKey);
+            if (entry != null && entry.getExpiresAt() < System.currentTimeMillis()) {
+                entries.remove(cacheKey);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * 缓存响应
+     *
+     * @param userId 用户ID
+     * @param key Idempotency-Key
+     * @param requestHash 请求内容的哈希，用于识别复用同一个Key的不同请求
+     * @param response 要缓存的响应
+     */
+    public void put(Integer userId, String key, int requestHash, BatchUploadResponseDto response) {
+        Entry entry = new Entry(requestHash, response, System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(userId + ":" + key, entry);
+        }
+    }
+
+    /**
+     * 缓存项
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final int requestHash;
+        private final BatchUploadResponseDto response;
+        private final long expiresAt;
+    }
+}
@@ -0,0 +1,115 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按用户名和IP限制登录失败次数
+ * 每个用户名、每个IP各自在固定窗口内计数，失败次数达到上限后直到窗口结束都直接拒绝，不再执行BCrypt。
+ * 用户名限流防止针对单个账号猜密码，IP限流防止同一来源轮换用户名撞库。计数只保存在内存中，定期清理过期窗口。
+ * 客户端IP取自HttpServletRequest#getRemoteAddr，部署在反向代理之后时需要由server.forward-headers-strategy
+ * 从可信代理的X-Forwarded-For中解析，否则所有客户端共用代理的IP；max-failures-per-ip为0时关闭IP限流。
+ */
+@Slf4j
+@Component
+public class LoginAttemptLimiter {
+
+    private final AuthProperties.Throttle config;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    public LoginAttemptLimiter(AuthProperties authProperties) {
+        this.config = authProperties.getThrottle();
+    }
+
+    /**
+     * 检查是否允许本次登录尝试
+     *
+     * @param clientIp 客户端IP，为null时只按用户名限流
+     * @throws ApiError 用户名或IP在窗口内失败次数已达上限时抛出429
+     */
+    public void checkAllowed(String username, String clientIp) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (failures(userKey(username), now) >= config.getMaxFailuresPerUsername()
+                || (limitsIp(clientIp) && failures(ipKey(clientIp), now) >= config.getMaxFailuresPerIp())) {
+            log.info("登录尝试过于频繁: username={}, ip={}", username, clientIp);
+            throw new ApiError(HttpStatus.TOO_MANY_REQUESTS, 4290, "登录失败次数过多，请稍后重试");
+        }
+    }
+
+    /**
+     * 记录一次失败的登录
+     */
+    public void recordFailure(String username, String clientIp) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        increment(userKey(username), now);
+        if (limitsIp(clientIp)) {
+            increment(ipKey(clientIp), now);
+        }
+    }
+
+    /**
+     * 登录成功后清除该用户名的失败计数，IP计数保留到窗口结束
+     */
+    public void recordSuccess(String username) {
+        windows.remove(userKey(username));
+    }
+
+    /**
+     * 清理已结束的窗口
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        windows.values().removeIf(window -> window.isExpired(now));
+    }
+
+    private int failures(String key, long now) {
+        Window window = windows.get(key);
+        return window == null || window.isExpired(now) ? 0 : window.count();
+    }
+
+    private void increment(String key, long now) {
+        if (windows.size() >= config.getMaxTrackedKeys() && !windows.containsKey(key)) {
+            // 跟踪的键过多时先清理过期窗口，仍然过多则不再计数新的键
+            removeExpired();
+            if (windows.size() >= config.getMaxTrackedKeys()) {
+                return;
+            }
+        }
+        long windowMs = config.getWindowSeconds() * 1000;
+        windows.compute(key, (k, window) ->
+                window == null || window.isExpired(now) ? new Window(now + windowMs, 1) : new Window(window.endsAt(), window.count() + 1));
+    }
+
+    private static String userKey(String username) {
+        return "u:" + username.toLowerCase(Locale.ROOT);
+    }
+
+    private boolean limitsIp(String clientIp) {
+        return clientIp != null && config.getMaxFailuresPerIp() > 0;
+    }
+
+    private static String ipKey(String clientIp) {
+        return "ip:" + clientIp;
+    }
+
+    private record Window(long endsAt, int count) {
+        boolean isExpired(long now) {
+            return endsAt <= now;
+        }
+    }
+}
@@ -2,10 +2,11 @@ package com.djj.todoscheduleserver.utils;
 
 import com.djj.todoscheduleserver.mapper.OrdinaryScheduleMapper;
 import com.djj.todoscheduleserver.pojo.OrdinarySchedule;
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
 import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.sql.Timestamp;
@@ -14,15 +15,21 @@ import java.time.Instant;
 /**
  * 用于解析和处理OrdinarySchedule相关的CRDT同步消息的工具类
  */
+@Slf4j
 @Component
-public class OrdinaryScheduleParserUtil {
+public class OrdinaryScheduleParserUtil implements SyncProjector {
 
     private final OrdinaryScheduleMapper ordinaryScheduleMapper;
-    private final ObjectMapper objectMapper;
+    private final SyncEnvelopeParser syncEnvelopeParser;
 
-    public OrdinaryScheduleParserUtil(OrdinaryScheduleMapper ordinaryScheduleMapper) {
+    public OrdinaryScheduleParserUtil(OrdinaryScheduleMapper ordinaryScheduleMapper, SyncEnvelopeParser syncEnvelopeParser) {
         this.ordinaryScheduleMapper = ordinaryScheduleMapper;
-        this.objectMapper = new ObjectMapper();
+        this.syncEnvelopeParser = syncEnvelopeParser;
+    }
+
+    @Override
+    public String getEntityType() {
+        return Constants.EntityType.ORDINARY_SCHEDULE;
     }
 
     /**
@@ -33,54 +40,46 @@ public class OrdinaryScheduleParserUtil {
      */
     public boolean processSyncMessage(SyncMessage syncMessage) {
         try {
-            String operationType = getOperationType(syncMessage);
-            
-            if ("DELETE".equals(operationType)) {
-                return handleDeleteOperation(syncMessage);
-            } else {
-                return handleAddOrUpdateOperation(syncMessage);
-            }
-        } catch (Exception e) {
-            // 记录异常信息
-            System.err.println("处理OrdinarySchedule同步消息时出错: " + e.getMessage());
-            e.printStackTrace();
+            return processSyncMessage(syncEnvelopeParser.parse(syncMessage));
+        } catch (JsonProcessingException e) {
+            log.error("解析OrdinarySchedule同步消息 {} 时出错", syncMessage.getId(), e);
             return false;
         }
     }
 
     /**
-     * 从同步消息中获取操作类型
+     * 处理已解析的同步消息并将其转换为OrdinarySchedule实体并保存到数据库
+     * 
+     * @param envelope 已解析的同步消息
+     * @return 是否成功处理
      */
-    private String getOperationType(SyncMessage syncMessage) throws JsonProcessingException {
-        JsonNode rootNode = objectMapper.readTree(syncMessage.getMessageData());
-        return rootNode.has("operationType") ? 
-               rootNode.get("operationType").asText() : 
-               "";
+    @Override
+    public boolean processSyncMessage(SyncEnvelope envelope) {
+        // 数据库错误直接抛出，由调用方回滚事务后重试，不能当作已处理
+        if ("DELETE".equals(envelope.getOperationType())) {
+            return handleDeleteOperation(envelope);
+        } else {
+            return handleAddOrUpdateOperation(envelope);
+        }
     }
 
     /**
      * 处理添加或更新操作
      */
-    private boolean handleAddOrUpdateOperation(SyncMessage syncMessage) throws JsonProcessingException {
-        OrdinarySchedule ordinarySchedule = parseOrdinarySchedule(syncMessage);
+    private boolean handleAddOrUpdateOperation(SyncEnvelope envelope) {
+        OrdinarySchedule ordinarySchedule = parseOrdinarySchedule(envelope);
         
         if (ordinarySchedule != null) {
-            // 检查数据库中是否已存在该实体
-            OrdinarySchedule existingSchedule = ordinaryScheduleMapper.getByCrdtKey(ordinarySchedule.getCrdtKey());
-            
-            // 如果存在并且已有的时间戳更新，则不进行操作
-            if (existingSchedule != null && existingSchedule.getHlcTimestamp() != null && 
-                existingSchedule.getHlcTimestamp() >= ordinarySchedule.getHlcTimestamp()) {
-                return true; // 已存在更新的版本，无需更新
-            }
-            
             // 设置默认值
             if (ordinarySchedule.getIsDeleted() == null) {
                 ordinarySchedule.setIsDeleted(false);
             }
             
-            // 插入或更新到数据库
-            int result = ordinaryScheduleMapper.insertOrUpdate(ordinarySchedule);
+            // 插入或更新到数据库，仅当该消息的HLC时间戳比已存储的版本更新时才会覆盖
+            int result = ordinaryScheduleMapper.insertOrUpdateIfNewer(ordinarySchedule);
+            if (result == 0) {
+                log.debug("OrdinarySchedule {} 已存在相同或更新的版本，忽略HLC为 {} 的消息", ordinarySchedule.getCrdtKey(), ordinarySchedule.getHlcTimestamp());
+            }
             return result > 0;
         }
         
@@ -90,13 +89,13 @@ public class OrdinaryScheduleParserUtil {
     /**
      * 处理删除操作
      */
-    private boolean handleDeleteOperation(SyncMessage syncMessage) throws JsonProcessingException {
-        JsonNode rootNode = objectMapper.readTree(syncMessage.getMessageData());
-        String crdtKey = rootNode.get("crdt_key").asText();
-        Long hlcTimestamp = syncMessage.getHlcTimestamp();
+    private boolean handleDeleteOperation(SyncEnvelope envelope) {
+        String crdtKey = envelope.getCrdtKey();
+        Long hlcTimestamp = envelope.getHlcTimestamp();
         
         // 执行软删除
         int result = ordinaryScheduleMapper.markAsDeleted(
+            envelope.getMessage().getUserId(),
             crdtKey, 
             hlcTimestamp,
             new Timestamp(Instant.now().toEpochMilli())
@@ -108,28 +107,16 @@ public class OrdinaryScheduleParserUtil {
     /**
      * 解析同步消息中的JSON数据，转换为OrdinarySchedule对象
      */
-    private OrdinarySchedule parseOrdinarySchedule(SyncMessage syncMessage) throws JsonProcessingException {
-        JsonNode rootNode = objectMapper.readTree(syncMessage.getMessageData());
-        String messageDataStr = rootNode.has("messageData") ? 
-                                rootNode.get("messageData").asText() : 
-                                syncMessage.getMessageData();
-        
-        // 解析内嵌的messageData字段，如果有的话
-        JsonNode dataNode;
-        try {
-            dataNode = objectMapper.readTree(messageDataStr);
-        } catch (Exception e) {
-            // 如果messageData不是有效的JSON，则使用外层的消息
-            dataNode = rootNode;
-        }
+    private OrdinarySchedule parseOrdinarySchedule(SyncEnvelope envelope) {
+        JsonNode dataNode = envelope.getPayload();
 
         OrdinarySchedule schedule = new OrdinarySchedule();
         
         // 设置基本属性
         // 重要！使用crdt_key而非id
         schedule.setCrdtKey(dataNode.has("crdt_key") ? dataNode.get("crdt_key").asText() : 
-                         (dataNode.has("crdtKey") ? dataNode.get("crdtKey").asText() : syncMessage.getCrdtKey()));
-        schedule.setUserId(syncMessage.getUserId());
+                         (dataNode.has("crdtKey") ? dataNode.get("crdtKey").asText() : envelope.getCrdtKey()));
+        schedule.setUserId(envelope.getMessage().getUserId());
         schedule.setTitle(dataNode.has("title") ? dataNode.get("title").asText() : null);
         schedule.setDescription(dataNode.has("description") && !dataNode.get("description").isNull() ? 
                               dataNode.get("description").asText() : null);
@@ -162,7 +149,7 @@ public class OrdinaryScheduleParserUtil {
         }
         
         // 设置CRDT相关字段
-        schedule.setHlcTimestamp(syncMessage.getHlcTimestamp());
+        schedule.setHlcTimestamp(envelope.getHlcTimestamp());
         schedule.setIsDeleted(false);
         
         return schedule;
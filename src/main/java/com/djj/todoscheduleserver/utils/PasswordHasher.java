@@ -0,0 +1,116 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.mindrot.jbcrypt.BCrypt;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在独立的有界线程池中执行BCrypt
+ * BCrypt每次计算需要几十毫秒的CPU时间，直接在请求线程上执行时，登录高峰或撞库攻击会占满所有请求线程，同步接口随之排队。
+ * 哈希任务交给固定大小的线程池，同时进行的哈希不超过线程数，等待的任务不超过队列上限，超出时立即抛出429，
+ * 因此因哈希而阻塞的请求线程最多为线程数加队列上限，其余请求线程始终可以处理同步请求。
+ */
+@Slf4j
+@Component
+public class PasswordHasher {
+
+    private final AuthProperties.Password config;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public PasswordHasher(AuthProperties authProperties) {
+        this.config = authProperties.getPassword();
+        int threads = config.getHashThreads() > 0
+                ? config.getHashThreads()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 按配置的成本因子哈希密码
+     *
+     * @throws ApiError 哈希任务过多时抛出429
+     */
+    public String hash(String plainPassword) {
+        return execute(() -> BCrypt.hashpw(plainPassword, BCrypt.gensalt(config.getBcryptCost())));
+    }
+
+    /**
+     * 验证密码，哈希格式无效时抛出IllegalArgumentException
+     *
+     * @throws ApiError 哈希任务过多时抛出429
+     */
+    public boolean check(String plainPassword, String passwordHash) {
+        return execute(() -> BCrypt.checkpw(plainPassword, passwordHash));
+    }
+
+    /**
+     * 判断已有哈希的成本因子是否与配置不同，需要在下次登录成功时重新哈希
+     */
+    public boolean needsRehash(String passwordHash) {
+        // 格式为 $2a$10$...，第4、5个字符是成本因子
+        if (passwordHash == null || passwordHash.length() < 7 || passwordHash.charAt(3) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(passwordHash.substring(4, 6)) != config.getBcryptCost();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private <T> T execute(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            if (rejected.incrementAndGet() % 100 == 1) {
+                log.warn("密码哈希任务过多，已累计拒绝 {} 个请求", rejected.get());
+            }
+            throw new ApiError(HttpStatus.TOO_MANY_REQUESTS, 4290, "请求过于频繁，请稍后重试");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待密码哈希时被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
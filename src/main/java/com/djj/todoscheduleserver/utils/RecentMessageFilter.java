@@ -0,0 +1,130 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 最近写入消息的过滤器
+ * 每个用户维护一个布隆过滤器，记录已写入的(来源设备, crdtKey, HLC)组合，不活跃用户的过滤器按LRU淘汰。
+ * 过滤器判定"一定未写入过"的消息可以直接插入，只有判定"可能写入过"的消息才需要查询数据库确认。
+ * 过滤器只在内存中，重启或被淘汰后会遗漏已写入的消息，此时由sync_message上的唯一索引兜底。
+ */
+@Component
+public class RecentMessageFilter {
+
+    private final SyncProperties.Dedup config;
+    private final Map<Integer, BloomFilter> filters;
+
+    public RecentMessageFilter(SyncProperties syncProperties) {
+        this.config = syncProperties.getDedup();
+        int maxUsers = Math.max(1, config.getMaxUsers());
+        this.filters = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, BloomFilter> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    /**
+     * 判断消息是否可能已经写入过
+     *
+     * @return false表示一定没有写入过；true表示可能写入过，需要查询数据库确认
+     */
+    public boolean mightContain(SyncMessage message) {
+        BloomFilter filter;
+        synchronized (filters) {
+            filter = filters.get(message.getUserId());
+        }
+        return filter != null && filter.mightContain(fingerprint(message));
+    }
+
+    /**
+     * 记录已写入的消息
+     */
+    public void put(SyncMessage message) {
+        BloomFilter filter;
+        synchronized (filters) {
+            filter = filters.computeIfAbsent(message.getUserId(),
+                    userId -> new BloomFilter(config.getBitsPerUser(), config.getHashFunctions(), config.getMaxInsertionsPerUser()));
+        }
+        filter.put(fingerprint(message));
+    }
+
+    /**
+     * 去重键的64位哈希：FNV-1a累加后再做一次位混合，使高低32位都足够均匀
+     */
+    static long fingerprint(SyncMessage message) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, message.getOriginDeviceId());
+        hash = mix(hash, message.getCrdtKey());
+        long hlc = message.getHlcTimestamp() != null ? message.getHlcTimestamp() : 0L;
+        hash = (hash ^ hlc) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // 分隔符，避免("ab","c")与("a","bc")得到相同的哈希
+        return (hash ^ 0xff) * 0x100000001b3L;
+    }
+
+    /**
+     * 单个用户的布隆过滤器，使用双重哈希由一个64位哈希派生出k个位置
+     */
+    private static class BloomFilter {
+        private final long[] bits;
+        private final int bitCount;
+        private final int hashFunctions;
+        private final int maxInsertions;
+        private int insertions;
+
+        BloomFilter(int bitCount, int hashFunctions, int maxInsertions) {
+            this.bitCount = Math.max(64, bitCount);
+            this.bits = new long[(this.bitCount + 63) / 64];
+            this.hashFunctions = Math.max(1, hashFunctions);
+            this.maxInsertions = Math.max(1, maxInsertions);
+        }
+
+        synchronized boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashFunctions; i++) {
+                int index = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits[index >>> 6] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void put(long hash) {
+            if (insertions >= maxInsertions) {
+                // 元素过多时误判率会迅速上升，清空后重新记录
+                Arrays.fill(bits, 0L);
+                insertions = 0;
+            }
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashFunctions; i++) {
+                int index = Math.floorMod(h1 + i * h2, bitCount);
+                bits[index >>> 6] |= 1L << index;
+            }
+            insertions++;
+        }
+    }
+}
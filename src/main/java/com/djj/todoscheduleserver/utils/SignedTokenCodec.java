@@ -0,0 +1,178 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * HMAC-SHA256签名令牌的签发与验证
+ * 令牌格式为 base64url(载荷).base64url(签名)，载荷为 v1:类型:用户ID:签发时间:过期时间:令牌ID:会话指纹，时间单位为毫秒。
+ * 验证只需一次HMAC计算，不访问数据库。会话指纹只用于刷新令牌，与用户表token列中保存的会话密钥对应，会话密钥轮换后旧的刷新令牌随即失效。
+ */
+@Slf4j
+@Component
+public class SignedTokenCodec {
+
+    public static final String ACCESS = "a";
+    public static final String REFRESH = "r";
+
+    private static final String VERSION = "v1";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final AuthProperties.Token config;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;
+
+    public SignedTokenCodec(AuthProperties authProperties) {
+        this.config = authProperties.getToken();
+        byte[] secret;
+        if (config.getSecret() == null || config.getSecret().isBlank()) {
+            log.warn("未配置auth.token.secret，使用随机密钥，服务重启或多节点部署时已签发的令牌将失效");
+            secret = new byte[32];
+            random.nextBytes(secret);
+        } else {
+            secret = config.getSecret().getBytes(StandardCharsets.UTF_8);
+        }
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("初始化令牌签名失败", e);
+            }
+        });
+    }
+
+    /**
+     * 判断令牌是否为签名令牌，旧的UUID令牌不含"."
+     */
+    public static boolean isSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发访问令牌
+     */
+    public String issueAccess(Integer userId, long now) {
+        return sign(ACCESS, userId, now, now + config.getAccessTtlSeconds() * 1000, "");
+    }
+
+    /**
+     * 签发刷新令牌
+     *
+     * @param sessionKey 用户表token列中保存的会话密钥
+     */
+    public String issueRefresh(Integer userId, String sessionKey, long now) {
+        return sign(REFRESH, userId, now, now + config.getRefreshTtlSeconds() * 1000, fingerprint(sessionKey));
+    }
+
+    /**
+     * 验证签名并解析令牌
+     *
+     * @return 签名正确且未过期时返回令牌内容，否则返回null
+     */
+    public Claims verify(String token, long now) {
+        int dot = token.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            String encodedPayload = token.substring(0, dot);
+            if (!MessageDigest.isEqual(signature, mac(encodedPayload))) {
+                return null;
+            }
+            String[] fields = new String(DECODER.decode(encodedPayload), StandardCharsets.UTF_8).split(":", -1);
+            if (fields.length != 7 || !VERSION.equals(fields[0])) {
+                return null;
+            }
+            Claims claims = new Claims(fields[1], Integer.valueOf(fields[2]), Long.parseLong(fields[3]),
+                    Long.parseLong(fields[4]), fields[5], fields[6]);
+            return claims.getExpiresAt() > now ? claims : null;
+        } catch (IllegalArgumentException e) {
+            // Base64或数字格式错误
+            return null;
+        }
+    }
+
+    /**
+     * 生成新的会话密钥，保存在用户表的token列中
+     */
+    public String newSessionKey() {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        return ENCODER.encodeToString(bytes);
+    }
+
+    /**
+     * 会话密钥的指纹，刷新令牌中只携带指纹，不暴露会话密钥本身
+     */
+    public static String fingerprint(String sessionKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sessionKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getAccessTtlSeconds() {
+        return config.getAccessTtlSeconds();
+    }
+
+    public long getRefreshTtlSeconds() {
+        return config.getRefreshTtlSeconds();
+    }
+
+    private String sign(String type, Integer userId, long issuedAt, long expiresAt, String session) {
+        byte[] tokenId = new byte[9];
+        random.nextBytes(tokenId);
+        String payload = String.join(":", VERSION, type, String.valueOf(userId), String.valueOf(issuedAt),
+                String.valueOf(expiresAt), ENCODER.encodeToString(tokenId), session);
+        String encodedPayload = ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return encodedPayload + "." + ENCODER.encodeToString(mac(encodedPayload));
+    }
+
+    private byte[] mac(String encodedPayload) {
+        return macs.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 令牌内容
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Claims {
+        /**
+         * 令牌类型，ACCESS或REFRESH
+         */
+        private final String type;
+        private final Integer userId;
+        private final long issuedAt;
+        private final long expiresAt;
+        /**
+         * 随机的令牌ID，用于撤销单个令牌
+         */
+        private final String tokenId;
+        /**
+         * 会话指纹，访问令牌为空
+         */
+        private final String session;
+    }
+}
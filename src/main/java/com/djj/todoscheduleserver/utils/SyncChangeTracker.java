@@ -0,0 +1,116 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按用户记录sync_message的变更版本，用于下载接口的ETag
+ * 版本不小于用户消息的最大HLC，并且每次提交新消息都会增大，即使新消息的HLC比已有消息小（如离线设备补传）。
+ * 版本保存在内存中，用户第一次被访问时以数据库中的最大HLC为初始值；ETag中带有进程启动标识，重启前签发的ETag不会被误判为未变化。
+ * 版本只随本节点的提交推进，多节点部署时其他节点写入的消息不会改变本节点的版本；数据库中的最大HLC也不能代替版本，
+ * 补传的旧消息HLC较小不会改变它。因此配置了节点ID位数（sync.hlc.node-id-bits大于0）时不再返回304，下载总是查询数据库。
+ */
+@Slf4j
+@Component
+public class SyncChangeTracker {
+
+    private final SyncMessageMapper syncMessageMapper;
+    private final boolean conditionalEnabled;
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+    private final Map<Integer, Long> versions = new ConcurrentHashMap<>();
+
+    public SyncChangeTracker(SyncMessageMapper syncMessageMapper, SyncProperties syncProperties) {
+        this.syncMessageMapper = syncMessageMapper;
+        this.conditionalEnabled = syncProperties.getHlc().getNodeIdBits() == 0;
+        if (!conditionalEnabled) {
+            log.warn("配置了多节点部署（sync.hlc.node-id-bits > 0），变更版本只包含本节点的提交，下载接口不再返回304");
+        }
+    }
+
+    /**
+     * 获取用户当前的变更版本，内存中没有时从数据库加载
+     * 必须在查询消息之前读取，保证返回的ETag不会比查询结果新
+     */
+    public long getVersion(Integer userId) {
+        Long version = versions.get(userId);
+        if (version != null) {
+            return version;
+        }
+        long loaded = syncMessageMapper.getMaxHlc(userId);
+        // 加载期间可能有新提交推进了版本，以较大者为准
+        return versions.merge(userId, loaded, Math::max);
+    }
+
+    /**
+     * 记录一次新消息的提交
+     *
+     * @param latestHlc 本次提交消息中最大的HLC时间戳
+     */
+    public void advance(Integer userId, long latestHlc) {
+        // 内存中还没有该用户时无需处理，第一次访问时会从数据库加载到包含本次提交的版本
+        versions.computeIfPresent(userId, (id, version) -> Math.max(version + 1, latestHlc));
+    }
+
+    /**
+     * 在当前事务提交后推进版本，避免其他请求在提交前拿到新版本却查不到新消息
+     * 没有活动事务时立即推进
+     */
+    public void advanceAfterCommit(Integer userId, long latestHlc) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            advance(userId, latestHlc);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                advance(userId, latestHlc);
+            }
+        });
+    }
+
+    /**
+     * 生成下载接口的弱ETag
+     *
+     * @param userId 用户ID
+     * @param variant 请求参数（设备、实体类型、since、游标等）的哈希，不同参数的响应互不匹配
+     */
+    public String etag(Integer userId, int variant) {
+        return "W/\"" + epoch + "-" + getVersion(userId) + "-" + Integer.toHexString(variant) + "\"";
+    }
+
+    /**
+     * 判断下载请求能否返回304
+     * 多节点部署时本节点的版本可能落后于其他节点的写入，总是返回false
+     */
+    public boolean notModified(String ifNoneMatch, String etag) {
+        return conditionalEnabled && matches(ifNoneMatch, etag);
+    }
+
+    /**
+     * 判断If-None-Match头部是否与ETag匹配，按弱比较忽略W/前缀
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        String opaque = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if ("*".equals(tag) || stripWeak(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
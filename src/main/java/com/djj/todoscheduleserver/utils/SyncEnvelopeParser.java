@@ -0,0 +1,92 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+/**
+ * 将CRDT同步消息的JSON解析为SyncEnvelope的工具类
+ * 外层消息和内嵌的messageData都只解析一次
+ */
+@Component
+public class SyncEnvelopeParser {
+
+    private final ObjectMapper objectMapper;
+
+    public SyncEnvelopeParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 解析客户端上传的原始消息JSON
+     *
+     * @param messageData 原始消息JSON字符串
+     * @return 解析结果，message字段由调用方设置
+     * @throws JsonProcessingException 外层消息不是有效的JSON时抛出
+     */
+    public SyncEnvelope parse(String messageData) throws JsonProcessingException {
+        return parse(objectMapper.readTree(messageData));
+    }
+
+    /**
+     * 解析已读取为JSON树的原始消息（例如流式上传时由JsonParser逐条读出的消息）
+     *
+     * @param rootNode 消息JSON树
+     * @return 解析结果，message字段由调用方设置
+     */
+    public SyncEnvelope parse(JsonNode rootNode) {
+        SyncEnvelope envelope = new SyncEnvelope();
+        String key = rootNode.path("crdt_key").asText();
+        // 尝试兼容旧版本客户端，如果crdtKey不存在，则尝试读取key字段
+        if (key == null || key.isEmpty()) {
+            key = rootNode.path("key").asText();
+        }
+        envelope.setCrdtKey(key);
+        envelope.setHlcTimestamp(rootNode.path("hlcTimestamp").asLong());
+        envelope.setOperationType(rootNode.path("operationType").asText(""));
+        envelope.setPayload(parsePayload(rootNode));
+        return envelope;
+    }
+
+    /**
+     * 解析已存储的同步消息，消息记录中的crdtKey和HLC时间戳优先
+     *
+     * @param syncMessage 同步消息对象
+     * @return 解析结果
+     * @throws JsonProcessingException 消息数据不是有效的JSON时抛出
+     */
+    public SyncEnvelope parse(SyncMessage syncMessage) throws JsonProcessingException {
+        SyncEnvelope envelope = parse(syncMessage.getMessageData());
+        if (syncMessage.getCrdtKey() != null && !syncMessage.getCrdtKey().isEmpty()) {
+            envelope.setCrdtKey(syncMessage.getCrdtKey());
+        }
+        if (syncMessage.getHlcTimestamp() != null) {
+            envelope.setHlcTimestamp(syncMessage.getHlcTimestamp());
+        }
+        envelope.setMessage(syncMessage);
+        return envelope;
+    }
+
+    /**
+     * 取出实体数据节点
+     * messageData可能是内嵌的JSON字符串或对象；如果不存在或不是有效的JSON，则使用外层的消息
+     */
+    private JsonNode parsePayload(JsonNode rootNode) {
+        JsonNode messageDataNode = rootNode.get("messageData");
+        if (messageDataNode == null || messageDataNode.isNull()) {
+            return rootNode;
+        }
+        if (messageDataNode.isObject()) {
+            return messageDataNode;
+        }
+        try {
+            JsonNode dataNode = objectMapper.readTree(messageDataNode.asText());
+            return dataNode != null && dataNode.isObject() ? dataNode : rootNode;
+        } catch (JsonProcessingException e) {
+            return rootNode;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 发布已写入的同步消息
+ * 上传接口和服务器生成的消息（如提醒）写入sync_message后都要执行同样的步骤：事务提交后推进用户的变更版本、
+ * 追加到最近消息缓存，并按来源设备通知订阅者。三者的顺序有要求，统一在这里完成，避免各处各自拼装。
+ */
+@Component
+public class SyncMessagePublisher {
+
+    private final SyncMessageMapper syncMessageMapper;
+    private final SyncSequenceAllocator syncSequenceAllocator;
+    private final SyncChangeTracker syncChangeTracker;
+    private final SyncMessageTailCache syncMessageTailCache;
+    private final SyncNotificationHub syncNotificationHub;
+
+    public SyncMessagePublisher(SyncMessageMapper syncMessageMapper,
+                                SyncSequenceAllocator syncSequenceAllocator,
+                                SyncChangeTracker syncChangeTracker,
+                                SyncMessageTailCache syncMessageTailCache,
+                                SyncNotificationHub syncNotificationHub) {
+        this.syncMessageMapper = syncMessageMapper;
+        this.syncSequenceAllocator = syncSequenceAllocator;
+        this.syncChangeTracker = syncChangeTracker;
+        this.syncMessageTailCache = syncMessageTailCache;
+        this.syncNotificationHub = syncNotificationHub;
+    }
+
+    /**
+     * 分配序号并写入一条服务器生成的消息，事务提交后发布
+     * 必须在事务中调用
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void insertAndPublish(SyncMessage message) {
+        List<SyncMessage> messages = List.of(message);
+        syncSequenceAllocator.assign(message.getUserId(), messages);
+        syncMessageMapper.insert(message);
+        publishAfterCommit(message.getUserId(), messages);
+    }
+
+    /**
+     * 在当前事务提交后发布已写入的消息，没有活动事务时立即发布
+     *
+     * @param stored 同一用户已写入（已回填ID）且带有HLC的消息
+     */
+    public void publishAfterCommit(Integer userId, List<SyncMessage> stored) {
+        if (stored.isEmpty()) {
+            return;
+        }
+        Map<String, Long> latestByOrigin = latestByOrigin(stored);
+        // 先推进版本再追加缓存，顺序不能颠倒，见SyncMessageTailCache
+        syncChangeTracker.advanceAfterCommit(userId, Collections.max(latestByOrigin.values()));
+        syncMessageTailCache.appendAfterCommit(userId, stored);
+        latestByOrigin.forEach((originDeviceId, latestHlc) ->
+                syncNotificationHub.publishAfterCommit(userId, originDeviceId, latestHlc));
+    }
+
+    /**
+     * 按来源设备取每个设备消息中最大的HLC
+     * HashMap允许null键，来源设备未知的消息同样会唤醒所有订阅者
+     */
+    public static Map<String, Long> latestByOrigin(List<SyncMessage> messages) {
+        Map<String, Long> latestByOrigin = new HashMap<>();
+        for (SyncMessage message : messages) {
+            latestByOrigin.merge(message.getOriginDeviceId(), message.getHlcTimestamp(), Math::max);
+        }
+        return latestByOrigin;
+    }
+}
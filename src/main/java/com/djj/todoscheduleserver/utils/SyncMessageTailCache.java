@@ -0,0 +1,270 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按用户缓存最近写入的同步消息
+ * 新消息提交后追加到用户的环形缓冲区，其他设备随后的下载如果起点落在缓冲区覆盖的范围内，直接由内存返回，不再查询数据库。
+ *
+ * 每个缓冲区维护一个下界floor，保证HLC大于floor的已提交消息都在缓冲区中：
+ * 创建时floor取该用户当前的变更版本（不小于已提交消息的最大HLC），之后每淘汰一条消息就把floor提高到该消息的HLC。
+ * 缓冲区按条数和时间淘汰旧消息，所有用户的缓冲区总大小超过上限时按LRU整体淘汰不活跃用户。
+ *
+ * 限制：缓冲区只包含本节点提交的消息，多节点部署时其他节点写入的消息不在其中，命中缓存的下载会漏掉它们。
+ * 因此配置了节点ID位数（sync.hlc.node-id-bits大于0，即多节点部署）时缓存自动关闭，所有下载都查询数据库。
+ */
+@Slf4j
+@Component
+public class SyncMessageTailCache {
+
+    private final SyncProperties.HotTail config;
+    private final SyncChangeTracker syncChangeTracker;
+    private final boolean enabled;
+    private final LinkedHashMap<Integer, Tail> tails = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SyncMessageTailCache(SyncProperties syncProperties, SyncChangeTracker syncChangeTracker) {
+        this.config = syncProperties.getHotTail();
+        this.syncChangeTracker = syncChangeTracker;
+        this.enabled = config.isEnabled() && syncProperties.getHlc().getNodeIdBits() == 0;
+        if (config.isEnabled() && !enabled) {
+            log.warn("配置了多节点部署（sync.hlc.node-id-bits > 0），最近消息缓存只包含本节点提交的消息，已自动关闭");
+        }
+    }
+
+    /**
+     * 从缓存中查找HLC大于since的消息
+     *
+     * @param entityType 实体类型，为null时不限类型
+     * @param excludeDeviceId 排除来自该设备的消息，为null时不排除；与数据库查询一致，来源设备为空的消息也会被排除
+     * @return 按(hlcTimestamp, id)升序排列的消息；缓存不能完整覆盖since之后的范围时返回null，调用方应查询数据库
+     */
+    public List<SyncMessage> find(Integer userId, String entityType, String excludeDeviceId, Long since) {
+        if (!enabled) {
+            return null;
+        }
+        Tail tail;
+        synchronized (tails) {
+            tail = tails.get(userId);
+        }
+        List<SyncMessage> result = tail != null && since != null ? tail.find(entityType, excludeDeviceId, since) : null;
+        (result != null ? hits : misses).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * 在当前事务提交后追加新写入的消息，没有活动事务时立即追加
+     * 必须在SyncChangeTracker.advanceAfterCommit之后调用，保证同一次提交先推进版本再追加消息
+     *
+     * @param messages 同一用户已写入（已回填ID）的消息
+     */
+    public void appendAfterCommit(Integer userId, List<SyncMessage> messages) {
+        if (!enabled || messages.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            append(userId, messages);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                append(userId, messages);
+            }
+        });
+    }
+
+    void append(Integer userId, List<SyncMessage> messages) {
+        Tail tail;
+        boolean created = false;
+        synchronized (tails) {
+            tail = tails.get(userId);
+            if (tail == null) {
+                tail = new Tail();
+                tails.put(userId, tail);
+                created = true;
+            }
+        }
+        if (created) {
+            // 先登记缓冲区再读取版本：在此之前提交的消息HLC都不大于版本，之后提交的消息都会追加进来
+            try {
+                tail.initialize(syncChangeTracker.getVersion(userId));
+            } catch (RuntimeException e) {
+                log.warn("初始化用户 {} 的消息缓存失败: {}", userId, e.getMessage());
+                remove(userId, tail);
+                return;
+            }
+        }
+        tail.append(messages);
+        evictIfNeeded();
+    }
+
+    /**
+     * 所有缓冲区的总大小超过上限时，按LRU淘汰用户的整个缓冲区
+     */
+    private void evictIfNeeded() {
+        if (totalBytes.get() <= config.getMaxBytes()) {
+            return;
+        }
+        synchronized (tails) {
+            Iterator<Tail> iterator = tails.values().iterator();
+            while (totalBytes.get() > config.getMaxBytes() && iterator.hasNext()) {
+                Tail eldest = iterator.next();
+                iterator.remove();
+                eldest.clear();
+            }
+        }
+    }
+
+    private void remove(Integer userId, Tail tail) {
+        synchronized (tails) {
+            tails.remove(userId, tail);
+        }
+        tail.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * 命中率，没有任何查询时为0
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public long getCachedBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * 定期输出命中率和内存占用
+     */
+    @Scheduled(fixedDelayString = "${sync.hot-tail.stats-log-interval-ms:600000}")
+    public void logStats() {
+        if (!enabled || hits.get() + misses.get() == 0) {
+            return;
+        }
+        int users;
+        synchronized (tails) {
+            users = tails.size();
+        }
+        log.info("消息缓存统计: 命中 {} 次，未命中 {} 次，命中率 {}%，缓存 {} 个用户共 {} 字节",
+                hits.get(), misses.get(), String.format("%.1f", getHitRate() * 100), users, totalBytes.get());
+    }
+
+    /**
+     * 估算消息占用的内存，字符串按每字符2字节计算
+     */
+    private static long estimateSize(SyncMessage message) {
+        return 160L + 2L * (length(message.getMessageData()) + length(message.getCrdtKey())
+                + length(message.getEntityType()) + length(message.getOriginDeviceId()));
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private record Entry(SyncMessage message, long insertedAt, long size) {
+    }
+
+    /**
+     * 单个用户的环形缓冲区，按写入顺序保存消息
+     */
+    private class Tail {
+        private final Deque<Entry> entries = new ArrayDeque<>();
+        private boolean ready;
+        private boolean closed;
+        private long floor = Long.MAX_VALUE;
+        private long evictedFloor = Long.MIN_VALUE;
+
+        synchronized void initialize(long version) {
+            floor = Math.max(version, evictedFloor);
+            ready = true;
+        }
+
+        synchronized void append(List<SyncMessage> messages) {
+            if (closed) {
+                // 已被淘汰的缓冲区不再接收消息，下次写入时会重新创建
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (SyncMessage message : messages) {
+                Entry entry = new Entry(message, now, estimateSize(message));
+                entries.addLast(entry);
+                totalBytes.addAndGet(entry.size());
+            }
+            trim(now);
+        }
+
+        synchronized List<SyncMessage> find(String entityType, String excludeDeviceId, long since) {
+            trim(System.currentTimeMillis());
+            if (!ready || since < floor) {
+                return null;
+            }
+            List<SyncMessage> result = new ArrayList<>();
+            for (Entry entry : entries) {
+                SyncMessage message = entry.message();
+                if (message.getHlcTimestamp() <= since) {
+                    continue;
+                }
+                if (entityType != null && !entityType.equals(message.getEntityType())) {
+                    continue;
+                }
+                if (excludeDeviceId != null && (message.getOriginDeviceId() == null || excludeDeviceId.equals(message.getOriginDeviceId()))) {
+                    continue;
+                }
+                result.add(message);
+            }
+            result.sort(Comparator.comparing(SyncMessage::getHlcTimestamp).thenComparing(SyncMessage::getId));
+            return result;
+        }
+
+        /**
+         * 按条数和时间淘汰最早写入的消息，并相应提高floor
+         */
+        private void trim(long now) {
+            long expireBefore = now - config.getMaxAgeSeconds() * 1000;
+            while (!entries.isEmpty()
+                    && (entries.size() > config.getMaxMessagesPerUser() || entries.peekFirst().insertedAt() < expireBefore)) {
+                Entry evicted = entries.pollFirst();
+                totalBytes.addAndGet(-evicted.size());
+                evictedFloor = Math.max(evictedFloor, evicted.message().getHlcTimestamp());
+                floor = ready ? Math.max(floor, evictedFloor) : floor;
+            }
+        }
+
+        synchronized void clear() {
+            for (Entry entry : entries) {
+                totalBytes.addAndGet(-entry.size());
+            }
+            entries.clear();
+            ready = false;
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.djj.todoscheduleserver.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内按用户划分的同步变更通知中心
+ * 设备订阅自己所属用户的变更，其他设备的消息写入并提交后唤醒订阅者，订阅者再去拉取新消息。
+ * 通知只说明"有新消息"，不携带消息内容；只在当前节点内传递，多节点部署时订阅者最迟在等待超时后重新订阅并检查。
+ */
+@Slf4j
+@Component
+public class SyncNotificationHub {
+
+    private final Map<Integer, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * 订阅用户的变更
+     *
+     * @param userId 用户ID
+     * @param deviceId 订阅的设备ID，该设备自己写入的消息不会唤醒它
+     * @param listener 变更回调，在写入消息的线程中执行，不能阻塞
+     * @return 订阅句柄，用于取消订阅
+     */
+    public Subscription subscribe(Integer userId, String deviceId, Listener listener) {
+        return subscribe(userId, deviceId, false, listener);
+    }
+
+    /**
+     * 为挂起的长轮询请求订阅用户的变更，与WebSocket连接的订阅分开计数，见{@link #getLongPollCount(Integer)}
+     */
+    public Subscription subscribeLongPoll(Integer userId, String deviceId, Listener listener) {
+        return subscribe(userId, deviceId, true, listener);
+    }
+
+    private Subscription subscribe(Integer userId, String deviceId, boolean longPoll, Listener listener) {
+        Subscription subscription = new Subscription(userId, deviceId, longPoll, listener);
+        // 在compute中加入，与unsubscribe删除空集合互斥，避免加入到刚被移出映射的集合中而丢失订阅
+        subscriptions.compute(userId, (id, set) -> {
+            set = set == null ? ConcurrentHashMap.newKeySet() : set;
+            set.add(subscription);
+            return set;
+        });
+        return subscription;
+    }
+
+    /**
+     * 取消订阅，重复取消是安全的
+     */
+    public void unsubscribe(Subscription subscription) {
+        subscriptions.computeIfPresent(subscription.getUserId(), (userId, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * 通知用户的订阅者有新消息写入
+     *
+     * @param userId 用户ID
+     * @param originDeviceId 写入消息的设备ID
+     * @param latestHlc 本次写入消息中最大的HLC时间戳
+     */
+    public void publish(Integer userId, String originDeviceId, long latestHlc) {
+        Set<Subscription> set = subscriptions.get(userId);
+        if (set == null) {
+            return;
+        }
+        for (Subscription subscription : set) {
+            if (originDeviceId != null && originDeviceId.equals(subscription.getDeviceId())) {
+                continue;
+            }
+            try {
+                subscription.getListener().onChange(originDeviceId, latestHlc);
+            } catch (RuntimeException e) {
+                log.warn("通知用户 {} 的设备 {} 时出错: {}", userId, subscription.getDeviceId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 在当前事务提交后通知订阅者，避免订阅者在事务提交前拉取而读不到新消息
+     * 没有活动事务时立即通知
+     */
+    public void publishAfterCommit(Integer userId, String originDeviceId, long latestHlc) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(userId, originDeviceId, latestHlc);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish(userId, originDeviceId, latestHlc);
+            }
+        });
+    }
+
+    /**
+     * 当前的订阅数
+     */
+    public int getSubscriberCount() {
+        return subscriptions.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * 指定用户当前的订阅数
+     */
+    public int getSubscriberCount(Integer userId) {
+        Set<Subscription> set = subscriptions.get(userId);
+        return set != null ? set.size() : 0;
+    }
+
+    /**
+     * 指定用户当前挂起的长轮询请求数，不含WebSocket连接的订阅
+     */
+    public int getLongPollCount(Integer userId) {
+        Set<Subscription> set = subscriptions.get(userId);
+        return set != null ? (int) set.stream().filter(Subscription::isLongPoll).count() : 0;
+    }
+
+    /**
+     * 变更回调
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onChange(String originDeviceId, long latestHlc);
+    }
+
+    /**
+     * 订阅句柄，按对象标识区分同一设备的多个订阅
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Subscription {
+        private final Integer userId;
+        private final String deviceId;
+        private final boolean longPoll;
+        private final Listener listener;
+    }
+}
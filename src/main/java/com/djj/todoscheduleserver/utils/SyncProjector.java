@@ -0,0 +1,26 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
+
+/**
+ * CRDT同步消息投影处理器
+ * 将某一实体类型的同步消息投影到对应的业务表中，由SyncProjectorRegistry按实体类型分发
+ */
+public interface SyncProjector {
+
+    /**
+     * 获取该处理器负责的实体类型
+     *
+     * @return 实体类型，与同步接口中的entityType一致（例如："TimeSlot"）
+     */
+    String getEntityType();
+
+    /**
+     * 处理已解析的同步消息并保存到数据库
+     * 写入业务表时的数据库错误必须以异常抛出，由调用方回滚事务并重试，不能吞掉后返回false
+     *
+     * @param envelope 已解析的同步消息
+     * @return 是否写入了业务表；内容无法转换为实体或已存在更新的版本时返回false
+     */
+    boolean processSyncMessage(SyncEnvelope envelope);
+}
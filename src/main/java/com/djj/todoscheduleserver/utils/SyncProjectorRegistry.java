@@ -0,0 +1,58 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 同步消息投影处理器注册表
+ * 按实体类型将每条同步消息只分发给对应的投影处理器
+ */
+@Slf4j
+@Component
+public class SyncProjectorRegistry {
+
+    private final Map<String, SyncProjector> projectors = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public SyncProjectorRegistry(List<SyncProjector> projectors) {
+        for (SyncProjector projector : projectors) {
+            SyncProjector previous = this.projectors.put(projector.getEntityType(), projector);
+            if (previous != null) {
+                throw new IllegalStateException("实体类型 " + projector.getEntityType() + " 注册了多个投影处理器: "
+                        + previous.getClass().getSimpleName() + ", " + projector.getClass().getSimpleName());
+            }
+        }
+        log.info("已注册同步投影处理器: {}", this.projectors.keySet());
+    }
+
+    /**
+     * 获取实体类型对应的投影处理器
+     *
+     * @param entityType 实体类型
+     * @return 投影处理器，没有对应处理器时返回null
+     */
+    public SyncProjector getProjector(String entityType) {
+        return entityType == null ? null : projectors.get(entityType);
+    }
+
+    /**
+     * 将同步消息分发给实体类型对应的投影处理器
+     * 没有对应处理器的实体类型只作为消息中继存储，不做投影
+     *
+     * @param entityType 实体类型
+     * @param envelope 已解析的同步消息
+     * @return 是否成功处理
+     */
+    public boolean project(String entityType, SyncEnvelope envelope) {
+        SyncProjector projector = getProjector(entityType);
+        if (projector == null) {
+            log.debug("实体类型 {} 没有投影处理器，消息 {} 仅做中继", entityType, envelope.getCrdtKey());
+            return false;
+        }
+        return projector.processSyncMessage(envelope);
+    }
+}
@@ -0,0 +1,42 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.mapper.SyncSequenceMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * 为同步消息分配用户内递增的序号
+ * 序号在写入消息的事务中分配，用户的计数行被锁定到事务提交，同一用户的写入按提交顺序依次获得序号。
+ * 因此读到序号N时，序号小于N的消息都已提交（或已回滚，序号随之作废），客户端按序号续传不会漏掉消息。
+ */
+@Component
+public class SyncSequenceAllocator {
+
+    private final SyncSequenceMapper syncSequenceMapper;
+
+    public SyncSequenceAllocator(SyncSequenceMapper syncSequenceMapper) {
+        this.syncSequenceMapper = syncSequenceMapper;
+    }
+
+    /**
+     * 按列表顺序为即将写入的消息分配连续的序号
+     * 必须与消息写入在同一事务中调用
+     *
+     * @param messages 同一用户的消息
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void assign(Integer userId, List<SyncMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        syncSequenceMapper.advance(userId, messages.size());
+        long seq = syncSequenceMapper.getLastSeq(userId) - messages.size();
+        for (SyncMessage message : messages) {
+            message.setSeq(++seq);
+        }
+    }
+}
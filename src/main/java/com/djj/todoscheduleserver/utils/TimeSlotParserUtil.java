@@ -2,10 +2,11 @@ package com.djj.todoscheduleserver.utils;
 
 import com.djj.todoscheduleserver.mapper.TimeSlotMapper;
 import com.djj.todoscheduleserver.pojo.TimeSlot;
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
 import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.sql.Timestamp;
@@ -14,15 +15,21 @@ import java.time.Instant;
 /**
  * 用于解析和处理TimeSlot相关的CRDT同步消息的工具类
  */
+@Slf4j
 @Component
-public class TimeSlotParserUtil {
+public class TimeSlotParserUtil implements SyncProjector {
 
     private final TimeSlotMapper timeSlotMapper;
-    private final ObjectMapper objectMapper;
+    private final SyncEnvelopeParser syncEnvelopeParser;
 
-    public TimeSlotParserUtil(TimeSlotMapper timeSlotMapper) {
+    public TimeSlotParserUtil(TimeSlotMapper timeSlotMapper, SyncEnvelopeParser syncEnvelopeParser) {
         this.timeSlotMapper = timeSlotMapper;
-        this.objectMapper = new ObjectMapper();
+        this.syncEnvelopeParser = syncEnvelopeParser;
+    }
+
+    @Override
+    public String getEntityType() {
+        return Constants.EntityType.TIME_SLOT;
     }
 
     /**
@@ -33,47 +40,36 @@ public class TimeSlotParserUtil {
      */
     public boolean processSyncMessage(SyncMessage syncMessage) {
         try {
-            String operationType = getOperationType(syncMessage);
-            
-            if ("DELETE".equals(operationType)) {
-                return handleDeleteOperation(syncMessage);
-            } else {
-                return handleAddOrUpdateOperation(syncMessage);
-            }
-        } catch (Exception e) {
-            // 记录异常信息
-            System.err.println("处理TimeSlot同步消息时出错: " + e.getMessage());
-            e.printStackTrace();
+            return processSyncMessage(syncEnvelopeParser.parse(syncMessage));
+        } catch (JsonProcessingException e) {
+            log.error("解析TimeSlot同步消息 {} 时出错", syncMessage.getId(), e);
             return false;
         }
     }
 
     /**
-     * 从同步消息中获取操作类型
+     * 处理已解析的同步消息并将其转换为TimeSlot实体并保存到数据库
+     * 
+     * @param envelope 已解析的同步消息
+     * @return 是否成功处理
      */
-    private String getOperationType(SyncMessage syncMessage) throws JsonProcessingException {
-        JsonNode rootNode = objectMapper.readTree(syncMessage.getMessageData());
-        return rootNode.has("operationType") ? 
-               rootNode.get("operationType").asText() : 
-               "";
+    @Override
+    public boolean processSyncMessage(SyncEnvelope envelope) {
+        // 数据库错误直接抛出，由调用方回滚事务后重试，不能当作已处理
+        if ("DELETE".equals(envelope.getOperationType())) {
+            return handleDeleteOperation(envelope);
+        } else {
+            return handleAddOrUpdateOperation(envelope);
+        }
     }
 
     /**
      * 处理添加或更新操作
      */
-    private boolean handleAddOrUpdateOperation(SyncMessage syncMessage) throws JsonProcessingException {
-        TimeSlot timeSlot = parseTimeSlot(syncMessage);
+    private boolean handleAddOrUpdateOperation(SyncEnvelope envelope) {
+        TimeSlot timeSlot = parseTimeSlot(envelope);
         
         if (timeSlot != null) {
-            // 检查数据库中是否已存在该实体
-            TimeSlot existingTimeSlot = timeSlotMapper.getByCrdtKey(timeSlot.getCrdtKey());
-            
-            // 如果存在并且已有的时间戳更新，则不进行操作
-            if (existingTimeSlot != null && existingTimeSlot.getHlcTimestamp() != null && 
-                existingTimeSlot.getHlcTimestamp() >= timeSlot.getHlcTimestamp()) {
-                return true; // 已存在更新的版本，无需更新
-            }
-            
             // 设置默认值
             if (timeSlot.getIsDeleted() == null) {
                 timeSlot.setIsDeleted(false);
@@ -82,8 +78,11 @@ public class TimeSlotParserUtil {
                 timeSlot.setIsNotified(false);
             }
             
-            // 插入或更新到数据库
-            int result = timeSlotMapper.insertOrUpdate(timeSlot);
+            // 插入或更新到数据库，仅当该消息的HLC时间戳比已存储的版本更新时才会覆盖
+            int result = timeSlotMapper.insertOrUpdateIfNewer(timeSlot);
+            if (result == 0) {
+                log.debug("TimeSlot {} 已存在相同或更新的版本，忽略HLC为 {} 的消息", timeSlot.getCrdtKey(), timeSlot.getHlcTimestamp());
+            }
             return result > 0;
         }
         
@@ -93,13 +92,13 @@ public class TimeSlotParserUtil {
     /**
      * 处理删除操作
      */
-    private boolean handleDeleteOperation(SyncMessage syncMessage) throws JsonProcessingException {
-        JsonNode rootNode = objectMapper.readTree(syncMessage.getMessageData());
-        String crdtKey = rootNode.get("crdt_key").asText();
-        Long hlcTimestamp = syncMessage.getHlcTimestamp();
+    private boolean handleDeleteOperation(SyncEnvelope envelope) {
+        String crdtKey = envelope.getCrdtKey();
+        Long hlcTimestamp = envelope.getHlcTimestamp();
         
         // 执行软删除
         int result = timeSlotMapper.markAsDeleted(
+            envelope.getMessage().getUserId(),
             crdtKey, 
             hlcTimestamp,
             new Timestamp(Instant.now().toEpochMilli())
@@ -111,28 +110,16 @@ public class TimeSlotParserUtil {
     /**
      * 解析同步消息中的JSON数据，转换为TimeSlot对象
      */
-    private TimeSlot parseTimeSlot(SyncMessage syncMessage) throws JsonProcessingException {
-        JsonNode rootNode = objectMapper.readTree(syncMessage.getMessageData());
-        String messageDataStr = rootNode.has("messageData") ? 
-                                rootNode.get("messageData").asText() : 
-                                syncMessage.getMessageData();
-        
-        // 解析内嵌的messageData字段，如果有的话
-        JsonNode dataNode;
-        try {
-            dataNode = objectMapper.readTree(messageDataStr);
-        } catch (Exception e) {
-            // 如果messageData不是有效的JSON，则使用外层的消息
-            dataNode = rootNode;
-        }
+    private TimeSlot parseTimeSlot(SyncEnvelope envelope) {
+        JsonNode dataNode = envelope.getPayload();
 
         TimeSlot timeSlot = new TimeSlot();
         
         // 设置基本属性
         // 重要！使用crdt_key而非id
         timeSlot.setCrdtKey(dataNode.has("crdt_key") ? dataNode.get("crdt_key").asText() : 
-                         (dataNode.has("crdtKey") ? dataNode.get("crdtKey").asText() : syncMessage.getCrdtKey()));
-        timeSlot.setUserId(syncMessage.getUserId());
+                         (dataNode.has("crdtKey") ? dataNode.get("crdtKey").asText() : envelope.getCrdtKey()));
+        timeSlot.setUserId(envelope.getMessage().getUserId());
         
         // 设置时间相关字段
         if (dataNode.has("startTime") && !dataNode.get("startTime").isNull()) {
@@ -180,7 +167,7 @@ public class TimeSlotParserUtil {
                 // 这是数字ID，需要生成或查找对应的CRDT key
                 // 我们使用前缀加ID的方式生成一个有效的CRDT key
                 scheduleCrdtKey = "ordinary_schedule_" + potentialKey;
-                System.out.println("将数字ID " + potentialKey + " 转换为CRDT key: " + scheduleCrdtKey);
+                log.debug("将数字ID {} 转换为CRDT key: {}", potentialKey, scheduleCrdtKey);
             } else {
                 // 这已经是字符串格式的key
                 scheduleCrdtKey = potentialKey;
@@ -232,7 +219,7 @@ public class TimeSlotParserUtil {
         timeSlot.setIsNotified(false);
         
         // 设置CRDT相关字段
-        timeSlot.setHlcTimestamp(syncMessage.getHlcTimestamp());
+        timeSlot.setHlcTimestamp(envelope.getHlcTimestamp());
         timeSlot.setIsDeleted(false);
         
         return timeSlot;
@@ -0,0 +1,76 @@
+package com.djj.todoscheduleserver.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存中的令牌撤销列表
+ * 签名令牌在过期前始终有效，退出登录、修改密码等场景需要提前作废的令牌记录在这里，每次验证时检查。
+ * 单个令牌按令牌ID撤销；某个用户在某一时刻之前签发的所有令牌按用户撤销。
+ * 撤销记录在令牌本身过期后就没有意义，定期清理，因此列表大小只与访问令牌有效期内的撤销次数有关。
+ * 列表不持久化：刷新令牌另有会话密钥校验，重启后不会复活；访问令牌有效期较短，重启后最多在剩余有效期内可用。
+ */
+@Slf4j
+@Component
+public class TokenRevocationList {
+
+    /**
+     * 令牌ID -> 令牌过期时间
+     */
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    /**
+     * 用户ID -> 撤销时间，早于该时间签发的令牌无效
+     */
+    private final Map<Integer, Revocation> revokedUsers = new ConcurrentHashMap<>();
+
+    /**
+     * 撤销单个令牌
+     *
+     * @return 令牌此前未被撤销时返回true，刷新令牌据此保证只能使用一次
+     */
+    public boolean revoke(SignedTokenCodec.Claims claims) {
+        return revokedTokens.putIfAbsent(claims.getTokenId(), claims.getExpiresAt()) == null;
+    }
+
+    /**
+     * 撤销用户在此之前签发的所有令牌
+     *
+     * @param keepUntil 撤销记录的保留时间，不早于此前签发的令牌中最晚的过期时间
+     */
+    public void revokeUser(Integer userId, long now, long keepUntil) {
+        revokedUsers.merge(userId, new Revocation(now, keepUntil),
+                (old, revocation) -> new Revocation(Math.max(old.before(), now), Math.max(old.keepUntil(), keepUntil)));
+    }
+
+    public boolean isRevoked(SignedTokenCodec.Claims claims) {
+        if (revokedTokens.containsKey(claims.getTokenId())) {
+            return true;
+        }
+        Revocation revocation = revokedUsers.get(claims.getUserId());
+        return revocation != null && claims.getIssuedAt() < revocation.before();
+    }
+
+    public int size() {
+        return revokedTokens.size() + revokedUsers.size();
+    }
+
+    /**
+     * 清理已过期令牌的撤销记录
+     */
+    @Scheduled(fixedDelayString = "${auth.token.revocation-cleanup-interval-ms:600000}")
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+        revokedUsers.values().removeIf(revocation -> revocation.keepUntil() <= now);
+        if (!revokedTokens.isEmpty() || !revokedUsers.isEmpty()) {
+            log.debug("令牌撤销列表: {} 个令牌，{} 个用户", revokedTokens.size(), revokedUsers.size());
+        }
+    }
+
+    private record Revocation(long before, long keepUntil) {
+    }
+}
@@ -0,0 +1,129 @@
+package com.djj.todoscheduleserver.utils;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.pojo.User;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 按令牌或用户ID缓存用户
+ * 每个认证请求都要根据令牌查找用户，缓存后同一令牌（签名令牌则为同一用户）在有效期内只查询一次数据库。
+ * 两类缓存项的键带有不同前缀，客户端构造的旧令牌不会命中按用户ID缓存的项。
+ * 缓存按LRU限制条数、按时间过期；生成新令牌、修改密码或资料时由UserService按用户ID显式失效。
+ * 只缓存查到的用户，无效令牌每次都查询数据库，避免随意构造的令牌挤掉有效的缓存项。
+ */
+@Component
+public class UserTokenCache {
+
+    private final AuthProperties.TokenCache config;
+    private final Map<String, Entry> entries;
+    /**
+     * 每次失效都递增；查询数据库前后版本不同说明期间发生过失效，查询结果可能已过时，不再写入缓存
+     */
+    private long generation;
+
+    public UserTokenCache(AuthProperties authProperties) {
+        this.config = authProperties.getTokenCache();
+        int maxEntries = Math.max(1, config.getMaxEntries());
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 查找旧UUID令牌对应的用户，缓存中没有时通过loader查询并缓存结果
+     *
+     * @param token 访问令牌（不含Bearer前缀）
+     * @param loader 缓存未命中时查询用户的方法，返回null表示令牌无效
+     * @return 用户的副本，调用方可以随意修改；令牌无效时返回null
+     */
+    public User get(String token, Function<String, User> loader) {
+        return load("t:" + token, () -> loader.apply(token));
+    }
+
+    /**
+     * 按用户ID查找用户，用于已验证签名的令牌，缓存中没有时通过loader查询并缓存结果
+     *
+     * @return 用户的副本，用户不存在时返回null
+     */
+    public User getById(Integer userId, Function<Integer, User> loader) {
+        return load("u:" + userId, () -> loader.apply(userId));
+    }
+
+    private User load(String key, Supplier<User> loader) {
+        if (!config.isEnabled()) {
+            return loader.get();
+        }
+        long loadGeneration;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() >= System.currentTimeMillis()) {
+                return copy(entry.user());
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            loadGeneration = generation;
+        }
+        User user = loader.get();
+        if (user == null) {
+            return null;
+        }
+        synchronized (entries) {
+            if (generation == loadGeneration) {
+                entries.put(key, new Entry(copy(user), System.currentTimeMillis() + config.getTtlSeconds() * 1000));
+            }
+        }
+        return user;
+    }
+
+    /**
+     * 移除某个用户的所有缓存项
+     */
+    public void invalidateUser(Integer userId) {
+        synchronized (entries) {
+            generation++;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().user().getId().equals(userId)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 复制用户，避免调用方（如隐藏密码哈希）修改缓存中的对象
+     */
+    private static User copy(User source) {
+        User user = new User();
+        user.setId(source.getId());
+        user.setUsername(source.getUsername());
+        user.setOpenid(source.getOpenid());
+        user.setPhoneNumber(source.getPhoneNumber());
+        user.setEmail(source.getEmail());
+        user.setAvatar(source.getAvatar());
+        user.setCreatedAt(source.getCreatedAt());
+        user.setPasswordHash(source.getPasswordHash());
+        user.setLastOpen(source.getLastOpen());
+        user.setToken(source.getToken());
+        return user;
+    }
+
+    private record Entry(User user, long expiresAt) {
+    }
+}
@@ -0,0 +1,10 @@
+-- 为sync_message增加投影状态，供后台物化任务异步投影到业务表
+-- 已有消息在此前已被同步投影，因此以已投影(1)的状态加入该列，之后新消息默认未投影(0)
+alter table sync_message
+    add column projected tinyint(1) default 1 not null comment '是否已投影到业务表';
+
+alter table sync_message
+    alter column projected set default 0;
+
+create index idx_projected_id
+    on sync_message (projected, id);
@@ -0,0 +1,13 @@
+-- 同一用户、来源设备、crdtKey和HLC时间戳的消息只保存一份，客户端超时重试不会再产生重复消息
+-- 先删除重试风暴中已经产生的重复消息，只保留最早写入的一条
+delete newer
+from sync_message newer
+         join sync_message older
+              on newer.user_id = older.user_id
+                  and newer.origin_device_id = older.origin_device_id
+                  and newer.crdt_key = older.crdt_key
+                  and newer.hlc_timestamp = older.hlc_timestamp
+                  and newer.id > older.id;
+
+create unique index uk_user_device_crdt_hlc
+    on sync_message (user_id, origin_device_id, crdt_key, hlc_timestamp);
@@ -0,0 +1,13 @@
+-- 增量状态同步按(user_id, hlc_timestamp)范围查询业务表
+-- 新索引以user_id开头，可以取代原来的单列索引idx_user_id（先建新索引，外键约束可以继续使用它）
+create index idx_user_hlc
+    on ordinary_schedule (user_id, hlc_timestamp);
+drop index idx_user_id on ordinary_schedule;
+
+create index idx_user_hlc
+    on time_slot (user_id, hlc_timestamp);
+drop index idx_user_id on time_slot;
+
+create index idx_user_hlc
+    on course (user_id, hlc_timestamp);
+drop index idx_user_id on course;
@@ -0,0 +1,76 @@
+-- sync_message按HLC的物理时间（hlc_timestamp >> 16，毫秒）按月RANGE分区
+-- 下载、去重、压缩等查询都带有hlc_timestamp条件，MySQL只扫描相关的分区；过期的月份可以整个分区删除或交换到归档表，无需逐行DELETE
+-- 分区名pYYYYMM保存该月的消息，上界为下个月1日0点(UTC)对应的HLC；p202412保存2025年之前的全部消息，pmax兜底
+-- 之后的月份由SyncPartitionService定期从pmax中拆分出来
+--
+-- MySQL分区表的限制：
+-- 1. 主键和唯一索引必须包含分区列，因此主键改为(id, hlc_timestamp)；id仍然自增且全局唯一，uk_user_device_crdt_hlc已经包含hlc_timestamp
+-- 2. 分区表不支持外键，移除sync_message_ibfk_1；应用中没有删除用户的操作，如需删除用户，需要同时删除其sync_message
+--
+-- 迁移方式：建新表、分批复制、原子重命名。复制期间仍有写入时，在重命名前按id补齐最后一批
+create table sync_message_partitioned
+(
+    id               bigint auto_increment comment '消息唯一标识',
+    user_id          int                                 not null,
+    entity_type      varchar(50)                         not null comment '实体类型，如: Course, OrdinarySchedule 等',
+    crdt_key         varchar(255)                        not null comment '实体在CRDT模型中的唯一键 (即CRDT实体唯一键)',
+    message_data     text                                not null comment 'JSON格式的CRDT消息数据',
+    hlc_timestamp    bigint                              not null comment '混合逻辑时钟时间戳',
+    origin_device_id varchar(255)                        null comment '消息来源设备ID',
+    created_at       timestamp default CURRENT_TIMESTAMP not null,
+    projected        tinyint(1) default 0                not null comment '是否已投影到业务表',
+    primary key (id, hlc_timestamp)
+)
+    comment 'CRDT消息存储表'
+    partition by range (hlc_timestamp) (
+    PARTITION p202412 VALUES LESS THAN (113750153625600000),
+    PARTITION p202501 VALUES LESS THAN (113925685248000000),
+    PARTITION p202502 VALUES LESS THAN (114084229939200000),
+    PARTITION p202503 VALUES LESS THAN (114259761561600000),
+    PARTITION p202504 VALUES LESS THAN (114429630873600000),
+    PARTITION p202505 VALUES LESS THAN (114605162496000000),
+    PARTITION p202506 VALUES LESS THAN (114775031808000000),
+    PARTITION p202507 VALUES LESS THAN (114950563430400000),
+    PARTITION p202508 VALUES LESS THAN (115126095052800000),
+    PARTITION p202509 VALUES LESS THAN (115295964364800000),
+    PARTITION p202510 VALUES LESS THAN (115471495987200000),
+    PARTITION p202511 VALUES LESS THAN (115641365299200000),
+    PARTITION p202512 VALUES LESS THAN (115816896921600000),
+    PARTITION p202601 VALUES LESS THAN (115992428544000000),
+    PARTITION p202602 VALUES LESS THAN (116150973235200000),
+    PARTITION p202603 VALUES LESS THAN (116326504857600000),
+    PARTITION p202604 VALUES LESS THAN (116496374169600000),
+    PARTITION p202605 VALUES LESS THAN (116671905792000000),
+    PARTITION p202606 VALUES LESS THAN (116841775104000000),
+    PARTITION p202607 VALUES LESS THAN (117017306726400000),
+    PARTITION p202608 VALUES LESS THAN (117192838348800000),
+    PARTITION p202609 VALUES LESS THAN (117362707660800000),
+    PARTITION p202610 VALUES LESS THAN (117538239283200000),
+    PARTITION p202611 VALUES LESS THAN (117708108595200000),
+    PARTITION p202612 VALUES LESS THAN (117883640217600000),
+    PARTITION pmax VALUES LESS THAN MAXVALUE
+    );
+
+create index idx_user_entity_crdt_key_hlc
+    on sync_message_partitioned (user_id, entity_type, crdt_key, hlc_timestamp);
+
+create index idx_user_entity_hlc
+    on sync_message_partitioned (user_id, entity_type, hlc_timestamp);
+
+create index idx_projected_id
+    on sync_message_partitioned (projected, id);
+
+create unique index uk_user_device_crdt_hlc
+    on sync_message_partitioned (user_id, origin_device_id, crdt_key, hlc_timestamp);
+
+-- 按id分批复制，每批单独提交；数据量大时重复执行下面的语句，每次把区间推进100000
+-- INSERT INTO sync_message_partitioned SELECT * FROM sync_message WHERE id > 0 AND id <= 100000;
+insert into sync_message_partitioned
+select id, user_id, entity_type, crdt_key, message_data, hlc_timestamp, origin_device_id, created_at, projected
+from sync_message;
+
+rename table sync_message to sync_message_unpartitioned,
+             sync_message_partitioned to sync_message;
+
+-- 确认数据无误后删除旧表
+-- drop table sync_message_unpartitioned;
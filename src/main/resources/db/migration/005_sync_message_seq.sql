@@ -0,0 +1,28 @@
+-- 服务器为每条同步消息分配用户内递增的序号seq，作为精确的下载游标
+-- 序号在写入消息的事务中从sync_sequence分配，该用户的计数行被锁定到事务提交，
+-- 因此同一用户的序号按提交顺序递增，客户端读到序号N时，序号小于N的消息都已提交，按seq续传不会漏掉HLC较小的补传消息
+alter table sync_message
+    add column seq bigint default 0 not null comment '服务器分配的用户内序号，按提交顺序递增';
+
+create table if not exists sync_sequence
+(
+    user_id  int    not null comment '用户ID'
+        primary key,
+    last_seq bigint not null comment '已分配的最大序号'
+)
+    comment '用户同步消息序号分配表';
+
+-- 已有消息按ID顺序编号，应在停止写入后执行
+update sync_message m
+    join (select id, hlc_timestamp, row_number() over (partition by user_id order by id) as seq
+          from sync_message) numbered
+    on m.id = numbered.id and m.hlc_timestamp = numbered.hlc_timestamp
+set m.seq = numbered.seq;
+
+insert into sync_sequence (user_id, last_seq)
+select user_id, max(seq)
+from sync_message
+group by user_id;
+
+create index idx_user_seq
+    on sync_message (user_id, seq);
@@ -0,0 +1,9 @@
+-- 每个服务器节点持久化HLC的高水位：节点预先租用一段物理时间，生成的HLC不超过租约上限，用完前再续租
+-- 重启后时钟从上次的租约上限之后开始，即使系统时钟回拨也不会生成重复或倒退的HLC
+create table if not exists hlc_lease
+(
+    node_id     int    not null comment '服务器节点ID'
+        primary key,
+    lease_until bigint not null comment '该节点已预留的HLC物理时间上限（毫秒），生成的HLC不会超过它'
+)
+    comment 'HLC高水位租约表';
@@ -0,0 +1,5 @@
+-- 记录每条消息投影失败的次数
+-- 投影出错时事务回滚，消息保持未投影状态，下次轮询时重试；失败次数达到上限的消息不再重试，
+-- 以projected = 1且projection_attempts达到上限的状态保留，便于排查，也不会阻塞该用户的压缩水位线和分区清理
+alter table sync_message
+    add column projection_attempts int default 0 not null comment '投影失败次数，达到上限后不再重试';
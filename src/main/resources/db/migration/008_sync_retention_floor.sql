@@ -0,0 +1,10 @@
+-- 记录每个用户随过期分区移出的消息的最大HLC和序号
+-- 下载起点早于该位置的设备会漏掉已移出的消息，服务器返回410，由客户端通过快照重新同步
+create table if not exists sync_retention_floor
+(
+    user_id   int    not null comment '用户ID'
+        primary key,
+    floor_hlc bigint not null comment '已移出的消息中最大的HLC时间戳',
+    floor_seq bigint not null comment '已移出的消息中最大的序号'
+)
+    comment '同步消息保留下限表';
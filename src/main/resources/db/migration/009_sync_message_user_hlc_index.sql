@@ -0,0 +1,5 @@
+-- 不限实体类型的下载（/messages/all按(hlc_timestamp, id)分页、WebSocket推送）和getMaxHlc按(user_id, hlc_timestamp)范围查询
+-- idx_user_entity_hlc以entity_type为第二列，不限类型时无法按HLC有序扫描；InnoDB二级索引末尾带有主键(id, hlc_timestamp)，
+-- 同一HLC内按id排序也由该索引覆盖，无需额外排序
+create index idx_user_hlc
+    on sync_message (user_id, hlc_timestamp);
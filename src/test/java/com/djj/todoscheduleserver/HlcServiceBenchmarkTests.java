@@ -0,0 +1,135 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.HlcLeaseMapper;
+import com.djj.todoscheduleserver.service.HlcService;
+import com.djj.todoscheduleserver.service.impl.HlcServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * HlcService.now在1、8、64个线程下的吞吐量：原来的全局synchronized实现与按用户CAS的实现对比
+ * 运行方式: mvn test -Dbenchmark=true -Dtest=HlcServiceBenchmarkTests
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HlcServiceBenchmarkTests {
+
+    private static final int[] THREADS = {1, 8, 64};
+    private static final long WARMUP_MS = 1000;
+    private static final long MEASURE_MS = 3000;
+
+    @Test
+    void compareSynchronizedWithPerUserCas() throws InterruptedException {
+        log.info("===== HlcService.now 吞吐量 (次/秒) =====");
+        for (int threads : THREADS) {
+            double legacy = measure(threads, new LegacySynchronizedHlcService(), thread -> thread);
+            HlcService perUser = new HlcServiceImpl(mock(HlcLeaseMapper.class), new SyncProperties(), mock(PlatformTransactionManager.class));
+            double sameUser = measure(threads, perUser, thread -> 1);
+            double distinctUsers = measure(threads, perUser, thread -> thread);
+            log.info(String.format("%2d 线程: 全局synchronized %12.0f, CAS同一用户 %12.0f, CAS不同用户 %12.0f",
+                    threads, legacy, sameUser, distinctUsers));
+        }
+    }
+
+    /**
+     * 先预热再计时，返回每秒调用次数
+     *
+     * @param userOfThread 线程序号到userId的映射
+     */
+    private double measure(int threads, HlcService hlcService, IntFunction<Integer> userOfThread) throws InterruptedException {
+        run(threads, hlcService, userOfThread, WARMUP_MS);
+        return run(threads, hlcService, userOfThread, MEASURE_MS) / (MEASURE_MS / 1000.0);
+    }
+
+    private long run(int threads, HlcService hlcService, IntFunction<Integer> userOfThread, long durationMs) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong total = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Integer userId = userOfThread.apply(t);
+            workers[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                long sink = 0;
+                while (running.get()) {
+                    sink ^= hlcService.now(userId);
+                    count++;
+                }
+                total.addAndGet(count + (sink == 42 ? 1 : 0));
+            });
+            workers[t].start();
+        }
+        ready.await();
+        start.countDown();
+        Thread.sleep(durationMs);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return total.get();
+    }
+
+    /**
+     * 原来的实现：所有用户共用一个时钟，方法用synchronized串行化
+     */
+    private static class LegacySynchronizedHlcService implements HlcService {
+        private static final int LOGICAL_SHIFT = 16;
+        private static final long LOGICAL_MASK = (1L << LOGICAL_SHIFT) - 1;
+        private final AtomicLong currentHlc = new AtomicLong(System.currentTimeMillis() << LOGICAL_SHIFT);
+
+        @Override
+        public synchronized long now(Integer userId) {
+            return advance(System.currentTimeMillis(), 0);
+        }
+
+        @Override
+        public synchronized long updateWithTimestamp(long receivedHlc, Integer userId) {
+            return advance(System.currentTimeMillis(), receivedHlc);
+        }
+
+        /**
+         * 取本地时钟、物理时间和收到的HLC中较大的物理时间；物理时间没有前进时逻辑计数器加一，溢出时进位到物理时间
+         */
+        private long advance(long physicalTimeMs, long receivedHlc) {
+            long current = currentHlc.get();
+            long lastPhysical = current >> LOGICAL_SHIFT;
+            long receivedPhysical = receivedHlc >> LOGICAL_SHIFT;
+            long nextPhysical = Math.max(physicalTimeMs, Math.max(lastPhysical, receivedPhysical));
+            long nextLogical;
+            if (nextPhysical == lastPhysical && nextPhysical == receivedPhysical) {
+                nextLogical = Math.max(current, receivedHlc) & LOGICAL_MASK;
+                nextLogical++;
+            } else if (nextPhysical == lastPhysical) {
+                nextLogical = (current & LOGICAL_MASK) + 1;
+            } else if (nextPhysical == receivedPhysical) {
+                nextLogical = (receivedHlc & LOGICAL_MASK) + 1;
+            } else {
+                nextLogical = 0;
+            }
+            if (nextLogical > LOGICAL_MASK) {
+                nextPhysical++;
+                nextLogical = 0;
+            }
+            long newHlc = (nextPhysical << LOGICAL_SHIFT) | nextLogical;
+            currentHlc.set(newHlc);
+            return newHlc;
+        }
+    }
+}
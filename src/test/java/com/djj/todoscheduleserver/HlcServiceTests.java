@@ -0,0 +1,114 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.HlcLeaseMapper;
+import com.djj.todoscheduleserver.service.impl.HlcServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * HlcServiceImpl的单调性、并发唯一性、租约与节点ID测试，不需要数据库
+ */
+class HlcServiceTests {
+
+    private final HlcLeaseMapper hlcLeaseMapper = mock(HlcLeaseMapper.class);
+    private final HlcServiceImpl hlcService = newHlcService(hlcLeaseMapper, new SyncProperties());
+
+    @Test
+    void concurrentNowReturnsUniqueIncreasingValuesPerThread() throws Exception {
+        int threads = 8;
+        int perThread = 20000;
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    long previous = Long.MIN_VALUE;
+                    boolean increasing = true;
+                    for (int i = 0; i < perThread; i++) {
+                        long hlc = hlcService.now(1);
+                        increasing &= hlc > previous;
+                        previous = hlc;
+                        seen.add(hlc);
+                    }
+                    return increasing;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * perThread, seen.size());
+    }
+
+    @Test
+    void updateWithFutureTimestampAdvancesOnlyThatUser() {
+        long before = hlcService.now(2);
+        long future = (System.currentTimeMillis() + 60_000) << 16 | 5;
+
+        long merged = hlcService.updateWithTimestamp(future, 1);
+
+        assertEquals(future, merged);
+        assertTrue(hlcService.now(1) > future);
+        // 其他用户的时钟不受影响
+        assertTrue(hlcService.now(2) < future);
+        assertTrue(hlcService.now(2) > before);
+    }
+
+    @Test
+    void startsAfterPersistedLeaseAndRenewsOncePerLease() {
+        HlcLeaseMapper mapper = mock(HlcLeaseMapper.class);
+        // 上次运行租用到了1分钟之后，模拟重启后系统时钟回拨
+        long leaseUntil = System.currentTimeMillis() + 60_000;
+        when(mapper.getLeaseUntil(0)).thenReturn(leaseUntil);
+        HlcServiceImpl restarted = newHlcService(mapper, new SyncProperties());
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(restarted.now(1) >>> 16 > leaseUntil);
+        }
+        // 上限之后的1000个HLC落在同一毫秒或下一毫秒内，续租最多两次
+        verify(mapper, atMost(2)).saveLeaseUntil(anyInt(), anyLong());
+    }
+
+    @Test
+    void embedsNodeIdInLowBits() {
+        SyncProperties properties = new SyncProperties();
+        properties.getHlc().setNodeIdBits(4);
+        properties.getHlc().setNodeId(3);
+        HlcServiceImpl node = newHlcService(mock(HlcLeaseMapper.class), properties);
+
+        long previous = 0;
+        for (int i = 0; i < 10000; i++) {
+            long hlc = node.now(1);
+            assertEquals(3, hlc & 0xF);
+            assertTrue(hlc > previous);
+            previous = hlc;
+        }
+        long merged = node.updateWithTimestamp(((System.currentTimeMillis() + 60_000) << 16) | 0x25, 1);
+        assertEquals(3, merged & 0xF);
+    }
+
+    private static HlcServiceImpl newHlcService(HlcLeaseMapper mapper, SyncProperties properties) {
+        return new HlcServiceImpl(mapper, properties, mock(PlatformTransactionManager.class));
+    }
+}
@@ -0,0 +1,51 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.utils.HlcSkewStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HlcSkewStats的超前判断与按设备统计测试，不需要数据库
+ */
+class HlcSkewStatsTests {
+
+    @Test
+    void rejectsOnlyBeyondConfiguredDrift() {
+        SyncProperties properties = new SyncProperties();
+        properties.getHlc().setMaxFutureDriftMs(1000);
+        HlcSkewStats stats = new HlcSkewStats(properties);
+        long now = System.currentTimeMillis();
+
+        assertFalse(stats.isTooFarAhead((now + 1000) << 16, now));
+        assertTrue(stats.isTooFarAhead((now + 1001) << 16, now));
+        // 落后的HLC（离线补传）不受限制
+        assertFalse(stats.isTooFarAhead((now - 86_400_000L) << 16, now));
+
+        properties.getHlc().setMaxFutureDriftMs(0);
+        assertFalse(stats.isTooFarAhead(Long.MAX_VALUE, now));
+    }
+
+    @Test
+    void tracksDriftAndRejectionsPerDevice() {
+        HlcSkewStats stats = new HlcSkewStats(new SyncProperties());
+        stats.recordDrift("phone", 250);
+        stats.recordDrift("phone", -5000);
+        stats.recordDrift("laptop", 10);
+        stats.recordRejection("phone");
+
+        List<HlcSkewStats.DeviceSkew> snapshot = stats.snapshot();
+
+        assertEquals("phone", snapshot.get(0).getDeviceId());
+        assertEquals(2, snapshot.get(0).getSamples());
+        assertEquals(-5000, snapshot.get(0).getLastDriftMs());
+        assertEquals(250, snapshot.get(0).getMaxAheadMs());
+        assertEquals(1, snapshot.get(0).getRejected());
+        assertEquals(1, stats.getTotalRejected());
+    }
+}
@@ -0,0 +1,135 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
+import com.djj.todoscheduleserver.utils.PasswordHasher;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 登录高峰与同步请求混合负载：BCrypt直接在请求线程上执行与交给有界线程池执行的对比
+ * 模拟一个200线程的Servlet线程池，同时以固定速率提交登录请求和同步请求（解析一批JSON消息），
+ * 统计登录吞吐量、被429拒绝的登录数，以及同步请求从提交到完成的延迟。
+ * 请求线程被BCrypt占满时，提交请求的线程（相当于Tomcat的Acceptor）同样得不到CPU，实际提交的同步请求数会少于目标速率。
+ * 运行方式: mvn test -Dbenchmark=true -Dtest=LoginLoadBenchmarkTests
+ * 可用 -Dbenchmark.loginRate=200 -Dbenchmark.syncRate=200 调整每秒提交的请求数
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class LoginLoadBenchmarkTests {
+
+    private static final int SERVLET_THREADS = 200;
+    private static final long DURATION_MS = 5000;
+    private static final long DRAIN_MS = 10000;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    void compareInlineHashingWithBoundedPool() throws InterruptedException {
+        int loginRate = Integer.getInteger("benchmark.loginRate", 200);
+        int syncRate = Integer.getInteger("benchmark.syncRate", 200);
+        String passwordHash = BCrypt.hashpw("secret", BCrypt.gensalt(10));
+        String syncBody = syncBody();
+
+        log.info(String.format("===== 混合负载: 登录 %d 次/秒，同步 %d 次/秒，%d 个请求线程，%d 核 =====",
+                loginRate, syncRate, SERVLET_THREADS, Runtime.getRuntime().availableProcessors()));
+        run("请求线程直接执行BCrypt", loginRate, syncRate, syncBody, plain -> BCrypt.checkpw(plain, passwordHash));
+        PasswordHasher hasher = new PasswordHasher(new AuthProperties());
+        run("有界哈希线程池        ", loginRate, syncRate, syncBody, plain -> hasher.check(plain, passwordHash));
+        hasher.shutdown();
+    }
+
+    private void run(String label, int loginRate, int syncRate, String syncBody, Predicate<String> checkPassword)
+            throws InterruptedException {
+        ThreadPoolExecutor servlet = new ThreadPoolExecutor(SERVLET_THREADS, SERVLET_THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        ScheduledExecutorService generator = Executors.newScheduledThreadPool(2);
+        AtomicLong submittedSync = new AtomicLong();
+        AtomicLong logins = new AtomicLong();
+        AtomicLong rejectedLogins = new AtomicLong();
+        List<Long> syncLatencies = Collections.synchronizedList(new ArrayList<>());
+
+        generator.scheduleAtFixedRate(() -> servlet.execute(() -> {
+            try {
+                checkPassword.test("secret");
+                logins.incrementAndGet();
+            } catch (ApiError e) {
+                rejectedLogins.incrementAndGet();
+            }
+        }), 0, 1_000_000 / loginRate, TimeUnit.MICROSECONDS);
+        generator.scheduleAtFixedRate(() -> {
+            long submittedAt = System.nanoTime();
+            submittedSync.incrementAndGet();
+            servlet.execute(() -> {
+                parse(syncBody);
+                syncLatencies.add(System.nanoTime() - submittedAt);
+            });
+        }, 0, 1_000_000 / syncRate, TimeUnit.MICROSECONDS);
+
+        Thread.sleep(DURATION_MS);
+        generator.shutdownNow();
+        generator.awaitTermination(1, TimeUnit.SECONDS);
+        long loginsInWindow = logins.get();
+        servlet.shutdown();
+        boolean drained = servlet.awaitTermination(DRAIN_MS, TimeUnit.MILLISECONDS);
+        int unfinished = servlet.shutdownNow().size();
+
+        List<Long> latencies;
+        synchronized (syncLatencies) {
+            latencies = new ArrayList<>(syncLatencies);
+        }
+        Collections.sort(latencies);
+        log.info(String.format("%s: 登录 %6.1f 次/秒，拒绝 %5d；同步完成 %5d/%d，延迟 p50 %8.1f ms，p99 %8.1f ms，最大 %8.1f ms%s",
+                label, loginsInWindow / (DURATION_MS / 1000.0), rejectedLogins.get(), latencies.size(), submittedSync.get(),
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0),
+                drained ? "" : "（" + DRAIN_MS / 1000 + " 秒内未处理完，丢弃 " + unfinished + " 个请求）"));
+    }
+
+    /**
+     * 同步请求体：50条消息的上传批次
+     */
+    private static String syncBody() {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            body.append(i == 0 ? "" : ",")
+                    .append("{\"crdtKey\":\"time_slot_").append(i).append("\",\"entityType\":\"TimeSlot\",")
+                    .append("\"messageData\":\"{\\\"operationType\\\":\\\"UPDATE\\\",\\\"timestamp\\\":{\\\"wallClockTime\\\":")
+                    .append(System.currentTimeMillis()).append(",\\\"logicalTime\\\":").append(i)
+                    .append("},\\\"payload\\\":\\\"{\\\\\\\"title\\\\\\\":\\\\\\\"课程").append(i).append("\\\\\\\"}\\\"}\"}");
+        }
+        return body.append("]").toString();
+    }
+
+    private static void parse(String body) {
+        try {
+            for (JsonNode message : OBJECT_MAPPER.readTree(body)) {
+                OBJECT_MAPPER.readTree(message.get("messageData").asText());
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+}
@@ -0,0 +1,109 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.mapper.TimeSlotMapper;
+import com.djj.todoscheduleserver.pojo.TimeSlot;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多线程并发写入同一个crdtKey，验证insertOrUpdateIfNewer最终保留HLC最大的版本
+ * 需要可用的MySQL数据库，并且存在ID为1的用户，运行方式: mvn test -Ddb=true -Dtest=LwwUpsertConcurrencyTests
+ */
+@Slf4j
+@SpringBootTest
+@EnabledIfSystemProperty(named = "db", matches = "true")
+class LwwUpsertConcurrencyTests {
+
+    private static final int THREADS = 16;
+    private static final int WRITES_PER_THREAD = 50;
+
+    @Autowired
+    private TimeSlotMapper timeSlotMapper;
+
+    @Test
+    void newestHlcWinsUnderConcurrentUpserts() throws Exception {
+        String crdtKey = "time_slot_" + UUID.randomUUID().toString().replace("-", "").substring(0, 10);
+        long baseHlc = System.currentTimeMillis() << 16;
+
+        // 打乱HLC顺序，使较旧的写入经常晚于较新的写入到达
+        List<Long> hlcs = new ArrayList<>();
+        for (int i = 0; i < THREADS * WRITES_PER_THREAD; i++) {
+            hlcs.add(baseHlc + i);
+        }
+        Collections.shuffle(hlcs);
+        long newestHlc = baseHlc + hlcs.size() - 1;
+
+        AtomicInteger changedRows = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                List<Long> slice = hlcs.subList(t * WRITES_PER_THREAD, (t + 1) * WRITES_PER_THREAD);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (Long hlc : slice) {
+                        if (timeSlotMapper.insertOrUpdateIfNewer(mockTimeSlot(crdtKey, hlc)) > 0) {
+                            changedRows.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        TimeSlot stored = timeSlotMapper.getByCrdtKey(crdtKey);
+        assertNotNull(stored);
+        assertEquals(newestHlc, stored.getHlcTimestamp());
+        // 所有字段必须来自同一次写入
+        assertEquals("v" + newestHlc, stored.getHead());
+        assertEquals(newestHlc, stored.getStartTime());
+        assertTrue(changedRows.get() >= 1 && changedRows.get() <= hlcs.size());
+        log.info("并发写入 {} 次，实际修改 {} 次", hlcs.size(), changedRows.get());
+
+        // 较旧的版本不能覆盖已存储的最新版本
+        assertEquals(0, timeSlotMapper.insertOrUpdateIfNewer(mockTimeSlot(crdtKey, baseHlc)));
+    }
+
+    private TimeSlot mockTimeSlot(String crdtKey, long hlc) {
+        TimeSlot timeSlot = new TimeSlot();
+        timeSlot.setCrdtKey(crdtKey);
+        timeSlot.setUserId(1);
+        timeSlot.setStartTime(hlc);
+        timeSlot.setEndTime(hlc + 60_000);
+        timeSlot.setScheduleType("ORDINARY");
+        timeSlot.setScheduleCrdtKey("ordinary_schedule_concurrency");
+        timeSlot.setHead("v" + hlc);
+        timeSlot.setIsCompleted(false);
+        timeSlot.setIsRepeated(false);
+        timeSlot.setReminderType("NONE");
+        timeSlot.setIsNotified(false);
+        timeSlot.setHlcTimestamp(hlc);
+        timeSlot.setIsDeleted(false);
+        return timeSlot;
+    }
+}
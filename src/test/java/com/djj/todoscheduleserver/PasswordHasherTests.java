@@ -0,0 +1,110 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.exception.ApiError;
+import com.djj.todoscheduleserver.utils.LoginAttemptLimiter;
+import com.djj.todoscheduleserver.utils.PasswordHasher;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 密码哈希线程池与登录失败限流测试，不需要数据库
+ */
+class PasswordHasherTests {
+
+    private static PasswordHasher hasher(int cost, int threads, int queueCapacity) {
+        AuthProperties properties = new AuthProperties();
+        properties.getPassword().setBcryptCost(cost);
+        properties.getPassword().setHashThreads(threads);
+        properties.getPassword().setQueueCapacity(queueCapacity);
+        return new PasswordHasher(properties);
+    }
+
+    @Test
+    void hashesWithConfiguredCostAndDetectsRehash() {
+        PasswordHasher hasher = hasher(4, 1, 4);
+        String hash = hasher.hash("secret");
+
+        assertTrue(hash.startsWith("$2a$04$"));
+        assertTrue(hasher.check("secret", hash));
+        assertFalse(hasher.check("wrong", hash));
+        assertFalse(hasher.needsRehash(hash));
+
+        // 提高成本因子后，旧哈希需要重新哈希，但仍然可以验证
+        PasswordHasher stronger = hasher(5, 1, 4);
+        assertTrue(stronger.needsRehash(hash));
+        assertTrue(stronger.check("secret", hash));
+        assertFalse(stronger.needsRehash("not-a-bcrypt-hash"));
+        hasher.shutdown();
+        stronger.shutdown();
+    }
+
+    @Test
+    void rejectsWhenPoolAndQueueAreFull() throws InterruptedException {
+        PasswordHasher hasher = hasher(12, 1, 1);
+        int callers = 6;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    hasher.hash("secret");
+                    completed.incrementAndGet();
+                } catch (ApiError e) {
+                    assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatus());
+                    rejected.incrementAndGet();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 一个线程加一个排队位置，其余调用方立即被拒绝
+        assertTrue(rejected.get() >= 1);
+        assertTrue(completed.get() >= 1);
+        assertEquals(callers, rejected.get() + completed.get());
+        assertEquals(rejected.get(), hasher.getRejectedCount());
+        hasher.shutdown();
+    }
+
+    @Test
+    void throttlesByUsernameAndIp() {
+        AuthProperties properties = new AuthProperties();
+        properties.getThrottle().setMaxFailuresPerUsername(2);
+        properties.getThrottle().setMaxFailuresPerIp(3);
+        LoginAttemptLimiter limiter = new LoginAttemptLimiter(properties);
+
+        limiter.recordFailure("alice", "10.0.0.1");
+        assertDoesNotThrow(() -> limiter.checkAllowed("alice", "10.0.0.1"));
+        limiter.recordFailure("Alice", "10.0.0.1");
+        assertThrows(ApiError.class, () -> limiter.checkAllowed("alice", "10.0.0.2"));
+
+        // 同一IP轮换用户名
+        assertDoesNotThrow(() -> limiter.checkAllowed("bob", "10.0.0.1"));
+        limiter.recordFailure("bob", "10.0.0.1");
+        assertThrows(ApiError.class, () -> limiter.checkAllowed("carol", "10.0.0.1"));
+        assertDoesNotThrow(() -> limiter.checkAllowed("carol", "10.0.0.2"));
+
+        limiter.recordSuccess("alice");
+        assertDoesNotThrow(() -> limiter.checkAllowed("alice", "10.0.0.2"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.utils.RecentMessageFilter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentMessageFilterTests {
+
+    @Test
+    void recordedMessagesAreAlwaysReported() {
+        RecentMessageFilter filter = new RecentMessageFilter(new SyncProperties());
+        for (int i = 0; i < 2000; i++) {
+            filter.put(message(1, "device_a", "time_slot_" + i, i));
+        }
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(filter.mightContain(message(1, "device_a", "time_slot_" + i, i)));
+        }
+    }
+
+    @Test
+    void unseenMessagesAreRarelyReported() {
+        RecentMessageFilter filter = new RecentMessageFilter(new SyncProperties());
+        for (int i = 0; i < 2000; i++) {
+            filter.put(message(1, "device_a", "time_slot_" + i, i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(message(1, "device_b", "time_slot_" + i, i))) {
+                falsePositives++;
+            }
+        }
+        // 默认配置下2000条记录的理论误判率约为0.1%
+        assertTrue(falsePositives < 100, "误判次数过多: " + falsePositives);
+        // 其他用户的消息不受影响
+        assertFalse(filter.mightContain(message(2, "device_a", "time_slot_0", 0)));
+    }
+
+    @Test
+    void leastRecentlyUsedUserIsEvicted() {
+        SyncProperties properties = new SyncProperties();
+        properties.getDedup().setMaxUsers(2);
+        RecentMessageFilter filter = new RecentMessageFilter(properties);
+
+        filter.put(message(1, "d", "k", 1));
+        filter.put(message(2, "d", "k", 1));
+        filter.mightContain(message(1, "d", "k", 1));
+        filter.put(message(3, "d", "k", 1));
+
+        assertTrue(filter.mightContain(message(1, "d", "k", 1)));
+        assertFalse(filter.mightContain(message(2, "d", "k", 1)));
+        assertTrue(filter.mightContain(message(3, "d", "k", 1)));
+    }
+
+    private SyncMessage message(int userId, String deviceId, String crdtKey, long hlc) {
+        SyncMessage message = new SyncMessage();
+        message.setUserId(userId);
+        message.setOriginDeviceId(deviceId);
+        message.setCrdtKey(crdtKey);
+        message.setHlcTimestamp(hlc);
+        return message;
+    }
+}
@@ -0,0 +1,85 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.utils.SignedTokenCodec;
+import com.djj.todoscheduleserver.utils.TokenRevocationList;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 签名令牌的签发、验证与撤销测试，不需要数据库
+ */
+class SignedTokenCodecTests {
+
+    private static SignedTokenCodec codec(String secret) {
+        AuthProperties properties = new AuthProperties();
+        properties.getToken().setSecret(secret);
+        properties.getToken().setAccessTtlSeconds(60);
+        properties.getToken().setRefreshTtlSeconds(3600);
+        return new SignedTokenCodec(properties);
+    }
+
+    @Test
+    void verifiesIssuedTokens() {
+        SignedTokenCodec codec = codec("test-secret");
+        long now = System.currentTimeMillis();
+
+        SignedTokenCodec.Claims access = codec.verify(codec.issueAccess(42, now), now);
+        assertNotNull(access);
+        assertEquals(SignedTokenCodec.ACCESS, access.getType());
+        assertEquals(42, access.getUserId());
+        assertEquals(now, access.getIssuedAt());
+        assertEquals(now + 60_000, access.getExpiresAt());
+
+        SignedTokenCodec.Claims refresh = codec.verify(codec.issueRefresh(42, "session-key", now), now);
+        assertNotNull(refresh);
+        assertEquals(SignedTokenCodec.REFRESH, refresh.getType());
+        assertEquals(SignedTokenCodec.fingerprint("session-key"), refresh.getSession());
+        assertFalse(access.getTokenId().equals(refresh.getTokenId()));
+    }
+
+    @Test
+    void rejectsExpiredTamperedAndForeignTokens() {
+        SignedTokenCodec codec = codec("test-secret");
+        long now = System.currentTimeMillis();
+        String token = codec.issueAccess(42, now);
+
+        assertNull(codec.verify(token, now + 60_000));
+
+        // 把载荷中的用户ID改为1，签名不再匹配
+        String forged = token.replaceFirst("^[^.]+", Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("v1:a:1:" + now + ":" + (now + 60_000) + ":x:").getBytes(StandardCharsets.UTF_8)));
+        assertNull(codec.verify(forged, now));
+
+        assertNull(codec("other-secret").verify(token, now));
+        assertNull(codec.verify("not.a-token", now));
+        assertFalse(SignedTokenCodec.isSigned("3f2b1c7e-0d6a-4a53-9c1e-2b5d7f8a9e10"));
+    }
+
+    @Test
+    void revokesSingleTokensAndEverythingIssuedBeforeUserRevocation() {
+        SignedTokenCodec codec = codec("test-secret");
+        TokenRevocationList revocations = new TokenRevocationList();
+        long now = System.currentTimeMillis();
+        SignedTokenCodec.Claims first = codec.verify(codec.issueAccess(42, now - 10), now);
+        SignedTokenCodec.Claims second = codec.verify(codec.issueAccess(42, now - 10), now);
+
+        assertTrue(revocations.revoke(first));
+        assertFalse(revocations.revoke(first));
+        assertTrue(revocations.isRevoked(first));
+        assertFalse(revocations.isRevoked(second));
+
+        revocations.revokeUser(42, now, now + 60_000);
+        assertTrue(revocations.isRevoked(second));
+        assertFalse(revocations.isRevoked(codec.verify(codec.issueAccess(42, now), now)));
+        assertFalse(revocations.isRevoked(codec.verify(codec.issueAccess(7, now - 10), now)));
+    }
+}
@@ -0,0 +1,72 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.utils.SyncChangeTracker;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SyncChangeTrackerTests {
+
+    @Test
+    void loadsVersionFromDatabaseOnlyOnce() {
+        SyncMessageMapper mapper = mock(SyncMessageMapper.class);
+        when(mapper.getMaxHlc(1)).thenReturn(100L);
+        SyncChangeTracker tracker = new SyncChangeTracker(mapper, new SyncProperties());
+
+        assertEquals(100L, tracker.getVersion(1));
+        String etag = tracker.etag(1, 7);
+        assertEquals(etag, tracker.etag(1, 7));
+
+        verify(mapper, times(1)).getMaxHlc(1);
+    }
+
+    @Test
+    void everyCommitChangesTheVersion() {
+        SyncMessageMapper mapper = mock(SyncMessageMapper.class);
+        when(mapper.getMaxHlc(1)).thenReturn(100L);
+        SyncChangeTracker tracker = new SyncChangeTracker(mapper, new SyncProperties());
+        String before = tracker.etag(1, 7);
+
+        // 离线设备补传的旧消息HLC较小，版本同样要变化
+        tracker.advance(1, 50L);
+        assertEquals(101L, tracker.getVersion(1));
+        assertNotEquals(before, tracker.etag(1, 7));
+
+        tracker.advance(1, 500L);
+        assertEquals(500L, tracker.getVersion(1));
+    }
+
+    @Test
+    void neverNotModifiedOnMultiNodeDeployments() {
+        SyncMessageMapper mapper = mock(SyncMessageMapper.class);
+        when(mapper.getMaxHlc(1)).thenReturn(100L);
+        String etag = new SyncChangeTracker(mapper, new SyncProperties()).etag(1, 7);
+        assertTrue(new SyncChangeTracker(mapper, new SyncProperties()).notModified(etag, etag));
+
+        SyncProperties properties = new SyncProperties();
+        properties.getHlc().setNodeIdBits(4);
+        // 其他节点的写入不会推进本节点的版本，不能据此返回304
+        assertFalse(new SyncChangeTracker(mapper, properties).notModified(etag, etag));
+    }
+
+    @Test
+    void ifNoneMatchUsesWeakComparison() {
+        String etag = "W/\"abc-100-7\"";
+
+        assertTrue(SyncChangeTracker.matches("W/\"abc-100-7\"", etag));
+        assertTrue(SyncChangeTracker.matches("\"abc-100-7\"", etag));
+        assertTrue(SyncChangeTracker.matches("\"other\", W/\"abc-100-7\"", etag));
+        assertTrue(SyncChangeTracker.matches("*", etag));
+        assertFalse(SyncChangeTracker.matches("W/\"abc-101-7\"", etag));
+        assertFalse(SyncChangeTracker.matches(null, etag));
+    }
+}
@@ -0,0 +1,80 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.service.SyncCompactionService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 验证压缩只删除水位线以内被取代的消息，并且从水位线之前同步的设备得到的最终状态不变
+ * 需要可用的MySQL数据库，并且存在ID为1的用户；测试结束后事务回滚
+ * 运行方式: mvn test -Ddb=true -Dtest=SyncCompactionTests
+ */
+@SpringBootTest
+@Transactional
+@EnabledIfSystemProperty(named = "db", matches = "true")
+class SyncCompactionTests {
+
+    @Autowired
+    private SyncMessageMapper syncMessageMapper;
+
+    @Autowired
+    private SyncCompactionService syncCompactionService;
+
+    @Test
+    void keepsNewestMessagePerKeyBelowWatermark() {
+        String suffix = UUID.randomUUID().toString().replace("-", "").substring(0, 10);
+        String edited = "time_slot_" + suffix;
+        String deleted = "ordinary_schedule_" + suffix;
+        long base = System.currentTimeMillis() << 16;
+        long watermark = base + 5;
+
+        for (int i = 1; i <= 5; i++) {
+            insert("TimeSlot", edited, base + i, "UPDATE");
+        }
+        insert("TimeSlot", edited, base + 7, "UPDATE");
+        insert("OrdinarySchedule", deleted, base + 1, "ADD");
+        insert("OrdinarySchedule", deleted, base + 3, "DELETE");
+        insert("OrdinarySchedule", deleted, base + 9, "ADD");
+
+        int reclaimed = syncCompactionService.compactUser(1, watermark, Integer.MAX_VALUE);
+
+        assertEquals(5, reclaimed);
+        // 水位线以内只保留最新的一条（包括DELETE墓碑），水位线之后的消息全部保留
+        assertEquals(List.of(base + 5, base + 7), hlcsFor(edited, base));
+        assertEquals(List.of(base + 3, base + 9), hlcsFor(deleted, base));
+        // 再次压缩没有可删除的消息
+        assertEquals(0, syncCompactionService.compactUser(1, watermark, Integer.MAX_VALUE));
+    }
+
+    private List<Long> hlcsFor(String crdtKey, long since) {
+        return syncMessageMapper.getMessagesAfterTimestamp(1, since).stream()
+                .filter(message -> crdtKey.equals(message.getCrdtKey()))
+                .map(SyncMessage::getHlcTimestamp)
+                .collect(Collectors.toList());
+    }
+
+    private void insert(String entityType, String crdtKey, long hlc, String operationType) {
+        SyncMessage message = new SyncMessage();
+        message.setUserId(1);
+        message.setEntityType(entityType);
+        message.setCrdtKey(crdtKey);
+        message.setMessageData("{\"crdt_key\":\"" + crdtKey + "\",\"hlcTimestamp\":" + hlc + ",\"operationType\":\"" + operationType + "\"}");
+        message.setHlcTimestamp(hlc);
+        message.setOriginDeviceId("compaction-test-device");
+        message.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        message.setProjected(true);
+        syncMessageMapper.insert(message);
+    }
+}
@@ -0,0 +1,36 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.pojo.crdt.SyncCursor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SyncCursorTests {
+
+    @Test
+    void roundTripsThroughOpaqueString() {
+        SyncCursor cursor = new SyncCursor(1621234567890L << 16, 67890L);
+
+        String encoded = cursor.encode();
+
+        assertFalse(encoded.contains(":"));
+        assertEquals(cursor, SyncCursor.decode(encoded));
+    }
+
+    @Test
+    void afterSinceSkipsEveryMessageWithThatHlc() {
+        SyncCursor cursor = SyncCursor.after(42L);
+
+        assertEquals(42L, cursor.getHlcTimestamp());
+        assertEquals(Long.MAX_VALUE, cursor.getId());
+    }
+
+    @Test
+    void rejectsMalformedCursor() {
+        assertThrows(IllegalArgumentException.class, () -> SyncCursor.decode("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> SyncCursor.decode("YWJj"));
+        assertThrows(IllegalArgumentException.class, () -> SyncCursor.decode("YTpi"));
+    }
+}
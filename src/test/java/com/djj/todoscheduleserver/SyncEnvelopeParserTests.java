@@ -0,0 +1,61 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.pojo.crdt.SyncEnvelope;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.utils.SyncEnvelopeParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SyncEnvelopeParserTests {
+
+    private final SyncEnvelopeParser parser = new SyncEnvelopeParser(new ObjectMapper());
+
+    @Test
+    void parsesEnvelopeAndNestedMessageData() throws Exception {
+        String json = "{\"crdt_key\":\"time_slot_1\",\"hlcTimestamp\":123,\"operationType\":\"UPDATE\","
+                + "\"messageData\":\"{\\\"head\\\":\\\"复习\\\",\\\"priority\\\":2}\"}";
+
+        SyncEnvelope envelope = parser.parse(json);
+
+        assertEquals("time_slot_1", envelope.getCrdtKey());
+        assertEquals(123L, envelope.getHlcTimestamp());
+        assertEquals("UPDATE", envelope.getOperationType());
+        assertEquals("复习", envelope.getPayload().path("head").asText());
+        assertEquals(2, envelope.getPayload().path("priority").asInt());
+    }
+
+    @Test
+    void fallsBackToLegacyKeyAndOuterPayload() throws Exception {
+        String json = "{\"key\":\"ordinary_schedule_1\",\"hlcTimestamp\":7,\"title\":\"开会\",\"messageData\":\"not json\"}";
+
+        SyncEnvelope envelope = parser.parse(json);
+
+        assertEquals("ordinary_schedule_1", envelope.getCrdtKey());
+        assertEquals("", envelope.getOperationType());
+        assertEquals("开会", envelope.getPayload().path("title").asText());
+    }
+
+    @Test
+    void storedMessageFieldsTakePrecedence() throws Exception {
+        SyncMessage message = new SyncMessage();
+        message.setCrdtKey("time_slot_2");
+        message.setHlcTimestamp(99L);
+        message.setMessageData("{\"crdt_key\":\"other\",\"hlcTimestamp\":1,\"operationType\":\"DELETE\"}");
+
+        SyncEnvelope envelope = parser.parse(message);
+
+        assertEquals("time_slot_2", envelope.getCrdtKey());
+        assertEquals(99L, envelope.getHlcTimestamp());
+        assertEquals("DELETE", envelope.getOperationType());
+        assertSame(message, envelope.getMessage());
+    }
+
+    @Test
+    void rejectsInvalidJson() {
+        assertThrows(Exception.class, () -> parser.parse("{broken"));
+    }
+}
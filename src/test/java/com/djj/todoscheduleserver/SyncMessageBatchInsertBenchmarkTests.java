@@ -0,0 +1,96 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * sync_message逐条插入与批量插入的吞吐量对比
+ * 需要可用的MySQL数据库，运行方式: mvn test -Dbenchmark=true -Dtest=SyncMessageBatchInsertBenchmarkTests
+ * 测试结束后事务回滚，不会在数据库中留下数据
+ */
+@Slf4j
+@SpringBootTest
+@Transactional
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SyncMessageBatchInsertBenchmarkTests {
+
+    private static final int[] UPLOAD_SIZES = {10, 100, 1000};
+    private static final int BATCH_SIZE = 500;
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private SyncMessageMapper syncMessageMapper;
+
+    @Test
+    void compareLoopInsertWithBatchInsert() {
+        // 预热连接池和语句缓存
+        runLoopInsert(mockMessages(50));
+        runBatchInsert(mockMessages(50));
+
+        log.info("===== sync_message 插入吞吐量 (行/秒) =====");
+        for (int size : UPLOAD_SIZES) {
+            long loopNanos = 0;
+            long batchNanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                loopNanos += runLoopInsert(mockMessages(size));
+                batchNanos += runBatchInsert(mockMessages(size));
+            }
+            log.info(String.format("%5d 条消息: 逐条插入 %10.0f 行/秒, 批量插入 %10.0f 行/秒",
+                    size, rowsPerSecond(size * ROUNDS, loopNanos), rowsPerSecond(size * ROUNDS, batchNanos)));
+        }
+    }
+
+    private long runLoopInsert(List<SyncMessage> messages) {
+        long start = System.nanoTime();
+        for (SyncMessage message : messages) {
+            syncMessageMapper.insert(message);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long runBatchInsert(List<SyncMessage> messages) {
+        long start = System.nanoTime();
+        for (int from = 0; from < messages.size(); from += BATCH_SIZE) {
+            syncMessageMapper.insertBatch(messages.subList(from, Math.min(from + BATCH_SIZE, messages.size())));
+        }
+        long elapsed = System.nanoTime() - start;
+        // 批量插入必须回填生成的主键
+        messages.forEach(message -> assertNotNull(message.getId()));
+        return elapsed;
+    }
+
+    private List<SyncMessage> mockMessages(int count) {
+        List<SyncMessage> messages = new ArrayList<>(count);
+        long hlc = System.currentTimeMillis() << 16;
+        for (int i = 0; i < count; i++) {
+            String crdtKey = "time_slot_" + UUID.randomUUID().toString().replace("-", "").substring(0, 10);
+            SyncMessage message = new SyncMessage();
+            message.setUserId(1);
+            message.setEntityType("TimeSlot");
+            message.setCrdtKey(crdtKey);
+            message.setMessageData("{\"crdt_key\":\"" + crdtKey + "\",\"hlcTimestamp\":" + (hlc + i) + ",\"operationType\":\"ADD\"}");
+            message.setHlcTimestamp(hlc + i);
+            message.setOriginDeviceId("benchmark-device");
+            message.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private double rowsPerSecond(int rows, long nanos) {
+        return rows / (nanos / 1_000_000_000.0);
+    }
+}
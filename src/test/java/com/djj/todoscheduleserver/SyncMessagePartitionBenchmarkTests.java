@@ -0,0 +1,157 @@
+package com.djj.todoscheduleserver;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 未分区与按月分区的sync_message在大数据量下的对比：近期增量查询的耗时，以及删除最旧一个月数据的耗时
+ * 需要可用的MySQL数据库，并且已执行004_sync_message_partitioning.sql，运行方式:
+ * mvn test -Dbenchmark=true -Dbenchmark.rows=100000000 -Dtest=SyncMessagePartitionBenchmarkTests
+ * 默认生成100万行；数据写入两张临时表，测试结束后删除，不影响sync_message
+ */
+@Slf4j
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SyncMessagePartitionBenchmarkTests {
+
+    private static final String FLAT = "bench_sync_message_flat";
+    private static final String PARTITIONED = "bench_sync_message_partitioned";
+    private static final int MONTHS = 24;
+    private static final int USERS = 10000;
+    private static final int CHUNK = 1_000_000;
+    private static final int ROUNDS = 20;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void dropTables() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + FLAT);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + PARTITIONED);
+    }
+
+    @Test
+    void compareFlatWithPartitioned() {
+        long rows = Long.getLong("benchmark.rows", 1_000_000L);
+        YearMonth first = YearMonth.now(ZoneOffset.UTC).minusMonths(MONTHS - 1);
+        long start = toHlc(first);
+        long span = toHlc(first.plusMonths(MONTHS)) - start;
+
+        createTables(first);
+        fill(FLAT, rows, start, span);
+        copy(FLAT, PARTITIONED);
+        assertEquals(count(FLAT), count(PARTITIONED));
+
+        // 近期增量下载：每个用户最近一天左右的消息，是设备日常同步的主要查询
+        long since = start + span - span / MONTHS / 30;
+        log.info("===== sync_message {} 行，{} 个月 =====", count(FLAT), MONTHS);
+        log.info("分区表近期查询扫描的分区: {}", explainPartitions(PARTITIONED, since));
+        queryRecent(FLAT, since);
+        queryRecent(PARTITIONED, since);
+        long flatQuery = 0;
+        long partitionedQuery = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            flatQuery += queryRecent(FLAT, since);
+            partitionedQuery += queryRecent(PARTITIONED, since);
+        }
+        log.info(String.format("近期增量查询: 未分区 %8.2f ms/次, 分区 %8.2f ms/次",
+                flatQuery / ROUNDS / 1e6, partitionedQuery / ROUNDS / 1e6));
+
+        // 移出最旧的一个月
+        long oldestBound = toHlc(first.plusMonths(1));
+        long begin = System.nanoTime();
+        int deleted = jdbcTemplate.update("DELETE FROM " + FLAT + " WHERE hlc_timestamp < ?", oldestBound);
+        long flatDelete = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        jdbcTemplate.execute("ALTER TABLE " + PARTITIONED + " DROP PARTITION " + partitionName(first));
+        long partitionDrop = System.nanoTime() - begin;
+        log.info(String.format("删除最旧一个月（%d 行）: DELETE %10.0f ms, DROP PARTITION %10.0f ms",
+                deleted, flatDelete / 1e6, partitionDrop / 1e6));
+        assertEquals(count(FLAT), count(PARTITIONED));
+    }
+
+    private void createTables(YearMonth first) {
+        dropTables();
+        StringJoiner partitions = new StringJoiner(",\n");
+        for (int i = 0; i < MONTHS; i++) {
+            YearMonth month = first.plusMonths(i);
+            partitions.add("PARTITION " + partitionName(month) + " VALUES LESS THAN (" + toHlc(month.plusMonths(1)) + ")");
+        }
+        partitions.add("PARTITION pmax VALUES LESS THAN MAXVALUE");
+        jdbcTemplate.execute("CREATE TABLE " + PARTITIONED + " LIKE sync_message");
+        jdbcTemplate.execute("ALTER TABLE " + PARTITIONED + " PARTITION BY RANGE (hlc_timestamp) (" + partitions + ")");
+        jdbcTemplate.execute("CREATE TABLE " + FLAT + " LIKE " + PARTITIONED);
+        jdbcTemplate.execute("ALTER TABLE " + FLAT + " REMOVE PARTITIONING");
+    }
+
+    /**
+     * 以一行种子数据为起点反复INSERT ... SELECT自身，每次约翻倍，HLC在整个时间范围内随机分布
+     */
+    private void fill(String table, long rows, long start, long span) {
+        jdbcTemplate.update("INSERT INTO " + table + " (user_id, entity_type, crdt_key, message_data, hlc_timestamp, origin_device_id, projected)"
+                + " VALUES (1, 'TimeSlot', 'time_slot_seed', '{\"operationType\":\"ADD\"}', ?, 'benchmark-device', TRUE)", start);
+        long count = 1;
+        long began = System.currentTimeMillis();
+        while (count < rows) {
+            long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+            long remaining = rows - count;
+            for (long from = 0; from < maxId && remaining > 0; from += CHUNK) {
+                int inserted = jdbcTemplate.update("INSERT IGNORE INTO " + table
+                        + " (user_id, entity_type, crdt_key, message_data, hlc_timestamp, origin_device_id, projected)"
+                        + " SELECT FLOOR(1 + RAND() * ?), entity_type, CONCAT('time_slot_', FLOOR(RAND() * 1000000000000)),"
+                        + " message_data, ? + FLOOR(RAND() * ?), CONCAT('benchmark-device-', FLOOR(RAND() * 4)), TRUE"
+                        + " FROM " + table + " WHERE id > ? AND id <= ? LIMIT ?",
+                        USERS, start, span, from, from + CHUNK, remaining);
+                count += inserted;
+                remaining -= inserted;
+            }
+            log.info("已生成 {} 行，耗时 {} s", count, (System.currentTimeMillis() - began) / 1000);
+        }
+    }
+
+    private void copy(String from, String to) {
+        long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + from, Long.class);
+        for (long id = 0; id < maxId; id += CHUNK) {
+            jdbcTemplate.update("INSERT INTO " + to + " SELECT * FROM " + from + " WHERE id > ? AND id <= ?", id, id + CHUNK);
+        }
+    }
+
+    private long queryRecent(String table, long since) {
+        long begin = System.nanoTime();
+        for (int user = 1; user <= 50; user++) {
+            jdbcTemplate.queryForList("SELECT id, entity_type, crdt_key, message_data, hlc_timestamp, origin_device_id FROM " + table
+                    + " WHERE user_id = ? AND hlc_timestamp > ? ORDER BY hlc_timestamp, id LIMIT 500", user * (USERS / 50), since);
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private String explainPartitions(String table, long since) {
+        List<String> partitions = jdbcTemplate.query("EXPLAIN SELECT id FROM " + table + " WHERE user_id = 1 AND hlc_timestamp > ?",
+                (rs, i) -> rs.getString("partitions"), since);
+        return String.join(" ", partitions);
+    }
+
+    private long count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+    }
+
+    private static String partitionName(YearMonth month) {
+        return String.format("p%04d%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private static long toHlc(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() << 16;
+    }
+}
@@ -0,0 +1,98 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.SyncProperties;
+import com.djj.todoscheduleserver.mapper.SyncMessageMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.utils.SyncChangeTracker;
+import com.djj.todoscheduleserver.utils.SyncMessageTailCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SyncMessageTailCacheTests {
+
+    @Test
+    void servesMessagesCommittedAfterTheBufferWasCreated() {
+        SyncMessageTailCache cache = new SyncMessageTailCache(new SyncProperties(), tracker(100L));
+        assertNull(cache.find(1, null, null, 100L));
+
+        cache.appendAfterCommit(1, List.of(message(1, "device_a", "TimeSlot", 102, 2), message(1, "device_a", "Course", 101, 1)));
+
+        List<SyncMessage> all = cache.find(1, null, null, 100L);
+        assertNotNull(all);
+        assertEquals(List.of(1L, 2L), all.stream().map(SyncMessage::getId).toList());
+        assertEquals(1, cache.find(1, "TimeSlot", null, 100L).size());
+        assertEquals(0, cache.find(1, null, "device_a", 100L).size());
+        // 缓冲区创建之前的消息不在缓存中，必须查询数据库
+        assertNull(cache.find(1, null, null, 99L));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void evictingOldMessagesRaisesTheFloor() {
+        SyncProperties properties = new SyncProperties();
+        properties.getHotTail().setMaxMessagesPerUser(2);
+        SyncMessageTailCache cache = new SyncMessageTailCache(properties, tracker(0L));
+
+        cache.appendAfterCommit(1, List.of(message(1, "d", "TimeSlot", 10, 1)));
+        cache.appendAfterCommit(1, List.of(message(1, "d", "TimeSlot", 30, 2)));
+        cache.appendAfterCommit(1, List.of(message(1, "d", "TimeSlot", 20, 3)));
+
+        assertNull(cache.find(1, null, null, 5L));
+        assertEquals(List.of(3L, 2L), cache.find(1, null, null, 10L).stream().map(SyncMessage::getId).toList());
+    }
+
+    @Test
+    void leastRecentlyUsedUserIsEvictedWhenOverTheMemoryCap() {
+        SyncProperties properties = new SyncProperties();
+        properties.getHotTail().setMaxBytes(1000);
+        SyncMessageTailCache cache = new SyncMessageTailCache(properties, tracker(0L));
+
+        cache.appendAfterCommit(1, List.of(message(1, "d", "TimeSlot", 1, 1)));
+        cache.appendAfterCommit(2, List.of(message(2, "d", "TimeSlot", 1, 2)));
+        cache.find(1, null, null, 0L);
+        cache.appendAfterCommit(3, List.of(message(3, "d", "TimeSlot", 1, 3)));
+
+        assertNotNull(cache.find(1, null, null, 0L));
+        assertNull(cache.find(2, null, null, 0L));
+        assertNotNull(cache.find(3, null, null, 0L));
+    }
+
+    @Test
+    void disabledOnMultiNodeDeployments() {
+        SyncProperties properties = new SyncProperties();
+        properties.getHlc().setNodeIdBits(4);
+        SyncMessageTailCache cache = new SyncMessageTailCache(properties, tracker(0L));
+
+        cache.appendAfterCommit(1, List.of(message(1, "d", "TimeSlot", 1, 1)));
+
+        // 其他节点写入的消息不在本节点缓存中，只能查询数据库
+        assertNull(cache.find(1, null, null, 0L));
+    }
+
+    private SyncChangeTracker tracker(long version) {
+        SyncMessageMapper mapper = mock(SyncMessageMapper.class);
+        when(mapper.getMaxHlc(anyInt())).thenReturn(version);
+        return new SyncChangeTracker(mapper, new SyncProperties());
+    }
+
+    private SyncMessage message(int userId, String deviceId, String entityType, long hlc, long id) {
+        SyncMessage message = new SyncMessage();
+        message.setId(id);
+        message.setUserId(userId);
+        message.setOriginDeviceId(deviceId);
+        message.setEntityType(entityType);
+        message.setCrdtKey("key_" + id);
+        message.setMessageData("{\"crdtKey\":\"key_" + id + "\",\"payload\":\"" + "x".repeat(100) + "\"}");
+        message.setHlcTimestamp(hlc);
+        return message;
+    }
+}
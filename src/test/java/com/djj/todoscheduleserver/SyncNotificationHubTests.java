@@ -0,0 +1,69 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.utils.SyncNotificationHub;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncNotificationHubTests {
+
+    @Test
+    void wakesOtherDevicesOfTheSameUserOnly() {
+        SyncNotificationHub hub = new SyncNotificationHub();
+        List<String> woken = new ArrayList<>();
+        hub.subscribe(1, "device_a", (origin, hlc) -> woken.add("device_a"));
+        hub.subscribe(1, "device_b", (origin, hlc) -> woken.add("device_b"));
+        hub.subscribe(2, "device_c", (origin, hlc) -> woken.add("device_c"));
+
+        hub.publish(1, "device_a", 100L);
+
+        assertEquals(List.of("device_b"), woken);
+    }
+
+    @Test
+    void unsubscribedListenerIsNotCalled() {
+        SyncNotificationHub hub = new SyncNotificationHub();
+        List<Long> received = new ArrayList<>();
+        SyncNotificationHub.Subscription subscription = hub.subscribe(1, "device_a", (origin, hlc) -> received.add(hlc));
+
+        hub.unsubscribe(subscription);
+        hub.unsubscribe(subscription);
+        hub.publishAfterCommit(1, "device_b", 100L);
+
+        assertTrue(received.isEmpty());
+        assertEquals(0, hub.getSubscriberCount());
+    }
+
+    @Test
+    void longPollWaitersAreCountedSeparately() {
+        SyncNotificationHub hub = new SyncNotificationHub();
+        hub.subscribe(1, "device_a", (origin, hlc) -> { });
+        SyncNotificationHub.Subscription waiter = hub.subscribeLongPoll(1, "device_b", (origin, hlc) -> { });
+
+        assertEquals(2, hub.getSubscriberCount(1));
+        assertEquals(1, hub.getLongPollCount(1));
+
+        hub.unsubscribe(waiter);
+        assertEquals(0, hub.getLongPollCount(1));
+    }
+
+    @Test
+    void failingListenerDoesNotBlockOthers() {
+        SyncNotificationHub hub = new SyncNotificationHub();
+        List<Long> received = new ArrayList<>();
+        hub.subscribe(1, "device_a", (origin, hlc) -> {
+            throw new IllegalStateException("连接已关闭");
+        });
+        hub.subscribe(1, "device_b", (origin, hlc) -> received.add(hlc));
+
+        // 没有活动事务时立即通知
+        hub.publishAfterCommit(1, "device_c", 100L);
+
+        assertEquals(List.of(100L), received);
+        assertEquals(2, hub.getSubscriberCount(1));
+    }
+}
@@ -0,0 +1,56 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.mapper.SyncSequenceMapper;
+import com.djj.todoscheduleserver.pojo.crdt.SyncMessage;
+import com.djj.todoscheduleserver.utils.SyncSequenceAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * SyncSequenceAllocator的序号分配测试，不需要数据库
+ */
+class SyncSequenceAllocatorTests {
+
+    @Test
+    void assignsConsecutiveSeqInListOrder() {
+        SyncSequenceMapper mapper = mock(SyncSequenceMapper.class);
+        // 之前已分配到10，本次分配3个后计数为13
+        when(mapper.getLastSeq(1)).thenReturn(13L);
+        List<SyncMessage> messages = messages(3);
+
+        new SyncSequenceAllocator(mapper).assign(1, messages);
+
+        verify(mapper).advance(1, 3);
+        assertEquals(List.of(11L, 12L, 13L), messages.stream().map(SyncMessage::getSeq).toList());
+    }
+
+    @Test
+    void emptyListDoesNotTouchCounter() {
+        SyncSequenceMapper mapper = mock(SyncSequenceMapper.class);
+
+        new SyncSequenceAllocator(mapper).assign(1, new ArrayList<>());
+
+        verify(mapper, never()).advance(anyInt(), anyInt());
+    }
+
+    private List<SyncMessage> messages(int count) {
+        List<SyncMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SyncMessage message = new SyncMessage();
+            message.setUserId(1);
+            message.setCrdtKey("time_slot_" + i);
+            message.setHlcTimestamp(1000L - i);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
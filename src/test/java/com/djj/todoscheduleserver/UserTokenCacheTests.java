@@ -0,0 +1,114 @@
+package com.djj.todoscheduleserver;
+
+import com.djj.todoscheduleserver.config.AuthProperties;
+import com.djj.todoscheduleserver.pojo.User;
+import com.djj.todoscheduleserver.utils.UserTokenCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * UserTokenCache的缓存、失效与容量限制测试，不需要数据库
+ */
+class UserTokenCacheTests {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final Function<String, User> loader = token -> {
+        loads.incrementAndGet();
+        if (token.startsWith("invalid")) {
+            return null;
+        }
+        User user = new User();
+        user.setId(Integer.parseInt(token.substring(token.indexOf('-') + 1)));
+        user.setToken(token);
+        user.setPasswordHash("hash");
+        return user;
+    };
+
+    @Test
+    void loadsEachTokenOnceAndReturnsCopies() {
+        UserTokenCache cache = new UserTokenCache(new AuthProperties());
+
+        User first = cache.get("token-1", loader);
+        first.setPasswordHash(null);
+        User second = cache.get("token-1", loader);
+
+        assertEquals(1, loads.get());
+        assertEquals(1, second.getId());
+        // 调用方修改返回的对象不影响缓存
+        assertEquals("hash", second.getPasswordHash());
+    }
+
+    @Test
+    void doesNotCacheInvalidTokens() {
+        UserTokenCache cache = new UserTokenCache(new AuthProperties());
+
+        assertNull(cache.get("invalid-1", loader));
+        assertNull(cache.get("invalid-1", loader));
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidatesAllTokensOfUser() {
+        UserTokenCache cache = new UserTokenCache(new AuthProperties());
+        cache.get("a-1", loader);
+        cache.get("b-1", loader);
+        cache.get("c-2", loader);
+
+        cache.invalidateUser(1);
+
+        assertEquals(1, cache.size());
+        cache.get("a-1", loader);
+        cache.get("c-2", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void skipsResultLoadedAcrossInvalidation() {
+        UserTokenCache cache = new UserTokenCache(new AuthProperties());
+
+        // 查询期间用户修改了密码，查到的旧数据不能写入缓存
+        cache.get("token-1", token -> {
+            cache.invalidateUser(1);
+            return loader.apply(token);
+        });
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondLimit() {
+        AuthProperties properties = new AuthProperties();
+        properties.getTokenCache().setMaxEntries(2);
+        UserTokenCache cache = new UserTokenCache(properties);
+        cache.get("token-1", loader);
+        cache.get("token-2", loader);
+        cache.get("token-1", loader);
+        cache.get("token-3", loader);
+
+        assertEquals(2, cache.size());
+        cache.get("token-1", loader);
+        assertEquals(3, loads.get());
+        cache.get("token-2", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void bypassesCacheWhenDisabled() {
+        AuthProperties properties = new AuthProperties();
+        properties.getTokenCache().setEnabled(false);
+        UserTokenCache cache = new UserTokenCache(properties);
+        cache.get("token-1", loader);
+        cache.get("token-1", loader);
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+}